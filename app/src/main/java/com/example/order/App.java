@@ -4,24 +4,42 @@ import akka.NotUsed;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.MailboxSelector;
+import akka.actor.typed.Props;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.http.javadsl.Http;
 import akka.http.javadsl.ServerBinding;
 import akka.http.javadsl.server.Route;
 import com.example.order.domain.OrderActor;
 import com.example.order.domain.FulfillmentActor;
+import com.example.order.domain.FulfillmentPool;
+import com.example.order.domain.FulfillmentSettings;
+import com.example.order.persistence.GroupCommitBuffer;
 import com.example.order.persistence.PersistenceActor;
+import com.example.order.persistence.PersistenceRouter;
+import com.example.order.persistence.PersistenceSettings;
 import lombok.extern.slf4j.Slf4j;
+import com.example.order.http.HttpSettings;
+import com.example.order.http.MetricsRoutes;
 import com.example.order.http.OrderRoutes;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 
 import java.net.InetSocketAddress;
 import java.util.concurrent.CompletionStage;
 
+import static akka.http.javadsl.server.Directives.concat;
+
 @Slf4j
 public class App {
+
+    private static final MailboxSelector INSTRUMENTED = MailboxSelector.fromConfig("order.instrumented-mailbox");
+    private static final MailboxSelector BOUNDED = MailboxSelector.fromConfig("order.bounded-mailbox");
+
     static void startHttpServer(Route route, ActorSystem<?> system) {
+        HttpSettings settings = HttpSettings.fromConfig(system.settings().config().getConfig("order.http"));
         CompletionStage<ServerBinding> futureBinding =
-                Http.get(system).newServerAt("localhost", 8080).bind(route);
+                Http.get(system).newServerAt(settings.getHost(), settings.getPort()).bind(route);
 
         futureBinding.whenComplete((binding, exception) -> {
             if (binding != null) {
@@ -36,23 +54,60 @@ public class App {
         });
     }
 
+    static Behavior<PersistenceActor.PersistenceCommand> persistenceBehavior(Config config) {
+        String mode = config.getString("order.persistence.mode");
+        PersistenceSettings settings = PersistenceSettings.fromConfig(config.getConfig("order.persistence"));
+        switch (mode) {
+            case "single":
+                return settings.getGroupCommitMaxBatchSize() > 1
+                        ? GroupCommitBuffer.create(settings)
+                        : PersistenceActor.create(settings);
+            case "per-order":
+                return PersistenceRouter.create(config.getDuration("order.persistence.entity-idle-timeout"), settings);
+            default:
+                throw new IllegalArgumentException("Unknown order.persistence.mode: " + mode);
+        }
+    }
+
+    /**
+     * The group commit buffer spawns the actor writing the orders on the persistence dispatcher
+     * itself, the router and the buffer stay on the default dispatcher.
+     */
+    static Props persistenceProps(Config config) {
+        PersistenceSettings settings = PersistenceSettings.fromConfig(config.getConfig("order.persistence"));
+        boolean writesOrders = config.getString("order.persistence.mode").equals("single")
+                && settings.getGroupCommitMaxBatchSize() <= 1;
+        return writesOrders && settings.getDispatcher() != null
+                ? BOUNDED.withDispatcherFromConfig(settings.getDispatcher())
+                : BOUNDED;
+    }
+
     public static void main(String[] args) {
+        start(ConfigFactory.load());
+    }
+
+    /**
+     * Starts the service with the given config, e.g. several times in a row from the load tests.
+     */
+    public static ActorSystem<NotUsed> start(Config config) {
         Behavior<NotUsed> rootBehavior = Behaviors.setup(context -> {
             ActorRef<PersistenceActor.PersistenceCommand> orderPersistenceActor =
-                    context.spawn(PersistenceActor.create(), "PersistenceActor");
+                    context.spawn(persistenceBehavior(config), "PersistenceActor", persistenceProps(config));
 
+            FulfillmentSettings fulfillmentSettings = FulfillmentSettings.fromConfig(config.getConfig("order.fulfillment"));
             ActorRef<FulfillmentActor.Command> fulfillmentActor =
-                    context.spawn(FulfillmentActor.create(), "FulfillmentActor");
+                    context.spawn(FulfillmentPool.create(fulfillmentSettings), "FulfillmentPool", INSTRUMENTED);
 
             ActorRef<OrderActor.Command> orderActor =
-                    context.spawn(OrderActor.create(orderPersistenceActor, fulfillmentActor), "OrderActor");
+                    context.spawn(OrderActor.create(orderPersistenceActor, fulfillmentActor, fulfillmentSettings), "OrderActor", BOUNDED);
 
             OrderRoutes orderRoutes = new OrderRoutes(context.getSystem(), orderPersistenceActor, orderActor);
-            startHttpServer(orderRoutes.userRoutes(), context.getSystem());
+            MetricsRoutes metricsRoutes = new MetricsRoutes(context.getSystem());
+            startHttpServer(concat(orderRoutes.userRoutes(), metricsRoutes.metricsRoutes()), context.getSystem());
 
             return Behaviors.empty();
         });
 
-        ActorSystem.create(rootBehavior, "OrderSystem");
+        return ActorSystem.create(rootBehavior, "OrderSystem", config);
     }
 }
\ No newline at end of file
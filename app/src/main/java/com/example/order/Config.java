@@ -1,7 +0,0 @@
-package com.example.order;
-
-import java.time.Duration;
-
-public class Config {
-    public static Duration TIMEOUT = Duration.ofSeconds(5);
-}
@@ -6,8 +6,10 @@ import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.Receive;
+import com.example.order.persistence.FulfillmentResult;
 import lombok.AllArgsConstructor;
 
+import java.time.Duration;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static com.example.order.domain.FulfillmentActor.Command;
@@ -16,8 +18,11 @@ import static com.example.order.persistence.FulfillmentResult.SUCCESS;
 
 public class FulfillmentActor extends AbstractBehavior<Command> {
 
-    public FulfillmentActor(ActorContext<Command> ctx) {
+    private final Duration simulatedLatency;
+
+    public FulfillmentActor(ActorContext<Command> ctx, Duration simulatedLatency) {
         super(ctx);
+        this.simulatedLatency = simulatedLatency;
     }
 
     @Override
@@ -28,13 +33,29 @@ public class FulfillmentActor extends AbstractBehavior<Command> {
     }
 
     public Behavior<Command> onFulfill(Fulfill cmd) {
-        var result = ThreadLocalRandom.current().nextInt(0, 2) == 0 ? SUCCESS : FAILURE;
-        cmd.replyTo.tell(new OrderActor.Close(cmd.orderId, result));
+        cmd.replyTo.tell(new OrderActor.Close(cmd.orderId, fulfill()));
         return this;
     }
 
+    private FulfillmentResult fulfill() {
+        if (!simulatedLatency.isZero()) {
+            // stands in for blocking warehouse calls, run workers on a dispatcher meant for blocking
+            try {
+                Thread.sleep(simulatedLatency.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return FAILURE;
+            }
+        }
+        return ThreadLocalRandom.current().nextInt(0, 2) == 0 ? SUCCESS : FAILURE;
+    }
+
     public static Behavior<Command> create() {
-        return Behaviors.setup(FulfillmentActor::new);
+        return create(Duration.ZERO);
+    }
+
+    public static Behavior<Command> create(Duration simulatedLatency) {
+        return Behaviors.setup(ctx -> new FulfillmentActor(ctx, simulatedLatency));
     }
 
     public interface Command {
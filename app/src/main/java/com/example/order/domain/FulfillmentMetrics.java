@@ -0,0 +1,63 @@
+package com.example.order.domain;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import com.example.order.metrics.OrderMetrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gauges and counters of the {@link FulfillmentPool}, updated by the pool and readable from any thread.
+ */
+public class FulfillmentMetrics implements Extension {
+
+    public static final ExtensionId<FulfillmentMetrics> ID = new ExtensionId<>() {
+        @Override
+        public FulfillmentMetrics createExtension(ActorSystem<?> system) {
+            FulfillmentMetrics fulfillment = new FulfillmentMetrics();
+            OrderMetrics metrics = OrderMetrics.get(system);
+            metrics.gauge("order_fulfillment_queue_depth", "Orders waiting for a free fulfillment worker.", fulfillment::queueDepth);
+            metrics.gauge("order_fulfillment_in_flight", "Orders being fulfilled by a worker.", fulfillment::inFlight);
+            metrics.counter("order_fulfillment_completed_total", "Fulfilled orders.", fulfillment::completed);
+            metrics.counter("order_fulfillment_rejected_total", "Orders rejected because the queue was full.", fulfillment::rejected);
+            metrics.counter("order_fulfillment_timed_out_total", "Orders whose worker didn't answer in time.", fulfillment::timedOut);
+            return fulfillment;
+        }
+    };
+
+    final AtomicInteger queueDepth = new AtomicInteger();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicLong completed = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong timedOut = new AtomicLong();
+
+    public static FulfillmentMetrics get(ActorSystem<?> system) {
+        return ID.get(system);
+    }
+
+    /** Orders waiting for a free worker. */
+    public int queueDepth() {
+        return queueDepth.get();
+    }
+
+    /** Orders being fulfilled by a worker. */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public long completed() {
+        return completed.get();
+    }
+
+    /** Orders rejected because the queue was full. */
+    public long rejected() {
+        return rejected.get();
+    }
+
+    /** Orders whose worker didn't answer within the timeout. */
+    public long timedOut() {
+        return timedOut.get();
+    }
+}
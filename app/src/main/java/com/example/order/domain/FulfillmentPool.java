@@ -0,0 +1,146 @@
+package com.example.order.domain;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
+import akka.actor.typed.SupervisorStrategy;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import lombok.AllArgsConstructor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distributes {@link FulfillmentActor.Fulfill} requests over a fixed number of {@link FulfillmentActor}
+ * workers. Every worker gets one order at a time, so at most parallelism orders are in flight and
+ * the rest wait in the pool's queue until a worker reports back. The result is passed on to the
+ * requester of the order. A request for an order that is already queued or in flight joins that
+ * job instead of fulfilling the order twice, and its requester gets the same result.
+ * <p>
+ * A worker that fails or hangs doesn't answer. After the fulfillment timeout its job is dropped
+ * and the worker is replaced, the requesters' sagas retry the order. With max queued orders waiting,
+ * further orders are rejected the same way, without an answer.
+ */
+public class FulfillmentPool extends AbstractBehavior<FulfillmentActor.Command> {
+
+    private final FulfillmentSettings settings;
+    private final FulfillmentMetrics metrics;
+    private final Behavior<FulfillmentActor.Command> workerBehavior;
+    private final DispatcherSelector dispatcher;
+    private final Deque<ActorRef<FulfillmentActor.Command>> idleWorkers = new ArrayDeque<>();
+    private final Deque<String> queue = new ArrayDeque<>();
+    /** Queued and in flight jobs by order id. */
+    private final Map<String, Job> jobs = new HashMap<>();
+    private int workersSpawned;
+
+    private FulfillmentPool(ActorContext<FulfillmentActor.Command> ctx, FulfillmentSettings settings) {
+        super(ctx);
+        this.settings = settings;
+        this.metrics = FulfillmentMetrics.get(ctx.getSystem());
+        this.dispatcher = settings.getDispatcher() != null
+                ? DispatcherSelector.fromConfig(settings.getDispatcher())
+                : DispatcherSelector.blocking();
+        this.workerBehavior = Behaviors.supervise(FulfillmentActor.create(settings.getSimulatedLatency()))
+                .onFailure(SupervisorStrategy.restart());
+        for (int i = 0; i < settings.getParallelism(); i++) {
+            idleWorkers.add(spawnWorker());
+        }
+    }
+
+    private ActorRef<FulfillmentActor.Command> spawnWorker() {
+        return getContext().spawn(workerBehavior, "worker-" + workersSpawned++, dispatcher);
+    }
+
+    @Override
+    public Receive<FulfillmentActor.Command> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(FulfillmentActor.Fulfill.class, this::onFulfill)
+                .onMessage(WorkDone.class, this::onWorkDone)
+                .build();
+    }
+
+    private Behavior<FulfillmentActor.Command> onFulfill(FulfillmentActor.Fulfill cmd) {
+        Job job = jobs.get(cmd.orderId);
+        if (job != null) {
+            job.requesters.add(cmd.replyTo);
+            return this;
+        }
+        if (queue.size() >= settings.getMaxQueued()) {
+            metrics.rejected.incrementAndGet();
+            getContext().getLog().warn("Rejecting fulfillment of order {}, {} orders are queued", cmd.orderId, queue.size());
+            return this;
+        }
+        jobs.put(cmd.orderId, new Job(cmd.replyTo));
+        queue.add(cmd.orderId);
+        metrics.queueDepth.incrementAndGet();
+        dispatch();
+        return this;
+    }
+
+    private Behavior<FulfillmentActor.Command> onWorkDone(WorkDone cmd) {
+        Job job = jobs.get(cmd.orderId);
+        if (job == null || job.worker != cmd.worker) {
+            getContext().getLog().warn("Unexpected fulfillment result for order {}", cmd.orderId);
+            return this;
+        }
+        jobs.remove(cmd.orderId);
+        metrics.inFlight.decrementAndGet();
+        if (cmd.result != null) {
+            metrics.completed.incrementAndGet();
+            job.requesters.forEach(requester -> requester.tell(cmd.result));
+            idleWorkers.add(cmd.worker);
+        } else {
+            // the worker failed or is stuck in the order, a fresh one takes its place
+            metrics.timedOut.incrementAndGet();
+            getContext().getLog().warn("Fulfillment of order {} timed out, replacing its worker", cmd.orderId);
+            getContext().stop(cmd.worker);
+            idleWorkers.add(spawnWorker());
+        }
+        dispatch();
+        return this;
+    }
+
+    private void dispatch() {
+        while (!idleWorkers.isEmpty() && !queue.isEmpty()) {
+            String orderId = queue.poll();
+            ActorRef<FulfillmentActor.Command> worker = idleWorkers.poll();
+            jobs.get(orderId).worker = worker;
+            metrics.queueDepth.decrementAndGet();
+            metrics.inFlight.incrementAndGet();
+            getContext().ask(OrderActor.Command.class, worker, settings.getTimeout(),
+                    replyTo -> new FulfillmentActor.Fulfill(orderId, replyTo),
+                    (result, failure) -> new WorkDone(orderId, worker, result));
+        }
+    }
+
+    public static Behavior<FulfillmentActor.Command> create(FulfillmentSettings settings) {
+        return Behaviors.setup(ctx -> new FulfillmentPool(ctx, settings));
+    }
+
+    private static final class Job {
+        final List<ActorRef<OrderActor.Command>> requesters = new ArrayList<>();
+        /** The worker fulfilling the order, {@code null} while it is queued. */
+        ActorRef<FulfillmentActor.Command> worker;
+
+        Job(ActorRef<OrderActor.Command> requester) {
+            requesters.add(requester);
+        }
+    }
+
+    /**
+     * Result of the worker, null if it didn't answer in time.
+     */
+    @AllArgsConstructor
+    private static final class WorkDone implements FulfillmentActor.Command {
+        final String orderId;
+        final ActorRef<FulfillmentActor.Command> worker;
+        final OrderActor.Command result;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.order.domain;
+
+import com.typesafe.config.Config;
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+@Value
+@Builder(toBuilder = true)
+public class FulfillmentSettings {
+    /** Number of workers, each fulfilling one order at a time. */
+    int parallelism;
+    /** Time a worker blocks per order to stand in for warehouse calls, zero for none. */
+    Duration simulatedLatency;
+    /** Orders waiting for a free worker at most, further orders are rejected until the queue drains. */
+    int maxQueued;
+    /** Dispatcher config path the workers run on, null for the default blocking IO dispatcher. */
+    String dispatcher;
+    /** Time to wait for a fulfillment result before the attempt counts as failed. */
+    Duration timeout;
+    /** Time to wait for the persistence actor to confirm closing the order. */
+    Duration closeTimeout;
+    /** Backoff before the first retry, doubled with every further attempt up to the max backoff. */
+    Duration minBackoff;
+    Duration maxBackoff;
+    /** Attempts before the order is closed with a failed fulfillment. */
+    int maxAttempts;
+    /** Retries running at the same time, further retries wait for a free slot. */
+    int maxConcurrentRetries;
+
+    public static FulfillmentSettings defaults() {
+        return FulfillmentSettings.builder()
+                .parallelism(4)
+                .simulatedLatency(Duration.ZERO)
+                .maxQueued(10000)
+                .timeout(Duration.ofSeconds(30))
+                .closeTimeout(Duration.ofSeconds(5))
+                .minBackoff(Duration.ofSeconds(1))
+                .maxBackoff(Duration.ofMinutes(1))
+                .maxAttempts(5)
+                .maxConcurrentRetries(100)
+                .build();
+    }
+
+    public static FulfillmentSettings fromConfig(Config config) {
+        return FulfillmentSettings.builder()
+                .parallelism(config.getInt("parallelism"))
+                .simulatedLatency(config.getDuration("simulated-latency"))
+                .maxQueued(config.getInt("max-queued"))
+                .dispatcher(config.getString("dispatcher").isEmpty() ? null : config.getString("dispatcher"))
+                .timeout(config.getDuration("saga.timeout"))
+                .closeTimeout(config.getDuration("saga.close-timeout"))
+                .minBackoff(config.getDuration("saga.min-backoff"))
+                .maxBackoff(config.getDuration("saga.max-backoff"))
+                .maxAttempts(config.getInt("saga.max-attempts"))
+                .maxConcurrentRetries(config.getInt("saga.max-concurrent-retries"))
+                .build();
+    }
+}
@@ -2,93 +2,292 @@ package com.example.order.domain;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
-import akka.actor.typed.Scheduler;
 import akka.actor.typed.javadsl.*;
 import akka.pattern.StatusReply;
+import com.example.order.metrics.MailboxFullException;
+import com.example.order.metrics.Sheddable;
 import com.example.order.persistence.FulfillmentResult;
+import com.example.order.persistence.InvalidStateChangeException;
 import com.example.order.persistence.Order;
+import com.example.order.persistence.OrderNotFoundException;
 import com.example.order.persistence.OrderState;
 import com.example.order.persistence.PersistenceActor;
 import com.example.order.persistence.PersistenceActor.PersistenceCommand;
 import lombok.AllArgsConstructor;
 
-import java.util.concurrent.CompletionStage;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
-import static com.example.order.Config.TIMEOUT;
-import static com.example.order.persistence.OrderState.IN_FULFILLMENT;
 import static com.example.order.persistence.OrderState.PAID;
 
+/**
+ * Drives orders through payment and fulfillment without asking: state changes are sent to the
+ * persistence actor with the client as replyTo, paying persists PAID and IN_FULFILLMENT atomically
+ * and reports the order back through a message adapter, and fulfillment results come back as
+ * {@link Close}.
+ * <p>
+ * Every order in fulfillment is tracked by a saga until closing it is confirmed. An attempt that
+ * gets no fulfillment result or close confirmation in time is retried with exponential backoff,
+ * at most max concurrent retries at once. After max attempts the order is closed as failed. On
+ * start the orders left in fulfillment are fetched from the recovered state and re-driven as
+ * retries.
+ */
 public class OrderActor extends AbstractBehavior<OrderActor.Command> {
 
+    private enum Phase {FULFILLING, CLOSING, BACKOFF}
+
     private final ActorRef<PersistenceCommand> persistenceActor;
-    private ActorRef<FulfillmentActor.Command> fulfillmentActor;
-    private final Scheduler scheduler;
+    private final ActorRef<FulfillmentActor.Command> fulfillmentActor;
+    private final FulfillmentSettings settings;
+    private final TimerScheduler<Command> timers;
+    private final ActorRef<Order> fulfillmentStarted;
+    private final ActorRef<StatusReply<Order>> closeReplies;
+    private final Map<String, Saga> sagas = new HashMap<>();
+    private final Deque<Saga> waitingRetries = new ArrayDeque<>();
+    private int runningRetries;
 
     public OrderActor(ActorContext<Command> ctx,
+                      TimerScheduler<Command> timers,
                       ActorRef<PersistenceCommand> persistenceActor,
-                      ActorRef<FulfillmentActor.Command> fulfillmentActor) {
+                      ActorRef<FulfillmentActor.Command> fulfillmentActor,
+                      FulfillmentSettings settings) {
         super(ctx);
+        this.timers = timers;
         this.persistenceActor = persistenceActor;
         this.fulfillmentActor = fulfillmentActor;
-        scheduler = ctx.getSystem().scheduler();
+        this.settings = settings;
+        this.fulfillmentStarted = ctx.messageAdapter(Order.class, StartFulfillment::new);
+        this.closeReplies = ctx.messageAdapter(orderReplyClass(), CloseReply::new);
+        persistenceActor.tell(new PersistenceActor.ListInFulfillment(
+                ctx.messageAdapter(PersistenceActor.OrdersInFulfillment.class, RecoveredInFulfillment::new)));
     }
 
     @Override
     public Receive<Command> createReceive() {
         return newReceiveBuilder()
                 .onMessage(ChangeState.class, this::onStateChange)
+                .onMessage(ChangeStateBatch.class, this::onStateChangeBatch)
+                .onMessage(StartFulfillment.class, this::onStartFulfillment)
+                .onMessage(RecoveredInFulfillment.class, this::onRecoveredInFulfillment)
                 .onMessage(Close.class, this::onClose)
+                .onMessage(CloseReply.class, this::onCloseReply)
+                .onMessage(SagaTimeout.class, this::onSagaTimeout)
                 .build();
     }
 
     private Behavior<Command> onStateChange(ChangeState cmd) {
-        askPersistenceActorForStateChange(cmd.orderId, cmd.state).whenComplete((orderStatusReply, throwable) -> {
-            startFulfillment(orderStatusReply);
-            cmd.replyTo.tell(orderStatusReply);
-        });
+        persistenceActor.tell(cmd.state == PAID
+                ? new PersistenceActor.Pay(cmd.orderId, cmd.replyTo, fulfillmentStarted, cmd.expectedVersion)
+                : new PersistenceActor.ChangeState(cmd.orderId, cmd.state, cmd.replyTo, cmd.expectedVersion));
+        return this;
+    }
+
+    private Behavior<Command> onStateChangeBatch(ChangeStateBatch cmd) {
+        persistenceActor.tell(new PersistenceActor.ChangeStateBatch(cmd.changes, cmd.replyTo, fulfillmentStarted));
         return this;
     }
 
-    private CompletionStage<StatusReply<Order>> askPersistenceActorForStateChange(String orderId, OrderState state) {
-        return AskPattern.ask(persistenceActor, reply ->
-                new PersistenceActor.ChangeState(orderId, state, reply), TIMEOUT, scheduler);
+    private Behavior<Command> onStartFulfillment(StartFulfillment cmd) {
+        if (!sagas.containsKey(cmd.order.id)) {
+            Saga saga = new Saga(cmd.order.id);
+            sagas.put(saga.orderId, saga);
+            fulfill(saga);
+        }
+        return this;
     }
 
-    private void startFulfillment(StatusReply<Order> orderPaidReply) {
-        if (orderPaidReply.isSuccess() && orderPaidReply.getValue().getState() == PAID) {
-            askPersistenceActorForStateChange(orderPaidReply.getValue().id, IN_FULFILLMENT).whenComplete((orderFulfillmentReply, throwable) -> {
-                if (orderFulfillmentReply.isSuccess()) {
-                    fulfillmentActor.tell(new FulfillmentActor.Fulfill(orderPaidReply.getValue().id, getContext().getSelf()));
-                }
-            });
+    private Behavior<Command> onRecoveredInFulfillment(RecoveredInFulfillment cmd) {
+        if (!cmd.orders.orderIds.isEmpty()) {
+            getContext().getLog().info("Re-driving fulfillment of {} orders", cmd.orders.orderIds.size());
         }
+        for (String orderId : cmd.orders.orderIds) {
+            if (!sagas.containsKey(orderId)) {
+                Saga saga = new Saga(orderId);
+                sagas.put(orderId, saga);
+                retry(saga);
+            }
+        }
+        return this;
     }
 
     private Behavior<Command> onClose(Close cmd) {
-        askPersistenceActorForClosingOrder(cmd.orderId, cmd.fulfillmentResult);
+        Saga saga = sagas.get(cmd.orderId);
+        if (saga != null && saga.phase != Phase.CLOSING) {
+            saga.result = cmd.fulfillmentResult;
+            close(saga);
+        } else if (saga == null) {
+            persistenceActor.tell(new PersistenceActor.Close(cmd.orderId, cmd.fulfillmentResult, closeReplies));
+        }
+        return this;
+    }
+
+    /**
+     * Closing fails when the order is not in fulfillment anymore, so any reply ends the saga.
+     */
+    private Behavior<Command> onCloseReply(CloseReply cmd) {
+        String orderId;
+        if (cmd.reply.isSuccess()) {
+            orderId = cmd.reply.getValue().id;
+        } else if (cmd.reply.getError() instanceof InvalidStateChangeException) {
+            orderId = ((InvalidStateChangeException) cmd.reply.getError()).getOrderId();
+        } else if (cmd.reply.getError() instanceof OrderNotFoundException) {
+            orderId = ((OrderNotFoundException) cmd.reply.getError()).getOrderId();
+        } else {
+            getContext().getLog().warn("Failed to close order: {}", cmd.reply.getError().getMessage());
+            return this;
+        }
+        Saga saga = orderId != null ? sagas.remove(orderId) : null;
+        if (saga != null) {
+            timers.cancel(saga.orderId);
+            if (saga.retrying) {
+                runningRetries--;
+                startWaitingRetries();
+            }
+        }
+        return this;
+    }
+
+    private Behavior<Command> onSagaTimeout(SagaTimeout cmd) {
+        Saga saga = sagas.get(cmd.orderId);
+        if (saga == null) return this;
+        if (saga.phase == Phase.BACKOFF) {
+            retry(saga);
+            return this;
+        }
+        Duration backoff = backoff(saga.attempt);
+        getContext().getLog().warn("Attempt {} to {} order {} timed out, retrying in {} ms", saga.attempt,
+                saga.phase == Phase.CLOSING ? "close" : "fulfill", saga.orderId, backoff.toMillis());
+        if (saga.retrying) {
+            saga.retrying = false;
+            runningRetries--;
+            startWaitingRetries();
+        }
+        saga.phase = Phase.BACKOFF;
+        timers.startSingleTimer(saga.orderId, new SagaTimeout(saga.orderId), backoff);
         return this;
     }
 
-    private CompletionStage<StatusReply<Order>> askPersistenceActorForClosingOrder(String orderId, FulfillmentResult result) {
-        return AskPattern.ask(persistenceActor, replyTo ->
-                new PersistenceActor.Close(orderId, result, replyTo), TIMEOUT, scheduler);
+    private void retry(Saga saga) {
+        if (runningRetries >= settings.getMaxConcurrentRetries()) {
+            waitingRetries.add(saga);
+            return;
+        }
+        runningRetries++;
+        saga.retrying = true;
+        saga.attempt++;
+        if (saga.result != null) {
+            close(saga);
+        } else if (saga.attempt > settings.getMaxAttempts()) {
+            getContext().getLog().warn("Giving up fulfillment of order {} after {} attempts", saga.orderId, settings.getMaxAttempts());
+            saga.result = FulfillmentResult.FAILURE;
+            close(saga);
+        } else {
+            fulfill(saga);
+        }
+    }
+
+    private void startWaitingRetries() {
+        while (runningRetries < settings.getMaxConcurrentRetries() && !waitingRetries.isEmpty()) {
+            Saga saga = waitingRetries.poll();
+            if (sagas.get(saga.orderId) == saga) {
+                retry(saga);
+            }
+        }
+    }
+
+    private void fulfill(Saga saga) {
+        saga.phase = Phase.FULFILLING;
+        fulfillmentActor.tell(new FulfillmentActor.Fulfill(saga.orderId, getContext().getSelf()));
+        timers.startSingleTimer(saga.orderId, new SagaTimeout(saga.orderId), settings.getTimeout());
+    }
+
+    private void close(Saga saga) {
+        saga.phase = Phase.CLOSING;
+        persistenceActor.tell(new PersistenceActor.Close(saga.orderId, saga.result, closeReplies));
+        timers.startSingleTimer(saga.orderId, new SagaTimeout(saga.orderId), settings.getCloseTimeout());
+    }
+
+    private Duration backoff(int attempt) {
+        long nanos = settings.getMinBackoff().toNanos() << Math.min(attempt - 1, 30);
+        if (nanos <= 0 || nanos > settings.getMaxBackoff().toNanos()) {
+            nanos = settings.getMaxBackoff().toNanos();
+        }
+        // jitter keeps orders failing together from being retried together
+        return Duration.ofNanos((long) (nanos * (0.8 + 0.4 * ThreadLocalRandom.current().nextDouble())));
+    }
 
+    @SuppressWarnings("unchecked")
+    private static Class<StatusReply<Order>> orderReplyClass() {
+        return (Class<StatusReply<Order>>) (Class<?>) StatusReply.class;
     }
 
     public static Behavior<Command> create(ActorRef<PersistenceCommand> persistenceActor,
                                            ActorRef<FulfillmentActor.Command> fulfillmentActor) {
-        return Behaviors.setup(ctx -> new OrderActor(ctx, persistenceActor, fulfillmentActor));
+        return create(persistenceActor, fulfillmentActor, FulfillmentSettings.defaults());
+    }
+
+    public static Behavior<Command> create(ActorRef<PersistenceCommand> persistenceActor,
+                                           ActorRef<FulfillmentActor.Command> fulfillmentActor,
+                                           FulfillmentSettings settings) {
+        return Behaviors.setup(ctx -> Behaviors.withTimers(timers ->
+                new OrderActor(ctx, timers, persistenceActor, fulfillmentActor, settings)));
+    }
+
+    /**
+     * Fulfillment of one order, from the first attempt until closing it is confirmed.
+     */
+    private static final class Saga {
+        final String orderId;
+        Phase phase;
+        int attempt = 1;
+        boolean retrying;
+        FulfillmentResult result;
+
+        Saga(String orderId) {
+            this.orderId = orderId;
+        }
     }
 
     public interface Command {
 
     }
 
+    /**
+     * Changes the state of the order, only if it is at the expected version unless that is
+     * {@link PersistenceActor#ANY_VERSION}.
+     */
     @AllArgsConstructor
-    public static final class ChangeState implements Command {
+    public static final class ChangeState implements Command, Sheddable {
         public final String orderId;
         public final OrderState state;
         public final ActorRef<StatusReply<Order>> replyTo;
+        public final int expectedVersion;
+
+        public ChangeState(String orderId, OrderState state, ActorRef<StatusReply<Order>> replyTo) {
+            this(orderId, state, replyTo, PersistenceActor.ANY_VERSION);
+        }
+
+        @Override
+        public void shed(MailboxFullException reason) {
+            replyTo.tell(StatusReply.error(reason));
+        }
+    }
+
+    @AllArgsConstructor
+    public static final class ChangeStateBatch implements Command, Sheddable {
+        public final List<PersistenceActor.StateChange> changes;
+        public final ActorRef<List<StatusReply<Order>>> replyTo;
+
+        @Override
+        public void shed(MailboxFullException reason) {
+            replyTo.tell(Collections.nCopies(changes.size(), StatusReply.<Order>error(reason)));
+        }
     }
 
     @AllArgsConstructor
@@ -96,4 +295,24 @@ public class OrderActor extends AbstractBehavior<OrderActor.Command> {
         public final String orderId;
         public final FulfillmentResult fulfillmentResult;
     }
+
+    @AllArgsConstructor
+    private static final class StartFulfillment implements Command {
+        final Order order;
+    }
+
+    @AllArgsConstructor
+    private static final class CloseReply implements Command {
+        final StatusReply<Order> reply;
+    }
+
+    @AllArgsConstructor
+    private static final class RecoveredInFulfillment implements Command {
+        final PersistenceActor.OrdersInFulfillment orders;
+    }
+
+    @AllArgsConstructor
+    private static final class SagaTimeout implements Command {
+        final String orderId;
+    }
 }
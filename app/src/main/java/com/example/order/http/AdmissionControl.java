@@ -0,0 +1,102 @@
+package com.example.order.http;
+
+import akka.http.javadsl.model.HttpMethods;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.RetryAfter;
+import akka.http.javadsl.server.Complete;
+import akka.http.javadsl.server.Route;
+import akka.http.javadsl.server.RouteResult;
+import com.example.order.metrics.OrderMetrics;
+
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static akka.http.javadsl.server.Directives.*;
+
+/**
+ * Sheds requests at the edge once the {@link ConcurrencyLimiter} of their route is at its limit,
+ * answering 503 Service Unavailable with Retry-After right away instead of queueing them in front
+ * of the actors until they time out. Every route adapts a limit of its own to its own latency, so
+ * e.g. slow batch writes don't shed single order reads. Within a route GET and HEAD requests are
+ * reads and are shed after writes.
+ */
+final class AdmissionControl {
+
+    private final AdmissionSettings settings;
+    private final OrderMetrics metrics;
+    private final Map<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+    private final RetryAfter retryAfter;
+
+    AdmissionControl(AdmissionSettings settings, OrderMetrics metrics) {
+        this.settings = settings;
+        this.metrics = metrics;
+        this.retryAfter = RetryAfter.create(Math.max(1, settings.getRetryAfter().toSeconds()));
+    }
+
+    ConcurrencyLimiter limiter(String route) {
+        return limiters.computeIfAbsent(route, r -> {
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter(settings);
+            metrics.gauge("order_admission_limit", "Requests in flight admitted at most.", limiter::limit, "route", r);
+            metrics.gauge("order_admission_in_flight", "Admitted requests not answered yet.", limiter::inFlight, "route", r);
+            metrics.counter("order_admission_rejected_total", "Requests answered with 503 because the limit was reached.",
+                    limiter.rejectedReads::sum, "route", r, "priority", "read");
+            metrics.counter("order_admission_rejected_total", "Requests answered with 503 because the limit was reached.",
+                    limiter.rejectedWrites::sum, "route", r, "priority", "write");
+            return limiter;
+        });
+    }
+
+    /**
+     * Runs the inner route if the request is admitted by the limiter of the route. Its latency and
+     * whether it failed with a server error, rejections and exceptions included, adapt the limit.
+     */
+    Route admit(String route, Supplier<Route> inner) {
+        if (!settings.isEnabled()) {
+            return inner.get();
+        }
+        ConcurrencyLimiter limiter = limiter(route);
+        return extractMethod(method -> {
+            boolean read = method.equals(HttpMethods.GET) || method.equals(HttpMethods.HEAD);
+            if (!limiter.tryAcquire(read ? ConcurrencyLimiter.Priority.READ : ConcurrencyLimiter.Priority.WRITE)) {
+                return overloaded();
+            }
+            long start = System.nanoTime();
+            return mapRouteResultFuture(result -> result.whenComplete((routeResult, error) ->
+                    limiter.release(System.nanoTime() - start, error != null || isServerError(routeResult))), inner);
+        });
+    }
+
+    /**
+     * Asks as a read of the route if admitted and passes the answer to the inner route. The ask
+     * alone holds the permit and adapts the limit, for routes that go on waiting after asking,
+     * e.g. long polls.
+     */
+    <T> Route admitAsk(String route, Supplier<CompletionStage<T>> ask, Function<T, Route> inner) {
+        if (!settings.isEnabled()) {
+            return onSuccess(ask.get(), inner);
+        }
+        ConcurrencyLimiter limiter = limiter(route);
+        if (!limiter.tryAcquire(ConcurrencyLimiter.Priority.READ)) {
+            return overloaded();
+        }
+        long start = System.nanoTime();
+        return onSuccess(ask.get().whenComplete((result, error) ->
+                limiter.release(System.nanoTime() - start, error != null)), inner);
+    }
+
+    Route overloaded() {
+        return respondWithHeader(retryAfter, () ->
+                complete(StatusCodes.SERVICE_UNAVAILABLE, "Too many requests, retry later", OrderCodec.MESSAGE));
+    }
+
+    RetryAfter retryAfter() {
+        return retryAfter;
+    }
+
+    private static boolean isServerError(RouteResult result) {
+        return result instanceof Complete && ((Complete) result).getResponse().status().intValue() >= 500;
+    }
+}
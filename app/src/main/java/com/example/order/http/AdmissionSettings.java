@@ -0,0 +1,52 @@
+package com.example.order.http;
+
+import com.typesafe.config.Config;
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+@Value
+@Builder(toBuilder = true)
+public class AdmissionSettings {
+    /** Whether requests beyond the limit are answered with 503 right away, off admits all requests. */
+    boolean enabled;
+    /** Requests in flight admitted at start, adapted from then on. */
+    int initialLimit;
+    int minLimit;
+    int maxLimit;
+    /** Requests answered slower than this lower the limit. */
+    Duration targetLatency;
+    /** Factor the limit is multiplied with when lowered. */
+    double backoffRatio;
+    /** Fraction of the limit writes may use, the rest is kept for reads. */
+    double writeShare;
+    /** Sent as Retry-After with 503 responses. */
+    Duration retryAfter;
+
+    public static AdmissionSettings defaults() {
+        return AdmissionSettings.builder()
+                .enabled(true)
+                .initialLimit(256)
+                .minLimit(16)
+                .maxLimit(4096)
+                .targetLatency(Duration.ofMillis(500))
+                .backoffRatio(0.9)
+                .writeShare(0.8)
+                .retryAfter(Duration.ofSeconds(1))
+                .build();
+    }
+
+    public static AdmissionSettings fromConfig(Config config) {
+        return AdmissionSettings.builder()
+                .enabled(config.getBoolean("enabled"))
+                .initialLimit(config.getInt("initial-limit"))
+                .minLimit(config.getInt("min-limit"))
+                .maxLimit(config.getInt("max-limit"))
+                .targetLatency(config.getDuration("target-latency"))
+                .backoffRatio(config.getDouble("backoff-ratio"))
+                .writeShare(config.getDouble("write-share"))
+                .retryAfter(config.getDuration("retry-after"))
+                .build();
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.order.http;
+
+import com.example.order.persistence.Order;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+
+/**
+ * Outcome for a single order of a batch request, with the HTTP status the single order request
+ * would have had.
+ */
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchResultDto {
+    public final String id;
+    public final int status;
+    public final Order order;
+    public final String error;
+}
@@ -0,0 +1,83 @@
+package com.example.order.http;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive limit of the requests in flight, adjusted by additive increase and multiplicative
+ * decrease (AIMD) from the latency of the requests it admitted.
+ * <p>
+ * Every request answered within the target latency while at least half the limit was in use
+ * raises the limit by 1/limit, i.e. by one per limit of requests. A request taking longer or
+ * failing cuts the limit by the backoff ratio, at most once per target latency so that a burst of
+ * slow requests admitted at the old limit counts once. Writes may only use the write share of the
+ * limit, the rest is kept for reads, which are shed last.
+ */
+final class ConcurrencyLimiter {
+
+    enum Priority {READ, WRITE}
+
+    private final AdmissionSettings settings;
+    private final long targetNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong limitBits;
+    private final AtomicLong lastDecrease = new AtomicLong(System.nanoTime());
+    final LongAdder rejectedReads = new LongAdder();
+    final LongAdder rejectedWrites = new LongAdder();
+
+    ConcurrencyLimiter(AdmissionSettings settings) {
+        this.settings = settings;
+        this.targetNanos = settings.getTargetLatency().toNanos();
+        this.limitBits = new AtomicLong(Double.doubleToRawLongBits(settings.getInitialLimit()));
+    }
+
+    /**
+     * @return whether the request is admitted, in which case it must be {@link #release released}
+     */
+    boolean tryAcquire(Priority priority) {
+        double limit = limit();
+        int max = priority == Priority.READ ? (int) limit : (int) Math.max(1, limit * settings.getWriteShare());
+        for (int current = inFlight.get(); current < max; current = inFlight.get()) {
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+        (priority == Priority.READ ? rejectedReads : rejectedWrites).increment();
+        return false;
+    }
+
+    void release(long latencyNanos, boolean failed) {
+        int current = inFlight.getAndDecrement();
+        if (failed || latencyNanos > targetNanos) {
+            long now = System.nanoTime();
+            long last = lastDecrease.get();
+            if (now - last >= targetNanos && lastDecrease.compareAndSet(last, now)) {
+                update(-1);
+            }
+        } else if (current * 2 >= limit()) {
+            update(1);
+        }
+    }
+
+    double limit() {
+        return Double.longBitsToDouble(limitBits.get());
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    private void update(int direction) {
+        for (;;) {
+            long bits = limitBits.get();
+            double limit = Double.longBitsToDouble(bits);
+            double next = direction > 0
+                    ? Math.min(settings.getMaxLimit(), limit + 1 / limit)
+                    : Math.max(settings.getMinLimit(), limit * settings.getBackoffRatio());
+            if (next == limit || limitBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.order.http;
+
+import com.typesafe.config.Config;
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+@Value
+@Builder(toBuilder = true)
+public class HttpSettings {
+    /** Interface the server binds to. */
+    String host;
+    int port;
+    /** Time the persistence actor has to create an order. */
+    Duration createTimeout;
+    /** Time the persistence actor has to return an order unknown to the read side. */
+    Duration getTimeout;
+    /** Time the order actor has to change the state of an order. */
+    Duration changeStateTimeout;
+    /** Time batches and streamed chunks of orders have to be created or changed. */
+    Duration batchTimeout;
+
+    public static HttpSettings defaults() {
+        return HttpSettings.builder()
+                .host("localhost")
+                .port(8080)
+                .createTimeout(Duration.ofSeconds(5))
+                .getTimeout(Duration.ofSeconds(5))
+                .changeStateTimeout(Duration.ofSeconds(5))
+                .batchTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    public static HttpSettings fromConfig(Config config) {
+        Config timeouts = config.getConfig("ask-timeouts");
+        return HttpSettings.builder()
+                .host(config.getString("host"))
+                .port(config.getInt("port"))
+                .createTimeout(timeouts.getDuration("create"))
+                .getTimeout(timeouts.getDuration("get"))
+                .changeStateTimeout(timeouts.getDuration("change-state"))
+                .batchTimeout(timeouts.getDuration("batch"))
+                .build();
+    }
+
+}
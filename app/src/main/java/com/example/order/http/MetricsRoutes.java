@@ -0,0 +1,25 @@
+package com.example.order.http;
+
+import akka.actor.typed.ActorSystem;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.server.Route;
+import com.example.order.metrics.OrderMetrics;
+
+import static akka.http.javadsl.server.Directives.*;
+
+/**
+ * Serves the metrics of the system on {@code /metrics} in the Prometheus text format.
+ */
+public class MetricsRoutes {
+
+    private final OrderMetrics metrics;
+
+    public MetricsRoutes(ActorSystem<?> system) {
+        this.metrics = OrderMetrics.get(system);
+    }
+
+    public Route metricsRoutes() {
+        return path("metrics", () -> get(() -> complete(HttpEntities.create(ContentTypes.TEXT_PLAIN_UTF8, metrics.prometheus()))));
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.order.http;
+
+import akka.http.javadsl.marshalling.Marshaller;
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpEntity;
+import akka.http.javadsl.model.MediaRange;
+import akka.http.javadsl.model.MediaType;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.RequestEntity;
+import akka.http.javadsl.model.headers.Accept;
+import akka.http.javadsl.unmarshalling.Unmarshaller;
+import akka.util.ByteString;
+import com.example.order.persistence.Order;
+import com.example.order.query.OrderPage;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Marshalling of the order routes, JSON by default and CBOR for clients asking for it with
+ * Accept or sending it as Content-Type.
+ * <p>
+ * One mapper per format is shared by all routes, and the readers and writers of each DTO are built
+ * once instead of per request. Orders are written and order items read token by token rather than
+ * through getters and setters found by reflection. Request bodies are parsed from their bytes
+ * without decoding them into a string first, and responses wrap the bytes Jackson wrote, whose
+ * buffers it recycles per thread, without copying them.
+ */
+final class OrderCodec {
+
+    static final MediaType.Binary APPLICATION_CBOR = MediaTypes.customBinary("application", "cbor", false);
+    static final ContentType CBOR = APPLICATION_CBOR.toContentType();
+
+    static final ObjectMapper JSON_MAPPER = mapper(new JsonFactory());
+    static final ObjectMapper CBOR_MAPPER = mapper(new CBORFactory());
+
+    static final Unmarshaller<HttpEntity, OrderPostDto> ORDER_POST = unmarshaller(OrderPostDto.class);
+    static final Unmarshaller<HttpEntity, OrderPostDto[]> ORDER_POSTS = unmarshaller(OrderPostDto[].class);
+    static final Unmarshaller<HttpEntity, OrderPatchDto> ORDER_PATCH = unmarshaller(OrderPatchDto.class);
+    static final Unmarshaller<HttpEntity, OrderStateChangeDto[]> STATE_CHANGES = unmarshaller(OrderStateChangeDto[].class);
+
+    static final Marshaller<Order, RequestEntity> ORDER = marshaller(Order.class);
+    static final Marshaller<List<Order>, RequestEntity> ORDERS = listMarshaller(Order.class);
+    static final Marshaller<OrderPage, RequestEntity> ORDER_PAGE = marshaller(OrderPage.class);
+    static final Marshaller<List<BatchResultDto>, RequestEntity> BATCH_RESULTS = listMarshaller(BatchResultDto.class);
+    /** Error messages, as JSON strings. */
+    static final Marshaller<String, RequestEntity> MESSAGE = marshaller(String.class);
+
+    private static final ObjectWriter JSON_ORDER_WRITER = JSON_MAPPER.writerFor(Order.class);
+
+    private OrderCodec() {
+    }
+
+    private static ObjectMapper mapper(JsonFactory factory) {
+        SimpleModule orders = new SimpleModule("orders")
+                .addSerializer(Order.class, new OrderSerializer())
+                .addDeserializer(OrderPostDto.class, new OrderPostDeserializer());
+        return new ObjectMapper(factory).registerModule(orders);
+    }
+
+    /**
+     * @return the order as JSON, e.g. for the response cache and NDJSON streams
+     */
+    static byte[] orderJson(Order order) {
+        try {
+            return JSON_ORDER_WRITER.writeValueAsBytes(order);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return whether JSON is acceptable, so the cached JSON of an order can be sent
+     */
+    static boolean acceptsJson(Optional<Accept> accept) {
+        if (accept.isEmpty()) return true;
+        for (MediaRange range : accept.get().getMediaRanges()) {
+            if (range.qValue() > 0 && range.matches(MediaTypes.APPLICATION_JSON)) return true;
+        }
+        return false;
+    }
+
+    private static <T> Unmarshaller<HttpEntity, T> unmarshaller(Class<T> type) {
+        ObjectReader json = JSON_MAPPER.readerFor(type);
+        ObjectReader cbor = CBOR_MAPPER.readerFor(type);
+        return Unmarshaller.firstOf(
+                Unmarshaller.forMediaType(MediaTypes.APPLICATION_JSON, Unmarshaller.entityToByteString())
+                        .thenApply(bytes -> read(json, bytes, type)),
+                Unmarshaller.forMediaType(APPLICATION_CBOR, Unmarshaller.entityToByteString())
+                        .thenApply(bytes -> read(cbor, bytes, type)));
+    }
+
+    private static <T> T read(ObjectReader reader, ByteString bytes, Class<T> type) {
+        try {
+            return reader.readValue(bytes.toArray());
+        } catch (IOException e) {
+            // rejected as malformed content like the default unmarshallers do
+            throw new IllegalArgumentException("Cannot unmarshal " + type.getSimpleName(), e);
+        }
+    }
+
+    private static <T> Marshaller<T, RequestEntity> marshaller(Class<T> type) {
+        return typedMarshaller(JSON_MAPPER.constructType(type));
+    }
+
+    private static <T> Marshaller<List<T>, RequestEntity> listMarshaller(Class<T> elementType) {
+        return typedMarshaller(JSON_MAPPER.getTypeFactory().constructCollectionType(List.class, elementType));
+    }
+
+    /**
+     * JSON unless the client accepts CBOR only or prefers it.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Marshaller<T, RequestEntity> typedMarshaller(JavaType type) {
+        ObjectWriter json = JSON_MAPPER.writerFor(type);
+        ObjectWriter cbor = CBOR_MAPPER.writerFor(type);
+        return Marshaller.oneOf(
+                Marshaller.<T, RequestEntity>withFixedContentType(ContentTypes.APPLICATION_JSON,
+                        value -> HttpEntities.create(ContentTypes.APPLICATION_JSON, write(json, value))),
+                Marshaller.<T, RequestEntity>withFixedContentType(CBOR,
+                        value -> HttpEntities.create(CBOR, write(cbor, value))));
+    }
+
+    private static ByteString write(ObjectWriter writer, Object value) throws JsonProcessingException {
+        // the array is not shared, wrapping it saves the copy ByteString.fromArray makes
+        return ByteString.fromArrayUnsafe(writer.writeValueAsBytes(value));
+    }
+
+    /**
+     * Writes the same properties in the same order as the bean serializer did for orders.
+     */
+    private static final class OrderSerializer extends StdSerializer<Order> {
+
+        OrderSerializer() {
+            super(Order.class);
+        }
+
+        @Override
+        public void serialize(Order order, JsonGenerator out, SerializerProvider provider) throws IOException {
+            out.writeStartObject(order);
+            out.writeStringField("id", order.id);
+            out.writeFieldName("items");
+            if (order.items == null) {
+                out.writeNull();
+            } else {
+                out.writeStartObject(order.items, order.items.size());
+                for (Map.Entry<String, Integer> item : order.items.entrySet()) {
+                    out.writeNumberField(item.getKey(), item.getValue());
+                }
+                out.writeEndObject();
+            }
+            out.writeStringField("state", order.state == null ? null : order.state.name());
+            out.writeStringField("fulfillmentResult", order.fulfillmentResult == null ? null : order.fulfillmentResult.name());
+            out.writeNumberField("version", order.version);
+            out.writeEndObject();
+        }
+    }
+
+    /**
+     * Reads the items of new orders straight into a map, the properties besides items are
+     * handled like the default deserializer does, i.e. unknown ones fail.
+     */
+    private static final class OrderPostDeserializer extends StdDeserializer<OrderPostDto> {
+
+        OrderPostDeserializer() {
+            super(OrderPostDto.class);
+        }
+
+        @Override
+        public OrderPostDto deserialize(JsonParser in, DeserializationContext ctx) throws IOException {
+            JsonToken token = in.currentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = in.nextToken();
+            }
+            if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+                return (OrderPostDto) ctx.handleUnexpectedToken(OrderPostDto.class, in);
+            }
+            OrderPostDto order = new OrderPostDto();
+            for (; token == JsonToken.FIELD_NAME; token = in.nextToken()) {
+                String name = in.getCurrentName();
+                in.nextToken();
+                if (name.equals("items")) {
+                    order.setItems(readItems(in, ctx));
+                } else {
+                    ctx.handleUnknownProperty(in, this, OrderPostDto.class, name);
+                }
+            }
+            if (order.getItems() == null) {
+                return (OrderPostDto) ctx.reportInputMismatch(this, "Order without items");
+            }
+            return order;
+        }
+
+        private static Map<String, Integer> readItems(JsonParser in, DeserializationContext ctx) throws IOException {
+            if (in.currentToken() == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            if (in.currentToken() != JsonToken.START_OBJECT) {
+                ctx.handleUnexpectedToken(Map.class, in);
+            }
+            Map<String, Integer> items = new HashMap<>();
+            for (String sku = in.nextFieldName(); sku != null; sku = in.nextFieldName()) {
+                JsonToken value = in.nextToken();
+                if (value == JsonToken.VALUE_NULL) {
+                    return ctx.reportInputMismatch(Integer.class, "Quantity of %s is null", sku);
+                }
+                items.put(sku, value == JsonToken.VALUE_NUMBER_INT ? Integer.valueOf(in.getIntValue()) : ctx.readValue(in, Integer.class));
+            }
+            return items;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.order.http;
+
+import akka.NotUsed;
+import akka.http.javadsl.marshalling.sse.EventStreamMarshalling;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.sse.ServerSentEvent;
+import akka.http.javadsl.server.Route;
+import akka.japi.Pair;
+import akka.stream.javadsl.Source;
+import com.example.order.persistence.Order;
+import com.example.order.query.OrderReadModel;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static akka.http.javadsl.server.Directives.*;
+
+/**
+ * Changes of single orders as server-sent events, so clients waiting for an order to be fulfilled
+ * don't need to poll.
+ * <p>
+ * The stream starts with the current order and sends every version the read side applies after
+ * it, the version being the event id. A reconnecting client sends it back as Last-Event-ID and
+ * only gets versions newer than that. Between changes the stream only waits on the read model,
+ * which holds no thread or actor per subscriber, and sends heartbeats to keep the connection open.
+ */
+class OrderEventRoutes {
+
+    static final String LAST_EVENT_ID = "Last-Event-ID";
+    private static final String ORDER_EVENT = "order";
+
+    private final OrderReadModel readModel;
+    private final OrderResponseCache responseCache;
+    private final Duration heartbeatInterval;
+
+    OrderEventRoutes(OrderReadModel readModel, OrderResponseCache responseCache, Duration heartbeatInterval) {
+        this.readModel = readModel;
+        this.responseCache = responseCache;
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    /**
+     * @param current the order as currently known, from the write side if the read side doesn't
+     *                know it yet
+     */
+    Route orderEvents(Order current) {
+        return optionalHeaderValueByName(LAST_EVENT_ID, lastEventId -> {
+            int seenVersion;
+            try {
+                seenVersion = lastEventId.map(Integer::parseInt).orElse(0);
+            } catch (NumberFormatException e) {
+                return complete(StatusCodes.BAD_REQUEST, LAST_EVENT_ID + " must be the id of an order event");
+            }
+            // the current order goes out right away, it may not be applied to the read side yet
+            Source<ServerSentEvent, NotUsed> events = Source.unfoldAsync(seenVersion, version -> version < current.version
+                    ? CompletableFuture.completedFuture(nextEvent(version, current))
+                    : readModel.await(current.id, order -> order.version > version, heartbeatInterval)
+                            .thenApply(order -> nextEvent(version, order)));
+            return completeOK(events, EventStreamMarshalling.toEventStream());
+        });
+    }
+
+    /**
+     * @return the event of a newer version or a heartbeat, none if the order is gone
+     */
+    private Optional<Pair<Integer, ServerSentEvent>> nextEvent(int version, Order order) {
+        if (order == null) {
+            return Optional.empty();
+        }
+        if (order.version <= version) {
+            return Optional.of(Pair.create(version, ServerSentEvent.heartbeat()));
+        }
+        String data = responseCache.get(order).entity.getData().utf8String();
+        return Optional.of(Pair.create(order.version,
+                ServerSentEvent.create(data, ORDER_EVENT, Integer.toString(order.version))));
+    }
+}
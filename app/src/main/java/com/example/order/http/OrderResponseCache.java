@@ -0,0 +1,82 @@
+package com.example.order.http;
+
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpEntity;
+import akka.http.javadsl.model.headers.EntityTag;
+import com.example.order.persistence.Order;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serialized JSON responses of orders by id and version, so repeated reads of an unchanged order
+ * neither serialize it again nor allocate a new entity.
+ * <p>
+ * A fixed number of slots is addressed by the hash of the order id, an order takes over the slot
+ * of whatever order was there before. There are no locks, concurrent readers may both serialize
+ * the same order and one of the results is kept.
+ */
+final class OrderResponseCache {
+
+    static final String CBOR_TAG_SUFFIX = "-cbor";
+
+    private final AtomicReferenceArray<Response> slots;
+    private final int mask;
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+
+    /**
+     * @param size slots, rounded up to a power of two
+     */
+    OrderResponseCache(int size) {
+        int slotCount = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+        slots = new AtomicReferenceArray<>(slotCount);
+        mask = slotCount - 1;
+    }
+
+    /**
+     * Strong ETag of the JSON representation, the order version.
+     */
+    static EntityTag entityTag(Order order) {
+        return EntityTag.create(Integer.toString(order.version), false);
+    }
+
+    /**
+     * Strong ETag of the CBOR representation, which isn't byte-identical to the JSON one.
+     */
+    static EntityTag cborEntityTag(Order order) {
+        return EntityTag.create(order.version + CBOR_TAG_SUFFIX, false);
+    }
+
+    Response get(Order order) {
+        int slot = spread(order.id.hashCode()) & mask;
+        Response response = slots.get(slot);
+        if (response != null && response.version == order.version && response.orderId.equals(order.id)) {
+            hits.increment();
+            return response;
+        }
+        misses.increment();
+        response = new Response(order.id, order.version, entityTag(order), HttpEntities.create(ContentTypes.APPLICATION_JSON, OrderCodec.orderJson(order)));
+        slots.set(slot, response);
+        return response;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    static final class Response {
+        final String orderId;
+        final int version;
+        final EntityTag entityTag;
+        final HttpEntity.Strict entity;
+
+        Response(String orderId, int version, EntityTag entityTag, HttpEntity.Strict entity) {
+            this.orderId = orderId;
+            this.version = version;
+            this.entityTag = entityTag;
+            this.entity = entity;
+        }
+    }
+}
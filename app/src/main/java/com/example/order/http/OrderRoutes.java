@@ -4,35 +4,86 @@ import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
 import akka.actor.typed.Scheduler;
 import akka.actor.typed.javadsl.AskPattern;
-import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.model.HttpHeader;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.StatusCode;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.Accept;
+import akka.http.javadsl.model.headers.ETag;
+import akka.http.javadsl.model.headers.RawHeader;
+import akka.http.javadsl.model.headers.RetryAfter;
 import akka.http.javadsl.server.PathMatchers;
 import akka.http.javadsl.server.Route;
 import akka.pattern.StatusReply;
-import com.example.order.Config;
 import com.example.order.domain.OrderActor;
+import com.example.order.metrics.MailboxFullException;
+import com.example.order.metrics.OrderMetrics;
+import com.example.order.metrics.Summary;
+import com.example.order.persistence.IdempotencyKeyReusedException;
 import com.example.order.persistence.InvalidStateChangeException;
 import com.example.order.persistence.Order;
 import com.example.order.persistence.OrderNotFoundException;
+import com.example.order.persistence.OrderState;
 import com.example.order.persistence.PersistenceActor;
+import com.example.order.persistence.VersionConflictException;
+import com.example.order.query.OrderReadModel;
+import com.typesafe.config.Config;
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static akka.http.javadsl.server.Directives.*;
-import static com.example.order.Config.TIMEOUT;
 import static com.example.order.persistence.FulfillmentResult.NO_RESULT;
 import static com.example.order.persistence.OrderState.CREATED;
 
 @Slf4j
 public class OrderRoutes {
 
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    static final String CLIENT_ID = "Client-Id";
+    static final String IF_MATCH = "If-Match";
+    private static final HttpHeader VARY_ACCEPT = RawHeader.create("Vary", "Accept");
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+    private static final int MAX_CLIENT_ID_LENGTH = 255;
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    private static final int DEFAULT_RESPONSE_CACHE_SIZE = 65536;
+    static final Duration DEFAULT_WAIT = Duration.ofSeconds(30);
+    private static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(60);
+    private static final Duration DEFAULT_HEARTBEAT_INTERVAL = Duration.ofSeconds(15);
+    // time for answering a long poll after its wait ended, before the server times the request out
+    private static final Duration LONG_POLL_GRACE = Duration.ofSeconds(5);
+
     private final Scheduler scheduler;
     private final ActorRef<PersistenceActor.PersistenceCommand> orderPersistenceActor;
     private final ActorRef<OrderActor.Command> orderActor;
+    private final OrderReadModel readModel;
+    private final OrderStreamRoutes streamRoutes;
+    private final OrderEventRoutes eventRoutes;
+    private final Summary postOrderLatency;
+    private final Summary listOrdersLatency;
+    private final Summary orderBatchLatency;
+    private final Summary orderStreamLatency;
+    private final Summary getOrderLatency;
+    private final Summary awaitOrderLatency;
+    private final Summary orderEventsLatency;
+    private final Summary patchOrderLatency;
+    private final Summary askPersistenceLatency;
+    private final Summary askOrderActorLatency;
+    private final OrderResponseCache responseCache;
+    private final Duration maxWait;
+    private final AdmissionControl admission;
+    private final HttpSettings settings;
 
     public OrderRoutes(ActorSystem<?> system,
                        ActorRef<PersistenceActor.PersistenceCommand> orderPersistenceActor,
@@ -40,89 +91,411 @@ public class OrderRoutes {
         scheduler = system.scheduler();
         this.orderPersistenceActor = orderPersistenceActor;
         this.orderActor = orderActor;
+        this.readModel = OrderReadModel.get(system);
+        Config config = system.settings().config();
+        this.settings = config.hasPath("order.http.ask-timeouts")
+                ? HttpSettings.fromConfig(config.getConfig("order.http"))
+                : HttpSettings.defaults();
+        OrderMetrics metrics = OrderMetrics.get(system);
+        this.postOrderLatency = routeLatency(metrics, "post_order");
+        this.listOrdersLatency = routeLatency(metrics, "list_orders");
+        this.orderBatchLatency = routeLatency(metrics, "order_batch");
+        this.orderStreamLatency = routeLatency(metrics, "order_stream");
+        this.getOrderLatency = routeLatency(metrics, "get_order");
+        this.awaitOrderLatency = routeLatency(metrics, "await_order");
+        this.orderEventsLatency = routeLatency(metrics, "order_events");
+        this.patchOrderLatency = routeLatency(metrics, "patch_order");
+        this.askPersistenceLatency = askLatency(metrics, "persistence");
+        this.askOrderActorLatency = askLatency(metrics, "order");
+        this.responseCache = new OrderResponseCache(config.hasPath("order.http.response-cache-size")
+                ? config.getInt("order.http.response-cache-size")
+                : DEFAULT_RESPONSE_CACHE_SIZE);
+        metrics.counter("order_response_cache_hits_total", "Order reads answered with cached response bytes.",
+                responseCache.hits::sum);
+        metrics.counter("order_response_cache_misses_total", "Order reads that serialized the order.",
+                responseCache.misses::sum);
+        this.maxWait = config.hasPath("order.http.subscriptions.max-wait")
+                ? config.getDuration("order.http.subscriptions.max-wait")
+                : DEFAULT_MAX_WAIT;
+        this.admission = new AdmissionControl(config.hasPath("order.http.admission")
+                ? AdmissionSettings.fromConfig(config.getConfig("order.http.admission"))
+                : AdmissionSettings.defaults(), metrics);
+        this.streamRoutes = new OrderStreamRoutes(system, orderPersistenceActor, settings.getBatchTimeout(), admission.retryAfter());
+        this.eventRoutes = new OrderEventRoutes(readModel, responseCache,
+                config.hasPath("order.http.subscriptions.heartbeat-interval")
+                        ? config.getDuration("order.http.subscriptions.heartbeat-interval")
+                        : DEFAULT_HEARTBEAT_INTERVAL);
     }
 
+    static Summary routeLatency(OrderMetrics metrics, String route) {
+        return metrics.timer("order_http_request_duration_seconds",
+                "Time until the response of a route is ready, streamed entities excluded.", "route", route);
+    }
 
+    static Summary askLatency(OrderMetrics metrics, String target) {
+        return metrics.timer("order_ask_duration_seconds", "Round trip of asks from the routes to the actors.", "target", target);
+    }
+
+    /**
+     * Records the time until the inner route completed the request, rejections are not recorded.
+     */
+    static Route timed(Summary latency, Supplier<Route> inner) {
+        return extractRequestContext(ctx -> {
+            long start = System.nanoTime();
+            return mapResponse(response -> {
+                latency.recordNanos(System.nanoTime() - start);
+                return response;
+            }, inner);
+        });
+    }
+
+
+    /**
+     * Order routes behind admission control, every route with a limit of its own. Single orders,
+     * server-sent event streams and long polls are served from the read model without using actors
+     * and don't count against the limits, only their lookups on the write side do.
+     */
     public Route userRoutes() {
         return pathPrefix("orders", () ->
                 concat(
+                        path(PathMatchers.segment().slash("events"), (String orderId) ->
+                                timed(orderEventsLatency, () -> get(() -> withOrder("order_events", orderId, eventRoutes::orderEvents)))
+                        ),
+                        path(PathMatchers.segment(), (String orderId) ->
+                                timed(awaitOrderLatency, () -> awaitOrder(orderId))
+                        ),
                         pathEnd(() ->
                                 concat(
-                                        postOrder()
+                                        post(() -> admission.admit("post_order", () -> timed(postOrderLatency, this::postOrder))),
+                                        get(() -> admission.admit("list_orders", () -> timed(listOrdersLatency, this::listOrders)))
                                 )
                         ),
+                        path("batch", () ->
+                                admission.admit("order_batch", () -> timed(orderBatchLatency, () -> concat(
+                                        postOrderBatch(),
+                                        patchOrderBatch()
+                                )))
+                        ),
+                        path("stream", () -> admission.admit("order_stream", () -> timed(orderStreamLatency, streamRoutes::streamRoutes))),
                         path(PathMatchers.segment(), (String orderId) ->
                                 concat(
-                                        getOrder(orderId),
-                                        patchOrder(orderId)
+                                        timed(getOrderLatency, () -> getOrder(orderId)),
+                                        patch(() -> admission.admit("patch_order", () -> timed(patchOrderLatency, () -> patchOrder(orderId))))
                                 )
                         )
-
                 )
         );
     }
 
+    /**
+     * With an {@code Idempotency-Key} header, repeating the request within the key retention returns
+     * the order created first instead of creating another one, while sending other items with the
+     * key fails with 422. Keys are scoped by the {@code Client-Id} header the request must carry with
+     * them, so clients may pick the same keys and retry from any address.
+     */
     private Route postOrder() {
-        return post(() -> entity(
-                Jackson.unmarshaller(OrderPostDto.class),
-                order -> onSuccess(askForOrderCreation(order), onOrderCreationAsked())
-                )
-        );
+        return post(() -> optionalHeaderValueByName(IDEMPOTENCY_KEY, key -> optionalHeaderValueByName(CLIENT_ID, client -> {
+            if (key.isPresent() && (key.get().isBlank() || key.get().length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+                return complete(StatusCodes.BAD_REQUEST,
+                        String.format("%s must have 1 to %d characters", IDEMPOTENCY_KEY, MAX_IDEMPOTENCY_KEY_LENGTH));
+            }
+            if (key.isPresent() && (client.isEmpty() || client.get().isBlank() || client.get().length() > MAX_CLIENT_ID_LENGTH)) {
+                return complete(StatusCodes.BAD_REQUEST,
+                        String.format("%s requires %s with 1 to %d characters", IDEMPOTENCY_KEY, CLIENT_ID, MAX_CLIENT_ID_LENGTH));
+            }
+            return entity(
+                    OrderCodec.ORDER_POST,
+                    order -> onSuccess(askForOrderCreation(order, key.map(k -> scopedKey(client.get(), k)).orElse(null)),
+                            onOrderCreationAsked())
+            );
+        })));
     }
 
     private Function<StatusReply<Order>, Route> onOrderCreationAsked() {
         return reply -> {
+            if (reply.isError()) {
+                return completeError(reply.getError());
+            }
             log.info("Create result with order: {}", reply.getValue());
-            return complete(StatusCodes.CREATED, reply.getValue(), Jackson.marshaller());
+            return complete(StatusCodes.CREATED, reply.getValue(), OrderCodec.ORDER);
         };
     }
 
-    private CompletionStage<StatusReply<Order>> askForOrderCreation(OrderPostDto order) {
-        return AskPattern.ask(orderPersistenceActor, replyTo -> new PersistenceActor.Create(
-                new Order(UUID.randomUUID().toString(), order.getItems(), CREATED, NO_RESULT), replyTo), TIMEOUT, scheduler);
+    private static String scopedKey(String clientId, String idempotencyKey) {
+        return clientId.length() + ":" + clientId + " " + idempotencyKey;
+    }
+
+    private CompletionStage<StatusReply<Order>> askForOrderCreation(OrderPostDto order, String idempotencyKey) {
+        String orderId = UUID.randomUUID().toString();
+        return askPersistenceLatency.time(() -> AskPattern.ask(orderPersistenceActor, replyTo -> new PersistenceActor.Create(
+                new Order(orderId, order.getItems(), CREATED, NO_RESULT), replyTo, idempotencyKey), settings.getCreateTimeout(), scheduler));
+    }
+
+    /**
+     * Pages through the orders filtered by {@code state} and {@code sku}, at most {@code limit} per
+     * page. The {@code nextCursor} of a page is passed as {@code cursor} to get the next one.
+     */
+    /**
+     * Answers 503 with Retry-After while the read side is still loading orders, e.g. recovering
+     * after a restart, so listings and exports are never silently partial.
+     */
+    static Route whenLoaded(OrderReadModel readModel, RetryAfter retryAfter, Supplier<Route> inner) {
+        if (readModel.isLoaded()) {
+            return inner.get();
+        }
+        return respondWithHeader(retryAfter, () ->
+                complete(StatusCodes.SERVICE_UNAVAILABLE, "Orders are still being loaded, retry later", OrderCodec.MESSAGE));
+    }
+
+    private Route listOrders() {
+        return get(() -> whenLoaded(readModel, admission.retryAfter(), () -> parameterMap(params -> {
+            OrderState state = null;
+            if (params.containsKey("state")) {
+                if (Arrays.stream(OrderState.values()).noneMatch(s -> s.name().equals(params.get("state")))) {
+                    return complete(StatusCodes.BAD_REQUEST, "Unknown order state " + params.get("state"));
+                }
+                state = OrderState.valueOf(params.get("state"));
+            }
+            int limit;
+            try {
+                limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : DEFAULT_PAGE_SIZE;
+            } catch (NumberFormatException e) {
+                limit = -1;
+            }
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                return complete(StatusCodes.BAD_REQUEST, String.format("limit must be 1 to %d", MAX_PAGE_SIZE));
+            }
+            try {
+                return complete(StatusCodes.OK, readModel.list(state, params.get("sku"), limit, params.get("cursor")), OrderCodec.ORDER_PAGE);
+            } catch (IllegalArgumentException e) {
+                return complete(StatusCodes.BAD_REQUEST, e.getMessage());
+            }
+        })));
+    }
+
+    /**
+     * Answers 201 with the created orders, or 207 Multi-Status with a result per order if only
+     * some of them were created, e.g. by per-order entities.
+     */
+    private Route postOrderBatch() {
+        return post(() -> entity(
+                OrderCodec.ORDER_POSTS,
+                orders -> {
+                    List<Order> newOrders = Arrays.stream(orders)
+                            .map(order -> new Order(UUID.randomUUID().toString(), order.getItems(), CREATED, NO_RESULT))
+                            .collect(Collectors.toList());
+                    return onSuccess(askForOrderBatchCreation(newOrders), replies -> {
+                        if (!replies.isEmpty() && replies.stream().allMatch(StatusReply::isError)) {
+                            return completeError(replies.get(0).getError());
+                        }
+                        if (replies.stream().anyMatch(StatusReply::isError)) {
+                            List<String> ids = newOrders.stream().map(order -> order.id).collect(Collectors.toList());
+                            return complete(StatusCodes.MULTI_STATUS, toBatchResults(ids, replies, StatusCodes.CREATED),
+                                    OrderCodec.BATCH_RESULTS);
+                        }
+                        log.info("Created batch of {} orders", replies.size());
+                        return complete(StatusCodes.CREATED,
+                                replies.stream().map(StatusReply::getValue).collect(Collectors.toList()), OrderCodec.ORDERS);
+                    });
+                })
+        );
+    }
+
+    private CompletionStage<List<StatusReply<Order>>> askForOrderBatchCreation(List<Order> newOrders) {
+        return askPersistenceLatency.time(() ->
+                AskPattern.ask(orderPersistenceActor, replyTo -> new PersistenceActor.CreateBatch(newOrders, replyTo), settings.getBatchTimeout(), scheduler));
     }
 
     private Route getOrder(String orderId) {
-        return get(() -> onSuccess(askForOrder(orderId), onOrderAsked()));
+        return get(() -> withOrder("get_order", orderId, this::completeCached));
     }
 
-    private Function<StatusReply<Order>, Route> onOrderAsked() {
-        return reply -> {
-            if (reply.isError()) {
-                return complete(StatusCodes.NOT_FOUND, reply.getError().getMessage(), Jackson.marshaller());
+    /**
+     * Passes the order to the inner route. Orders unknown to the read side are looked up on the
+     * write side if the read model falls back to it, e.g. orders of per-order entities not started
+     * since the last restart; the entity started by the lookup loads its order into the read side.
+     * The lookup is admitted by the limit of the route.
+     */
+    private Route withOrder(String route, String orderId, Function<Order, Route> inner) {
+        Order order = readModel.find(orderId);
+        if (order != null) {
+            return inner.apply(order);
+        }
+        if (!readModel.isFallbackToWriteSide()) {
+            return complete(StatusCodes.NOT_FOUND, String.format("Order with ID %s not found!", orderId), OrderCodec.MESSAGE);
+        }
+        return admission.admitAsk(route, () -> askForOrder(orderId), reply -> reply.isError()
+                ? completeError(reply.getError())
+                : inner.apply(reply.getValue()));
+    }
+
+    /**
+     * Long poll answering once the order left the state given as {@code waitForStateChange}, or
+     * with the unchanged order once {@code timeout} seconds passed. Orders unknown to the read
+     * side are looked up on the write side first, like without waiting.
+     */
+    private Route awaitOrder(String orderId) {
+        return get(() -> parameter("waitForStateChange", waitFor -> parameterOptional("timeout", timeout -> {
+            if (Arrays.stream(OrderState.values()).noneMatch(s -> s.name().equals(waitFor))) {
+                return complete(StatusCodes.BAD_REQUEST, "Unknown order state " + waitFor);
             }
-            return complete(StatusCodes.OK, reply.getValue(), Jackson.marshaller());
-        };
+            Duration wait = pollTimeout(timeout);
+            if (wait.isNegative() || wait.isZero() || wait.compareTo(maxWait) > 0) {
+                return complete(StatusCodes.BAD_REQUEST, String.format("timeout must be 1 to %d seconds", maxWait.toSeconds()));
+            }
+            OrderState state = OrderState.valueOf(waitFor);
+            return withOrder("await_order", orderId, current -> current.state != state
+                    ? completeCached(current)
+                    : withRequestTimeout(scala.concurrent.duration.Duration.create(wait.plus(LONG_POLL_GRACE).toMillis(), TimeUnit.MILLISECONDS), () ->
+                            // an order looked up on the write side may not be applied to the read side yet
+                            onSuccess(readModel.await(orderId, order -> order.state != state, wait),
+                                    order -> completeCached(order != null ? order : current))));
+        })));
+    }
+
+    /**
+     * @return the seconds of the timeout parameter, zero if they are no number
+     */
+    private static Duration pollTimeout(Optional<String> timeout) {
+        try {
+            return timeout.map(seconds -> Duration.ofSeconds(Long.parseLong(seconds))).orElse(DEFAULT_WAIT);
+        } catch (NumberFormatException e) {
+            return Duration.ZERO;
+        }
+    }
+
+    /**
+     * Answers with the cached response of the order version and its version as ETag, or with
+     * 304 Not Modified if the client named that version in If-None-Match. Each representation has
+     * its own ETag and caches are told the response depends on Accept.
+     */
+    private Route completeCached(Order order) {
+        return respondWithHeader(VARY_ACCEPT, () -> optionalHeaderValueByType(Accept.class, accept -> {
+            if (!OrderCodec.acceptsJson(accept)) {
+                // other formats are not cached
+                return conditional(OrderResponseCache.cborEntityTag(order), () -> complete(StatusCodes.OK, order, OrderCodec.ORDER));
+            }
+            OrderResponseCache.Response response = responseCache.get(order);
+            return conditional(response.entityTag, () -> complete(HttpResponse.create().withEntity(response.entity)));
+        }));
     }
 
     private CompletionStage<StatusReply<Order>> askForOrder(String orderId) {
-        return AskPattern.ask(orderPersistenceActor, replyTo -> new PersistenceActor.Get(orderId, replyTo), TIMEOUT, scheduler);
+        return askPersistenceLatency.time(() ->
+                AskPattern.ask(orderPersistenceActor, replyTo -> new PersistenceActor.Get(orderId, replyTo), settings.getGetTimeout(), scheduler));
     }
 
+    /**
+     * With an {@code If-Match} header naming the ETag of a version, the change only applies if the
+     * order is still at that version and fails with 412 Precondition Failed otherwise.
+     */
     private Route patchOrder(String orderId) {
-        return patch(() ->
-                entity(
-                        Jackson.unmarshaller(OrderPatchDto.class),
-                        order -> onSuccess(askForChangeState(orderId, order), onChangeStateAsked())));
+        return patch(() -> optionalHeaderValueByName(IF_MATCH, ifMatch -> {
+            int expectedVersion = ifMatch.map(OrderRoutes::expectedVersion).orElse(PersistenceActor.ANY_VERSION);
+            if (expectedVersion < 0) {
+                return complete(StatusCodes.BAD_REQUEST, IF_MATCH + " must be * or the ETag of an order version");
+            }
+            return entity(
+                    OrderCodec.ORDER_PATCH,
+                    order -> onSuccess(askForChangeState(orderId, order, expectedVersion), onChangeStateAsked()));
+        }));
     }
 
-    private CompletionStage<StatusReply<Order>> askForChangeState(String orderId, OrderPatchDto order) {
-        return AskPattern.ask(orderActor, replyTo -> new OrderActor.ChangeState(orderId, order.state, replyTo), TIMEOUT, scheduler);
+    /**
+     * @return the version the If-Match header names with the ETag of either representation,
+     * {@link PersistenceActor#ANY_VERSION} for *, -1 if it names none
+     */
+    static int expectedVersion(String ifMatch) {
+        String tag = ifMatch.trim();
+        if (tag.equals("*")) return PersistenceActor.ANY_VERSION;
+        if (tag.length() < 3 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') return -1;
+        String value = tag.substring(1, tag.length() - 1);
+        if (value.endsWith(OrderResponseCache.CBOR_TAG_SUFFIX)) {
+            value = value.substring(0, value.length() - OrderResponseCache.CBOR_TAG_SUFFIX.length());
+        }
+        try {
+            int version = Integer.parseInt(value);
+            return version >= Order.FIRST_VERSION ? version : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private CompletionStage<StatusReply<Order>> askForChangeState(String orderId, OrderPatchDto order, int expectedVersion) {
+        return askOrderActorLatency.time(() -> AskPattern.ask(orderActor,
+                replyTo -> new OrderActor.ChangeState(orderId, order.state, replyTo, expectedVersion), settings.getChangeStateTimeout(), scheduler));
     }
 
     private Function<StatusReply<Order>, Route> onChangeStateAsked() {
         return reply -> {
             if (reply.isError()) {
-                if(reply.getError() instanceof OrderNotFoundException){
-                    return complete(StatusCodes.NOT_FOUND, reply.getError().getMessage(), Jackson.marshaller());
-                }else if(reply.getError() instanceof InvalidStateChangeException){
-                    return complete(StatusCodes.BAD_REQUEST, reply.getError().getMessage(), Jackson.marshaller());
-                }else{
-                    return complete(StatusCodes.INTERNAL_SERVER_ERROR, reply.getError().getMessage(), Jackson.marshaller());
-                }
+                return completeError(reply.getError());
             }
-            return complete(StatusCodes.OK, reply.getValue(), Jackson.marshaller());
+            Order order = reply.getValue();
+            return respondWithHeader(VARY_ACCEPT, () -> optionalHeaderValueByType(Accept.class, accept -> {
+                if (!OrderCodec.acceptsJson(accept)) {
+                    return respondWithHeader(ETag.create(OrderResponseCache.cborEntityTag(order)),
+                            () -> complete(StatusCodes.OK, order, OrderCodec.ORDER));
+                }
+                OrderResponseCache.Response response = responseCache.get(order);
+                return complete(HttpResponse.create().withEntity(response.entity).addHeader(ETag.create(response.entityTag)));
+            }));
         };
     }
 
+    /**
+     * Answers with the status of the error, and with Retry-After if the service was overloaded.
+     */
+    private Route completeError(Throwable error) {
+        StatusCode status = errorStatus(error);
+        if (status == StatusCodes.SERVICE_UNAVAILABLE) {
+            return respondWithHeader(admission.retryAfter(), () -> complete(status, error.getMessage(), OrderCodec.MESSAGE));
+        }
+        return complete(status, error.getMessage(), OrderCodec.MESSAGE);
+    }
+
+    private StatusCode errorStatus(Throwable error) {
+        if (error instanceof OrderNotFoundException) {
+            return StatusCodes.NOT_FOUND;
+        } else if (error instanceof InvalidStateChangeException) {
+            return StatusCodes.BAD_REQUEST;
+        } else if (error instanceof VersionConflictException) {
+            return StatusCodes.PRECONDITION_FAILED;
+        } else if (error instanceof IdempotencyKeyReusedException) {
+            return StatusCodes.UNPROCESSABLE_ENTITY;
+        } else if (error instanceof MailboxFullException) {
+            return StatusCodes.SERVICE_UNAVAILABLE;
+        }
+        return StatusCodes.INTERNAL_SERVER_ERROR;
+    }
+
+    private Route patchOrderBatch() {
+        return patch(() ->
+                entity(
+                        OrderCodec.STATE_CHANGES,
+                        changes -> onSuccess(askForChangeStateBatch(changes), replies -> complete(StatusCodes.OK,
+                                toBatchResults(Arrays.stream(changes).map(change -> change.id).collect(Collectors.toList()),
+                                        replies, StatusCodes.OK),
+                                OrderCodec.BATCH_RESULTS))));
+    }
+
+    private CompletionStage<List<StatusReply<Order>>> askForChangeStateBatch(OrderStateChangeDto[] changes) {
+        List<PersistenceActor.StateChange> stateChanges = Arrays.stream(changes)
+                .map(change -> new PersistenceActor.StateChange(change.id, change.state))
+                .collect(Collectors.toList());
+        return askOrderActorLatency.time(() ->
+                AskPattern.ask(orderActor, replyTo -> new OrderActor.ChangeStateBatch(stateChanges, replyTo), settings.getBatchTimeout(), scheduler));
+    }
+
+    private List<BatchResultDto> toBatchResults(List<String> ids, List<StatusReply<Order>> replies, StatusCode success) {
+        List<BatchResultDto> results = new ArrayList<>(replies.size());
+        for (int i = 0; i < replies.size(); i++) {
+            StatusReply<Order> reply = replies.get(i);
+            results.add(reply.isError()
+                    ? new BatchResultDto(ids.get(i), errorStatus(reply.getError()).intValue(), null, reply.getError().getMessage())
+                    : new BatchResultDto(ids.get(i), success.intValue(), reply.getValue(), null));
+        }
+        return results;
+    }
+
 }
@@ -0,0 +1,8 @@
+package com.example.order.http;
+
+import com.example.order.persistence.OrderState;
+
+public class OrderStateChangeDto {
+    public String id;
+    public OrderState state;
+}
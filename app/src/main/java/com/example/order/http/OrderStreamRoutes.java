@@ -0,0 +1,131 @@
+package com.example.order.http;
+
+import akka.NotUsed;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Scheduler;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.http.javadsl.model.ContentType;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpCharsets;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.RetryAfter;
+import akka.http.javadsl.server.Route;
+import akka.pattern.StatusReply;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.FramingTruncation;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.example.order.metrics.OrderMetrics;
+import com.example.order.metrics.Summary;
+import com.example.order.persistence.Order;
+import com.example.order.persistence.OrderState;
+import com.example.order.persistence.PersistenceActor;
+import com.example.order.query.OrderReadModel;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+import static akka.http.javadsl.server.Directives.*;
+import static com.example.order.persistence.FulfillmentResult.NO_RESULT;
+import static com.example.order.persistence.OrderState.CREATED;
+
+/**
+ * Bulk import and export of orders as newline delimited JSON.
+ * <p>
+ * Imported orders are created in batches with a bounded number of batches in flight, so a slow
+ * journal slows down reading the request body instead of buffering it. Created orders are streamed
+ * back while the request is still being read. Exports iterate the read side lazily and are refused
+ * while it is still loading orders.
+ */
+class OrderStreamRoutes {
+
+    static final ContentType NDJSON = ContentTypes.create(
+            MediaTypes.customWithFixedCharset("application", "x-ndjson", HttpCharsets.UTF_8));
+
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final int BATCH_SIZE = 500;
+    private static final Duration BATCH_LINGER = Duration.ofMillis(10);
+    private static final int BATCHES_IN_FLIGHT = 4;
+    private static final ByteString NEWLINE = ByteString.fromString("\n");
+
+    private static final ObjectReader ORDER_READER = OrderCodec.JSON_MAPPER.readerFor(OrderPostDto.class);
+
+    private final Scheduler scheduler;
+    private final ActorRef<PersistenceActor.PersistenceCommand> orderPersistenceActor;
+    private final OrderReadModel readModel;
+    private final Summary askPersistenceLatency;
+    private final Duration chunkTimeout;
+    private final RetryAfter retryAfter;
+
+    OrderStreamRoutes(ActorSystem<?> system, ActorRef<PersistenceActor.PersistenceCommand> orderPersistenceActor,
+                      Duration chunkTimeout, RetryAfter retryAfter) {
+        this.scheduler = system.scheduler();
+        this.orderPersistenceActor = orderPersistenceActor;
+        this.chunkTimeout = chunkTimeout;
+        this.retryAfter = retryAfter;
+        this.readModel = OrderReadModel.get(system);
+        this.askPersistenceLatency = OrderRoutes.askLatency(OrderMetrics.get(system), "persistence");
+    }
+
+    Route streamRoutes() {
+        return concat(
+                postOrderStream(),
+                getOrderStream()
+        );
+    }
+
+    private Route postOrderStream() {
+        // the body is consumed incrementally, so the limit for strict entities does not apply
+        return post(() -> withoutSizeLimit(() -> extractRequestEntity(entity -> {
+            Source<ByteString, ?> created = entity.getDataBytes()
+                    .via(Framing.delimiter(NEWLINE, MAX_LINE_LENGTH, FramingTruncation.ALLOW))
+                    .filter(line -> !line.isEmpty() && !line.utf8String().isBlank())
+                    .map(line -> toOrder(ORDER_READER.readValue(line.toArray())))
+                    .groupedWithin(BATCH_SIZE, BATCH_LINGER)
+                    .mapAsync(BATCHES_IN_FLIGHT, this::askForOrderBatchCreation)
+                    .mapConcat(orders -> orders)
+                    .map(OrderStreamRoutes::toLine);
+            return complete(HttpEntities.create(NDJSON, created));
+        })));
+    }
+
+    private Route getOrderStream() {
+        return get(() -> OrderRoutes.whenLoaded(readModel, retryAfter, () -> parameterOptional("state", state -> {
+            if (state.isPresent() && Arrays.stream(OrderState.values()).noneMatch(s -> s.name().equals(state.get()))) {
+                return complete(StatusCodes.BAD_REQUEST, "Unknown order state " + state.get());
+            }
+            Optional<OrderState> filter = state.map(OrderState::valueOf);
+            Source<ByteString, NotUsed> orders = Source.fromIterator(readModel::iterator)
+                    .filter(order -> filter.isEmpty() || filter.get() == order.state)
+                    .map(OrderStreamRoutes::toLine);
+            return complete(HttpEntities.create(NDJSON, orders));
+        })));
+    }
+
+    /**
+     * Fails the stream with the first order of the chunk that could not be created.
+     */
+    private CompletionStage<List<Order>> askForOrderBatchCreation(List<Order> orders) {
+        return askPersistenceLatency.time(() ->
+                AskPattern.<PersistenceActor.PersistenceCommand, List<StatusReply<Order>>>ask(orderPersistenceActor,
+                        replyTo -> new PersistenceActor.CreateBatch(orders, replyTo), chunkTimeout, scheduler))
+                .thenApply(replies -> replies.stream().map(StatusReply::getValue).collect(Collectors.toList()));
+    }
+
+    private static Order toOrder(OrderPostDto order) {
+        return new Order(UUID.randomUUID().toString(), order.getItems(), CREATED, NO_RESULT);
+    }
+
+    private static ByteString toLine(Order order) {
+        return ByteString.fromArrayUnsafe(OrderCodec.orderJson(order)).concat(NEWLINE);
+    }
+}
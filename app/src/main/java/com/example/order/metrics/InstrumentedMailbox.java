@@ -0,0 +1,113 @@
+package com.example.order.metrics;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mailbox publishing its depth as the {@code order_mailbox_depth} gauge of the owning actor.
+ * Unlike the default mailbox it keeps a count, so reading the depth does not walk the queue.
+ * Select it with {@code MailboxSelector.fromConfig("order.instrumented-mailbox")}.
+ * <p>
+ * With a {@code mailbox-capacity} above 0, {@link Sheddable} messages arriving while that many
+ * messages wait are shed instead of enqueued and counted as {@code order_mailbox_shed_total}. Other
+ * messages are enqueued regardless, so e.g. journal replies of persistent actors are never lost.
+ */
+public class InstrumentedMailbox implements MailboxType, ProducesMessageQueue<InstrumentedMailbox.CountingQueue> {
+
+    static final String DEPTH = "order_mailbox_depth";
+    static final String SHED = "order_mailbox_shed_total";
+
+    private final int capacity;
+
+    public InstrumentedMailbox(ActorSystem.Settings settings, Config config) {
+        this.capacity = config.hasPath("mailbox-capacity") ? config.getInt("mailbox-capacity") : 0;
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        if (owner.isEmpty() || system.isEmpty()) {
+            return new CountingQueue(null, null, capacity);
+        }
+        String actor = owner.get().path().toStringWithoutAddress();
+        OrderMetrics metrics = OrderMetrics.get(Adapter.toTyped(system.get()));
+        CountingQueue queue = new CountingQueue(metrics, actor, capacity);
+        metrics.gauge(DEPTH, "Messages waiting in the mailbox of the actor.", queue::numberOfMessages, "actor", actor);
+        if (capacity > 0) {
+            metrics.counter(SHED, "Requests turned away because the mailbox of the actor was full.", queue.shed::sum, "actor", actor);
+        }
+        return queue;
+    }
+
+    public static final class CountingQueue implements MessageQueue, UnboundedMessageQueueSemantics {
+        private final Queue<Envelope> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final OrderMetrics metrics;
+        private final String actor;
+        private final int capacity;
+        private final MailboxFullException full;
+        final LongAdder shed = new LongAdder();
+
+        CountingQueue(OrderMetrics metrics, String actor, int capacity) {
+            this.metrics = metrics;
+            this.actor = actor;
+            this.capacity = capacity;
+            this.full = new MailboxFullException(actor != null ? actor : "the actor");
+        }
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            // concurrent senders may overshoot the capacity slightly, which saves a compare-and-set loop
+            if (capacity > 0 && handle.message() instanceof Sheddable && size.get() >= capacity) {
+                shed.increment();
+                ((Sheddable) handle.message()).shed(full);
+                return;
+            }
+            queue.offer(handle);
+            size.incrementAndGet();
+        }
+
+        @Override
+        public Envelope dequeue() {
+            Envelope envelope = queue.poll();
+            if (envelope != null) {
+                size.decrementAndGet();
+            }
+            return envelope;
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return size.get();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            Envelope envelope;
+            while ((envelope = dequeue()) != null) {
+                deadLetters.enqueue(owner, envelope);
+            }
+            if (metrics != null) {
+                metrics.remove(DEPTH, "actor", actor);
+                metrics.remove(SHED, "actor", actor);
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.order.metrics;
+
+/**
+ * The actor had too many messages waiting to accept another request. Thrown often under
+ * overload, so it carries no stack trace and one instance per mailbox is reused.
+ */
+public class MailboxFullException extends RuntimeException {
+
+    public MailboxFullException(String actor) {
+        super("Too many requests waiting for " + actor + ", retry later", null, false, false);
+    }
+}
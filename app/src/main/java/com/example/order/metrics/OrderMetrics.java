@@ -0,0 +1,146 @@
+package com.example.order.metrics;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of the metrics of one actor system, rendered in the Prometheus text format.
+ * <p>
+ * Metrics are identified by name and labels, given as alternating label names and values. Looking
+ * one up creates it on first use, so callers keep the returned instance on hot paths. Gauges are
+ * read when rendering and must be cheap and safe to call from any thread.
+ */
+public class OrderMetrics implements Extension {
+
+    public static final ExtensionId<OrderMetrics> ID = new ExtensionId<>() {
+        @Override
+        public OrderMetrics createExtension(ActorSystem<?> system) {
+            return new OrderMetrics();
+        }
+    };
+
+    private static final double MICROS_PER_SECOND = 1_000_000;
+    private static final double NANOS_PER_SECOND = 1_000_000_000;
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    public static OrderMetrics get(ActorSystem<?> system) {
+        return ID.get(system);
+    }
+
+    /**
+     * Summary of latencies recorded in nanoseconds or by {@link Summary#time}, rendered in seconds.
+     */
+    public Summary timer(String name, String help, String... labels) {
+        return (Summary) family(name, help, "summary").metrics.computeIfAbsent(labels(labels), l -> new Summary(MICROS_PER_SECOND));
+    }
+
+    public Summary summary(String name, String help, String... labels) {
+        return (Summary) family(name, help, "summary").metrics.computeIfAbsent(labels(labels), l -> new Summary(1));
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").metrics.put(labels(labels), value);
+    }
+
+    /**
+     * Gauge of a time measured in nanoseconds, rendered in seconds.
+     */
+    public void nanosGauge(String name, String help, DoubleSupplier nanos, String... labels) {
+        gauge(name, help, () -> nanos.getAsDouble() / NANOS_PER_SECOND, labels);
+    }
+
+    public void counter(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "counter").metrics.put(labels(labels), value);
+    }
+
+    public void remove(String name, String... labels) {
+        Family family = families.get(name);
+        if (family != null) {
+            family.metrics.remove(labels(labels));
+        }
+    }
+
+    public String prometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : families.values()) {
+            if (family.metrics.isEmpty()) continue;
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                if (metric.getValue() instanceof Summary) {
+                    appendSummary(out, family.name, metric.getKey(), ((Summary) metric.getValue()).snapshot());
+                } else {
+                    appendSample(out, family.name, metric.getKey(), ((DoubleSupplier) metric.getValue()).getAsDouble());
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void appendSummary(StringBuilder out, String name, String labels, Summary.Snapshot snapshot) {
+        String separator = labels.isEmpty() ? "" : labels + ",";
+        for (int i = 0; i < Summary.QUANTILES.length; i++) {
+            appendSample(out, name, separator + "quantile=\"" + Summary.QUANTILES[i] + "\"", snapshot.quantiles[i]);
+        }
+        appendSample(out, name + "_sum", labels, snapshot.sum);
+        appendSample(out, name + "_count", labels, snapshot.count);
+    }
+
+    private static void appendSample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.6g", value));
+        }
+        out.append('\n');
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be pairs of name and value");
+        }
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) out.append(',');
+            out.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return out.toString();
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
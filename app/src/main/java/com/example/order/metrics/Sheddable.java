@@ -0,0 +1,14 @@
+package com.example.order.metrics;
+
+/**
+ * Message an {@link InstrumentedMailbox} with a capacity may turn away when full, typically a
+ * request of a client that can be answered as failed right away. Other messages, e.g. replies the
+ * actor waits for, are always enqueued.
+ */
+public interface Sheddable {
+
+    /**
+     * Answers the sender that the message was not accepted. Runs on the sending thread and must not block.
+     */
+    void shed(MailboxFullException reason);
+}
@@ -0,0 +1,68 @@
+package com.example.order.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * Distribution of recorded values, rendered as a Prometheus summary.
+ * <p>
+ * Values are recorded into an HdrHistogram {@link Recorder}, which takes no locks on the recording
+ * path. Scrapes move the recorded values into a cumulative histogram, so quantiles, sum and count
+ * cover everything recorded since start. Latencies are recorded in microseconds and rendered in
+ * seconds.
+ */
+public final class Summary {
+
+    static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Recorder recorder = new Recorder(2);
+    private final Histogram total = new Histogram(2);
+    private final double unit;
+    private Histogram interval;
+
+    Summary(double unit) {
+        this.unit = unit;
+    }
+
+    public void record(long value) {
+        recorder.recordValue(Math.max(value, 0));
+    }
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    /**
+     * Records the time until the stage returned by the supplier completes, successfully or not.
+     */
+    public <T> CompletionStage<T> time(Supplier<CompletionStage<T>> operation) {
+        long start = System.nanoTime();
+        return operation.get().whenComplete((result, error) -> recordNanos(System.nanoTime() - start));
+    }
+
+    synchronized Snapshot snapshot() {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        double[] values = new double[QUANTILES.length];
+        for (int i = 0; i < QUANTILES.length; i++) {
+            values[i] = total.getValueAtPercentile(QUANTILES[i] * 100) / unit;
+        }
+        // HdrHistogram keeps no exact total, the sum is derived from the mean
+        return new Snapshot(values, total.getMean() * total.getTotalCount() / unit, total.getTotalCount());
+    }
+
+    static final class Snapshot {
+        final double[] quantiles;
+        final double sum;
+        final long count;
+
+        Snapshot(double[] quantiles, double sum, long count) {
+            this.quantiles = quantiles;
+            this.sum = sum;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.example.order.persistence;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import com.example.order.serialization.BinaryReader;
+import com.example.order.serialization.BinaryWriter;
+import com.typesafe.config.Config;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Read optimized on-disk store for closed orders, which never change again.
+ * <p>
+ * Orders are appended to segment files as length prefixed records in the binary order format.
+ * An in-memory index maps order ids to segment and offset and is rebuilt by scanning the segments
+ * on start. Recently stored or read orders are kept in an LRU cache. Storing is idempotent, so
+ * replaying the journal after a restart does not write orders twice. Stored orders are only
+ * durable once {@link #sync synced}.
+ */
+@Slf4j
+public class ClosedOrderStore implements Extension {
+
+    public static final ExtensionId<ClosedOrderStore> ID = new ExtensionId<>() {
+        @Override
+        public ClosedOrderStore createExtension(ActorSystem<?> system) {
+            Config config = system.settings().config();
+            if (!config.hasPath("order.persistence.closed-orders")
+                    || !config.getBoolean("order.persistence.closed-orders.evict")) {
+                return new ClosedOrderStore();
+            }
+            Config closedOrders = config.getConfig("order.persistence.closed-orders");
+            ClosedOrderStore store = new ClosedOrderStore(Paths.get(closedOrders.getString("dir")),
+                    closedOrders.getBytes("segment-size"), closedOrders.getInt("cache-size"));
+            system.getWhenTerminated().thenRun(store::close);
+            return store;
+        }
+    };
+
+    private static final int SEGMENT_BITS = 40;
+    private static final long OFFSET_MASK = (1L << SEGMENT_BITS) - 1;
+
+    private final boolean enabled;
+    private final Path dir;
+    private final long segmentSize;
+    private final List<FileChannel> segments = new CopyOnWriteArrayList<>();
+    private final UuidLongMap index = new UuidLongMap();
+    private final Map<String, Order> cache;
+    private long writePosition;
+
+    private ClosedOrderStore() {
+        enabled = false;
+        dir = null;
+        segmentSize = 0;
+        cache = Map.of();
+    }
+
+    ClosedOrderStore(Path dir, long segmentSize, int cacheSize) {
+        this.enabled = true;
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Order> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        try {
+            Files.createDirectories(dir);
+            for (int segment = 0; Files.exists(segmentPath(segment)); segment++) {
+                segments.add(open(segment));
+                writePosition = scan(segment);
+            }
+            if (segments.isEmpty()) {
+                segments.add(open(0));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open closed order store in " + dir, e);
+        }
+        log.info("Opened closed order store in {} with {} orders in {} segments", dir, index.size(), segments.size());
+    }
+
+    public static ClosedOrderStore get(ActorSystem<?> system) {
+        return ID.get(system);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Appends the order unless an order with this id is stored already.
+     */
+    public synchronized void put(Order order) {
+        if (!enabled || index.get(order.id) != UuidLongMap.MISSING) return;
+        BinaryWriter out = new BinaryWriter(64);
+        OrderBinarySerializer.writeOrder(out, order);
+        out.writeVarInt(order.version);
+        byte[] record = out.toByteArray();
+        try {
+            if (writePosition > 0 && writePosition + Integer.BYTES + record.length > segmentSize) {
+                activeSegment().force(false);
+                segments.add(open(segments.size()));
+                writePosition = 0;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + record.length).putInt(record.length).put(record).flip();
+            while (buffer.hasRemaining()) {
+                activeSegment().write(buffer, writePosition + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store closed order " + order.id, e);
+        }
+        index.put(order.id, ((long) (segments.size() - 1) << SEGMENT_BITS) | writePosition);
+        writePosition += Integer.BYTES + record.length;
+        cache.put(order.id, order);
+    }
+
+    /**
+     * Forces the orders put so far to disk, file size included, so they survive a crash.
+     */
+    public synchronized void sync() {
+        if (!enabled) return;
+        try {
+            activeSegment().force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to sync closed order store in " + dir, e);
+        }
+    }
+
+    /**
+     * @return the closed order or null if it is not stored here
+     */
+    public synchronized Order get(String orderId) {
+        if (!enabled) return null;
+        Order cached = cache.get(orderId);
+        if (cached != null) return cached;
+        long position = index.get(orderId);
+        if (position == UuidLongMap.MISSING) return null;
+        Order order = read((int) (position >>> SEGMENT_BITS), position & OFFSET_MASK);
+        cache.put(orderId, order);
+        return order;
+    }
+
+    public synchronized boolean contains(String orderId) {
+        return enabled && index.get(orderId) != UuidLongMap.MISSING;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Reads all stored orders segment by segment without caching them.
+     */
+    public void forEach(Consumer<Order> action) {
+        iterator().forEachRemaining(action);
+    }
+
+    /**
+     * Lazily reads the orders stored when this method is called, one record at a time.
+     */
+    public Iterator<Order> iterator() {
+        if (!enabled) return Collections.emptyIterator();
+        int segmentCount;
+        long end;
+        synchronized (this) {
+            segmentCount = segments.size();
+            end = writePosition;
+        }
+        return new Iterator<>() {
+            int segment;
+            long position;
+
+            @Override
+            public boolean hasNext() {
+                while (segment < segmentCount && position >= limit()) {
+                    segment++;
+                    position = 0;
+                }
+                return segment < segmentCount;
+            }
+
+            @Override
+            public Order next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                byte[] record = readRecord(segment, position);
+                position += Integer.BYTES + record.length;
+                return decode(record);
+            }
+
+            private long limit() {
+                return segment == segmentCount - 1 ? end : size(segment);
+            }
+        };
+    }
+
+    public synchronized void close() {
+        for (FileChannel segment : segments) {
+            try {
+                segment.force(false);
+                segment.close();
+            } catch (IOException e) {
+                log.warn("Failed to close segment of closed order store", e);
+            }
+        }
+        segments.clear();
+    }
+
+    private Order read(int segment, long position) {
+        return decode(readRecord(segment, position));
+    }
+
+    private byte[] readRecord(int segment, long position) {
+        try {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            readFully(segments.get(segment), length, position);
+            ByteBuffer record = ByteBuffer.allocate(length.flip().getInt());
+            readFully(segments.get(segment), record, position + Integer.BYTES);
+            return record.array();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read closed order", e);
+        }
+    }
+
+    private long scan(int segment) throws IOException {
+        long end = size(segment);
+        long position = 0;
+        while (position + Integer.BYTES <= end) {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            readFully(segments.get(segment), length, position);
+            int recordLength = length.flip().getInt();
+            if (position + Integer.BYTES + recordLength > end) break;
+            String orderId = new BinaryReader(readRecord(segment, position)).readId();
+            index.put(orderId, ((long) segment << SEGMENT_BITS) | position);
+            position += Integer.BYTES + recordLength;
+        }
+        if (position < end) {
+            log.warn("Truncating incomplete record at {} in segment {}", position, segmentPath(segment));
+            segments.get(segment).truncate(position);
+        }
+        return position;
+    }
+
+    private long size(int segment) {
+        try {
+            return segments.get(segment).size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of segment at " + position);
+            }
+        }
+    }
+
+    private static Order decode(byte[] record) {
+        BinaryReader in = new BinaryReader(record);
+        Order order = OrderBinarySerializer.readOrder(in);
+        // records stored before orders had versions end after the order
+        return in.hasRemaining() ? order.toBuilder().version(in.readVarInt()).build() : order;
+    }
+
+    private FileChannel activeSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private FileChannel open(int segment) throws IOException {
+        return FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private Path segmentPath(int segment) {
+        return dir.resolve(String.format("segment-%06d.dat", segment));
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.order.persistence;
+
+import com.example.order.serialization.Ids;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Keeps orders in parallel primitive arrays indexed by a row number.
+ * <p>
+ * UUID order ids are stored as two longs and found through an open addressing table of rows.
+ * Other ids (rare, mostly in tests) go through a plain map. Item lines are appended to shared
+ * SKU/quantity arrays, SKUs are replaced by an index into a SKU dictionary. Rows of removed orders
+ * are reused, lines of removed or replaced orders are reclaimed once they make up half of all lines.
+ */
+class CompactOrderStore implements OrderStore {
+    private static final int NO_ITEMS = -1;
+    private static final byte FREE = -1;
+    private static final int MIN_LINES_TO_COMPACT = 1024;
+    private static final OrderState[] ORDER_STATES = OrderState.values();
+    private static final FulfillmentResult[] FULFILLMENT_RESULTS = FulfillmentResult.values();
+
+    private int rows;
+    private long[] idHigh = new long[16];
+    private long[] idLow = new long[16];
+    private byte[] states = new byte[16];
+    private byte[] results = new byte[16];
+    private int[] versions = new int[16];
+    private long[] createdAt = new long[16];
+    private int[] lineStart = new int[16];
+    private int[] lineCount = new int[16];
+    private int[] freeRows = new int[16];
+    private int freeCount;
+
+    /** Row + 1 for every UUID keyed order, 0 marks a free slot. */
+    private int[] index = new int[32];
+
+    private final Map<String, Integer> otherIds = new HashMap<>();
+    private final Map<Integer, String> otherIdsByRow = new HashMap<>();
+
+    private int lines;
+    private int garbageLines;
+    private int[] lineSku = new int[64];
+    private int[] lineQuantity = new int[64];
+
+    private final Map<String, Integer> skuIds = new HashMap<>();
+    private final List<String> skus = new ArrayList<>();
+
+    @Override
+    public OrderStoreType type() {
+        return OrderStoreType.COMPACT;
+    }
+
+    @Override
+    public void put(Order order) {
+        int row = findRow(order.id);
+        if (row < 0) {
+            row = addRow(order.id);
+        } else {
+            garbageLines += Math.max(lineCount[row], 0);
+        }
+        states[row] = (byte) order.state.ordinal();
+        results[row] = (byte) order.fulfillmentResult.ordinal();
+        versions[row] = order.version;
+        createdAt[row] = order.createdAt;
+        writeItems(row, order.items);
+    }
+
+    @Override
+    public Order get(String orderId) {
+        int row = findRow(orderId);
+        return row < 0 ? null : toOrder(orderId, row);
+    }
+
+    @Override
+    public void changeState(String orderId, OrderState state) {
+        int row = requireRow(orderId);
+        states[row] = (byte) state.ordinal();
+        versions[row]++;
+    }
+
+    @Override
+    public void close(String orderId, FulfillmentResult fulfillmentResult) {
+        int row = requireRow(orderId);
+        states[row] = (byte) OrderState.CLOSED.ordinal();
+        results[row] = (byte) fulfillmentResult.ordinal();
+        versions[row]++;
+    }
+
+    @Override
+    public Order remove(String orderId) {
+        int row = findRow(orderId);
+        if (row < 0) return null;
+        Order order = toOrder(orderId, row);
+        String otherId = otherIdsByRow.remove(row);
+        if (otherId != null) {
+            otherIds.remove(otherId);
+        } else {
+            removeFromIndex(row);
+        }
+        garbageLines += Math.max(lineCount[row], 0);
+        states[row] = FREE;
+        if (freeCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+        }
+        freeRows[freeCount++] = row;
+        if (lines >= MIN_LINES_TO_COMPACT && garbageLines * 2 > lines) {
+            compactLines();
+        }
+        return order;
+    }
+
+    @Override
+    public int size() {
+        return rows - freeCount;
+    }
+
+    @Override
+    public void forEach(Consumer<Order> action) {
+        for (int row = 0; row < rows; row++) {
+            if (states[row] == FREE) continue;
+            String id = otherIdsByRow.get(row);
+            action.accept(toOrder(id != null ? id : new UUID(idHigh[row], idLow[row]).toString(), row));
+        }
+    }
+
+    private Order toOrder(String orderId, int row) {
+        Map<String, Integer> items = null;
+        if (lineCount[row] != NO_ITEMS) {
+            // built immutable right away, Order would copy any other map
+            @SuppressWarnings("unchecked")
+            Map.Entry<String, Integer>[] entries = new Map.Entry[lineCount[row]];
+            for (int i = 0; i < entries.length; i++) {
+                int line = lineStart[row] + i;
+                entries[i] = Map.entry(skus.get(lineSku[line]), lineQuantity[line]);
+            }
+            items = Map.ofEntries(entries);
+        }
+        return new Order(orderId, items, ORDER_STATES[states[row]], FULFILLMENT_RESULTS[results[row]], versions[row],
+                createdAt[row]);
+    }
+
+    private int requireRow(String orderId) {
+        int row = findRow(orderId);
+        if (row < 0) throw new IllegalStateException("No order with id " + orderId);
+        return row;
+    }
+
+    private int findRow(String orderId) {
+        UUID uuid = Ids.parseUuid(orderId);
+        if (uuid == null) {
+            return otherIds.getOrDefault(orderId, -1);
+        }
+        long high = uuid.getMostSignificantBits();
+        long low = uuid.getLeastSignificantBits();
+        int mask = index.length - 1;
+        for (int slot = hash(high, low) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            int row = index[slot] - 1;
+            if (idHigh[row] == high && idLow[row] == low) return row;
+        }
+        return -1;
+    }
+
+    private int addRow(String orderId) {
+        int row;
+        if (freeCount > 0) {
+            row = freeRows[--freeCount];
+        } else {
+            if (rows == states.length) {
+                growRows();
+            }
+            row = rows++;
+        }
+        states[row] = 0;
+        UUID uuid = Ids.parseUuid(orderId);
+        if (uuid == null) {
+            otherIds.put(orderId, row);
+            otherIdsByRow.put(row, orderId);
+            return row;
+        }
+        idHigh[row] = uuid.getMostSignificantBits();
+        idLow[row] = uuid.getLeastSignificantBits();
+        if ((size() - otherIds.size()) * 3 > index.length * 2) {
+            rebuildIndex(index.length * 2);
+        } else {
+            insertIntoIndex(row);
+        }
+        return row;
+    }
+
+    private void insertIntoIndex(int row) {
+        int mask = index.length - 1;
+        int slot = hash(idHigh[row], idLow[row]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = row + 1;
+    }
+
+    private void removeFromIndex(int row) {
+        int mask = index.length - 1;
+        int slot = hash(idHigh[row], idLow[row]) & mask;
+        while (index[slot] != row + 1) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = 0;
+        // shift back following entries of the probe sequence so lookups don't stop at the gap
+        for (int next = (slot + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+            int nextRow = index[next] - 1;
+            int ideal = hash(idHigh[nextRow], idLow[nextRow]) & mask;
+            boolean reachableFromGap = slot <= next ? (ideal <= slot || ideal > next) : (ideal <= slot && ideal > next);
+            if (reachableFromGap) {
+                index[slot] = index[next];
+                index[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    private void rebuildIndex(int size) {
+        index = new int[size];
+        for (int row = 0; row < rows; row++) {
+            if (states[row] != FREE && !otherIdsByRow.containsKey(row)) insertIntoIndex(row);
+        }
+    }
+
+    private void compactLines() {
+        int[] compactSku = new int[Math.max(64, (lines - garbageLines) * 2)];
+        int[] compactQuantity = new int[compactSku.length];
+        int position = 0;
+        for (int row = 0; row < rows; row++) {
+            if (states[row] == FREE || lineCount[row] <= 0) continue;
+            System.arraycopy(lineSku, lineStart[row], compactSku, position, lineCount[row]);
+            System.arraycopy(lineQuantity, lineStart[row], compactQuantity, position, lineCount[row]);
+            lineStart[row] = position;
+            position += lineCount[row];
+        }
+        lineSku = compactSku;
+        lineQuantity = compactQuantity;
+        lines = position;
+        garbageLines = 0;
+    }
+
+    private void growRows() {
+        int capacity = states.length * 2;
+        idHigh = Arrays.copyOf(idHigh, capacity);
+        idLow = Arrays.copyOf(idLow, capacity);
+        states = Arrays.copyOf(states, capacity);
+        results = Arrays.copyOf(results, capacity);
+        versions = Arrays.copyOf(versions, capacity);
+        createdAt = Arrays.copyOf(createdAt, capacity);
+        lineStart = Arrays.copyOf(lineStart, capacity);
+        lineCount = Arrays.copyOf(lineCount, capacity);
+    }
+
+    private void writeItems(int row, Map<String, Integer> items) {
+        if (items == null) {
+            lineCount[row] = NO_ITEMS;
+            return;
+        }
+        if (lines + items.size() > lineSku.length) {
+            int capacity = Math.max(lineSku.length * 2, lines + items.size());
+            lineSku = Arrays.copyOf(lineSku, capacity);
+            lineQuantity = Arrays.copyOf(lineQuantity, capacity);
+        }
+        lineStart[row] = lines;
+        lineCount[row] = items.size();
+        items.forEach((sku, quantity) -> {
+            lineSku[lines] = skuId(sku);
+            lineQuantity[lines] = quantity;
+            lines++;
+        });
+    }
+
+    private int skuId(String sku) {
+        return skuIds.computeIfAbsent(sku, key -> {
+            skus.add(key);
+            return skus.size() - 1;
+        });
+    }
+
+    private static int hash(long high, long low) {
+        return UuidLongMap.hash(high, low);
+    }
+}
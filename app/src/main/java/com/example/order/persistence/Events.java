@@ -1,19 +1,34 @@
 package com.example.order.persistence;
 
-import com.example.order.serialization.JsonSerializable;
+import com.example.order.serialization.BinarySerializable;
 import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 
 class Events {
 
-    interface Event extends JsonSerializable {
-
+    interface Event extends BinarySerializable {
+        String orderId();
     }
 
+    /**
+     * The idempotency key is null for orders created without one, the timestamp is the creation
+     * time in epoch millis and drives expiring the key.
+     */
     @AllArgsConstructor
     @NoArgsConstructor
     public static final class OrderCreated implements Event {
         public Order order;
+        public String idempotencyKey;
+        public long timestamp;
+
+        public OrderCreated(Order order) {
+            this(order, null, 0);
+        }
+
+        @Override
+        public String orderId() {
+            return order.id;
+        }
     }
 
     @AllArgsConstructor
@@ -21,6 +36,11 @@ class Events {
     public static final class OrderStateChanged implements Event {
         public String orderId;
         public OrderState state;
+
+        @Override
+        public String orderId() {
+            return orderId;
+        }
     }
 
     @AllArgsConstructor
@@ -28,5 +48,10 @@ class Events {
     public static final class OrderClosed implements Event {
         public String orderId;
         public FulfillmentResult fulfillmentResult;
+
+        @Override
+        public String orderId() {
+            return orderId;
+        }
     }
 }
@@ -0,0 +1,143 @@
+package com.example.order.persistence;
+
+import akka.Done;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.SupervisorStrategy;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.javadsl.CommandHandler;
+import akka.persistence.typed.javadsl.EventHandler;
+import akka.persistence.typed.javadsl.EventSourcedBehavior;
+import akka.persistence.typed.javadsl.RetentionCriteria;
+import akka.persistence.typed.javadsl.SnapshotAdapter;
+import com.example.order.serialization.JsonSerializable;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Durable set of the orders that entered fulfillment in "per-order" mode, where no single actor
+ * holds all orders. The {@link PersistenceRouter} adds an order before passing on the command that
+ * moves it to IN_FULFILLMENT and removes it once it is closed, so the orders left in fulfillment by
+ * a restart are found without recovering every entity. An order may stay listed after its command
+ * failed, the router checks every listed order with its entity.
+ */
+class FulfillmentIndex extends EventSourcedBehavior<FulfillmentIndex.Command, FulfillmentIndex.Event, FulfillmentIndex.State> {
+
+    private static final int SNAPSHOT_EVERY = 1000;
+
+    private FulfillmentIndex() {
+        super(PersistenceId.ofUniqueId("OrdersInFulfillment"),
+                SupervisorStrategy.restartWithBackoff(Duration.ofSeconds(1), Duration.ofSeconds(30), 0.2));
+    }
+
+    @Override
+    public State emptyState() {
+        return new State(new HashSet<>());
+    }
+
+    @Override
+    public CommandHandler<Command, Event, State> commandHandler() {
+        return newCommandHandlerBuilder()
+                .forAnyState()
+                .onCommand(Add.class, (state, cmd) -> state.orderIds.contains(cmd.orderId)
+                        ? Effect().none().thenReply(cmd.replyTo, s -> Done.getInstance())
+                        : Effect().persist(new OrderAdded(cmd.orderId)).thenReply(cmd.replyTo, s -> Done.getInstance()))
+                .onCommand(Remove.class, (state, cmd) -> state.orderIds.contains(cmd.orderId)
+                        ? Effect().persist(new OrderRemoved(cmd.orderId))
+                        : Effect().none())
+                .onCommand(ListOrders.class, (state, cmd) -> Effect().reply(cmd.replyTo,
+                        new PersistenceActor.OrdersInFulfillment(new ArrayList<>(state.orderIds))))
+                .build();
+    }
+
+    @Override
+    public EventHandler<State, Event> eventHandler() {
+        return newEventHandlerBuilder()
+                .forAnyState()
+                .onEvent(OrderAdded.class, (state, evt) -> {
+                    state.orderIds.add(evt.orderId);
+                    return state;
+                })
+                .onEvent(OrderRemoved.class, (state, evt) -> {
+                    state.orderIds.remove(evt.orderId);
+                    return state;
+                })
+                .build();
+    }
+
+    @Override
+    public RetentionCriteria retentionCriteria() {
+        return RetentionCriteria.snapshotEvery(SNAPSHOT_EVERY, 2).withDeleteEventsOnSnapshot();
+    }
+
+    /**
+     * The state is changed in place, a snapshot gets a copy of it.
+     */
+    @Override
+    public SnapshotAdapter<State> snapshotAdapter() {
+        return new SnapshotAdapter<>() {
+            @Override
+            public Object toJournal(State state) {
+                return new State(new HashSet<>(state.orderIds));
+            }
+
+            @Override
+            public State fromJournal(Object from) {
+                return (State) from;
+            }
+        };
+    }
+
+    public static Behavior<Command> create() {
+        return Behaviors.setup(ctx -> new FulfillmentIndex());
+    }
+
+    interface Command {
+    }
+
+    /**
+     * Adds the order, acknowledged once persisted.
+     */
+    @AllArgsConstructor
+    static final class Add implements Command {
+        final String orderId;
+        final ActorRef<Done> replyTo;
+    }
+
+    @AllArgsConstructor
+    static final class Remove implements Command {
+        final String orderId;
+    }
+
+    @AllArgsConstructor
+    static final class ListOrders implements Command {
+        final ActorRef<PersistenceActor.OrdersInFulfillment> replyTo;
+    }
+
+    interface Event extends JsonSerializable {
+    }
+
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static final class OrderAdded implements Event {
+        public String orderId;
+    }
+
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static final class OrderRemoved implements Event {
+        public String orderId;
+    }
+
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static final class State implements JsonSerializable {
+        public Set<String> orderIds;
+    }
+}
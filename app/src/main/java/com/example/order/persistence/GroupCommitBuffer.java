@@ -0,0 +1,146 @@
+package com.example.order.persistence;
+
+import akka.Done;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.MailboxSelector;
+import akka.actor.typed.Props;
+import akka.actor.typed.SupervisorStrategy;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.TimerScheduler;
+import com.example.order.persistence.PersistenceActor.EntityCommand;
+import com.example.order.persistence.PersistenceActor.PersistenceCommand;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Group commit in front of a single {@link PersistenceActor}: single order writes of concurrent
+ * clients are persisted together as a {@link PersistenceActor.WriteBatch} with one journal write.
+ * <p>
+ * While no batch is being persisted a write is passed on at once, so light load sees no added
+ * latency. While a batch is in flight, writes are buffered until it is persisted, the buffer
+ * reaches the max batch size or the oldest buffered write waited for the max linger time. Any
+ * other command flushes the buffer first, so commands reach the persistence actor in order.
+ * <p>
+ * The buffer watches the persistence actor. If it stops, e.g. because the journal failed, the
+ * writes in flight and in the buffer are answered with an error and the buffer fails, to be
+ * restarted with backoff together with a new persistence actor recovering from the journal.
+ */
+public class GroupCommitBuffer extends AbstractBehavior<PersistenceCommand> {
+
+    private static final String MAILBOX = "order.bounded-mailbox";
+    private static final Duration MIN_BACKOFF = Duration.ofSeconds(1);
+    private static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+
+    private final TimerScheduler<PersistenceCommand> timers;
+    private final ActorRef<PersistenceCommand> persistenceActor;
+    private final ActorRef<Done> batchPersisted;
+    private final int maxBatchSize;
+    private final Duration maxLinger;
+    private List<EntityCommand> buffer = new ArrayList<>();
+    /** Batches sent to the persistence actor and not acknowledged yet, oldest first. */
+    private final Deque<List<EntityCommand>> batchesInFlight = new ArrayDeque<>();
+
+    private GroupCommitBuffer(ActorContext<PersistenceCommand> ctx, TimerScheduler<PersistenceCommand> timers,
+                              PersistenceSettings settings) {
+        super(ctx);
+        this.timers = timers;
+        // like the buffer itself, the actual writer runs on the bounded instrumented mailbox
+        Props props = ctx.getSystem().settings().config().hasPath(MAILBOX)
+                ? MailboxSelector.fromConfig(MAILBOX)
+                : Props.empty();
+        this.persistenceActor = ctx.spawn(PersistenceActor.create(settings), "Orders", settings.getDispatcher() != null
+                ? props.withDispatcherFromConfig(settings.getDispatcher())
+                : props);
+        ctx.watchWith(persistenceActor, PersistenceActorTerminated.INSTANCE);
+        this.batchPersisted = ctx.messageAdapter(Done.class, done -> BatchPersisted.INSTANCE);
+        this.maxBatchSize = settings.getGroupCommitMaxBatchSize();
+        this.maxLinger = settings.getGroupCommitMaxLinger();
+    }
+
+    @Override
+    public Receive<PersistenceCommand> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(PersistenceActor.Create.class, this::onWrite)
+                .onMessage(PersistenceActor.ChangeState.class, this::onWrite)
+                .onMessage(PersistenceActor.Pay.class, this::onWrite)
+                .onMessage(PersistenceActor.Close.class, this::onWrite)
+                .onMessage(BatchPersisted.class, cmd -> onBatchPersisted())
+                .onMessage(LingerElapsed.class, cmd -> onLingerElapsed())
+                .onMessage(PersistenceActorTerminated.class, cmd -> onPersistenceActorTerminated())
+                .onMessage(PersistenceCommand.class, this::onOtherCommand)
+                .build();
+    }
+
+    private Behavior<PersistenceCommand> onWrite(EntityCommand cmd) {
+        buffer.add(cmd);
+        if (batchesInFlight.isEmpty() || buffer.size() >= maxBatchSize) {
+            flush();
+        } else if (buffer.size() == 1) {
+            timers.startSingleTimer(LingerElapsed.INSTANCE, maxLinger);
+        }
+        return this;
+    }
+
+    private Behavior<PersistenceCommand> onBatchPersisted() {
+        batchesInFlight.poll();
+        if (batchesInFlight.isEmpty() && !buffer.isEmpty()) {
+            flush();
+        }
+        return this;
+    }
+
+    private Behavior<PersistenceCommand> onPersistenceActorTerminated() {
+        RuntimeException error = new IllegalStateException("Orders could not be persisted, retry later");
+        batchesInFlight.forEach(batch -> batch.forEach(cmd -> PersistenceActor.replyError(cmd, error)));
+        buffer.forEach(cmd -> PersistenceActor.replyError(cmd, error));
+        throw new IllegalStateException("Persistence actor behind the group commit buffer stopped");
+    }
+
+    private Behavior<PersistenceCommand> onLingerElapsed() {
+        if (!buffer.isEmpty()) {
+            flush();
+        }
+        return this;
+    }
+
+    private Behavior<PersistenceCommand> onOtherCommand(PersistenceCommand cmd) {
+        if (!buffer.isEmpty()) {
+            flush();
+        }
+        persistenceActor.tell(cmd);
+        return this;
+    }
+
+    private void flush() {
+        timers.cancel(LingerElapsed.INSTANCE);
+        persistenceActor.tell(new PersistenceActor.WriteBatch(buffer, batchPersisted));
+        batchesInFlight.add(buffer);
+        buffer = new ArrayList<>();
+    }
+
+    public static Behavior<PersistenceCommand> create(PersistenceSettings settings) {
+        return Behaviors.supervise(Behaviors.<PersistenceCommand>setup(ctx -> Behaviors.withTimers(timers ->
+                        new GroupCommitBuffer(ctx, timers, settings))))
+                .onFailure(SupervisorStrategy.restartWithBackoff(MIN_BACKOFF, MAX_BACKOFF, 0.2));
+    }
+
+    private static final class BatchPersisted implements PersistenceCommand {
+        static final BatchPersisted INSTANCE = new BatchPersisted();
+    }
+
+    private static final class LingerElapsed implements PersistenceCommand {
+        static final LingerElapsed INSTANCE = new LingerElapsed();
+    }
+
+    private static final class PersistenceActorTerminated implements PersistenceCommand {
+        static final PersistenceActorTerminated INSTANCE = new PersistenceActorTerminated();
+    }
+}
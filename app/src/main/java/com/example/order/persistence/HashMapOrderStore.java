@@ -0,0 +1,53 @@
+package com.example.order.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Holds the immutable orders themselves, so lookups return the stored instance without copying
+ * and only changes allocate a new version.
+ */
+class HashMapOrderStore implements OrderStore {
+    private final Map<String, Order> orders = new HashMap<>();
+
+    @Override
+    public OrderStoreType type() {
+        return OrderStoreType.HASH_MAP;
+    }
+
+    @Override
+    public void put(Order order) {
+        orders.put(order.id, order);
+    }
+
+    @Override
+    public Order get(String orderId) {
+        return orders.get(orderId);
+    }
+
+    @Override
+    public void changeState(String orderId, OrderState state) {
+        orders.put(orderId, orders.get(orderId).withState(state));
+    }
+
+    @Override
+    public void close(String orderId, FulfillmentResult fulfillmentResult) {
+        orders.put(orderId, orders.get(orderId).closed(fulfillmentResult));
+    }
+
+    @Override
+    public Order remove(String orderId) {
+        return orders.remove(orderId);
+    }
+
+    @Override
+    public int size() {
+        return orders.size();
+    }
+
+    @Override
+    public void forEach(Consumer<Order> action) {
+        orders.values().forEach(action);
+    }
+}
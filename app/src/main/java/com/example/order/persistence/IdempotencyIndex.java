@@ -0,0 +1,73 @@
+package com.example.order.persistence;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recently used idempotency keys and the orders they created, in creation order.
+ * <p>
+ * Keys are kept for the retention time and at most max keys, the oldest are evicted first.
+ * Eviction is driven by the timestamps of the recorded creations rather than the clock, so
+ * replaying the journal rebuilds exactly the index the actor had.
+ */
+final class IdempotencyIndex {
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private int maxKeys;
+    private long retentionMillis;
+
+    IdempotencyIndex(int maxKeys, Duration retention) {
+        limit(maxKeys, retention);
+    }
+
+    /**
+     * Applies new limits, e.g. after recovering a snapshot taken with other settings.
+     */
+    IdempotencyIndex limit(int maxKeys, Duration retention) {
+        this.maxKeys = maxKeys;
+        this.retentionMillis = retention.toMillis();
+        return this;
+    }
+
+    /**
+     * @return the id of the order created with the key, null if the key is unknown or expired at the given time
+     */
+    String orderId(String key, long now) {
+        Entry entry = entries.get(key);
+        return entry != null && now - entry.timestamp < retentionMillis ? entry.orderId : null;
+    }
+
+    /**
+     * Records the key as the newest one, a reused key moves behind the others.
+     */
+    void put(String key, String orderId, long timestamp) {
+        entries.remove(key);
+        entries.put(key, new Entry(orderId, timestamp));
+        Iterator<Entry> oldest = entries.values().iterator();
+        while (oldest.hasNext()) {
+            Entry entry = oldest.next();
+            if (entries.size() <= maxKeys && timestamp - entry.timestamp < retentionMillis) break;
+            oldest.remove();
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    Map<String, Entry> entries() {
+        return entries;
+    }
+
+    static final class Entry {
+        final String orderId;
+        final long timestamp;
+
+        Entry(String orderId, long timestamp) {
+            this.orderId = orderId;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.order.persistence;
+
+/**
+ * An idempotency key still retained for an order was sent with a different order, the client
+ * reused the key for another request. Stackless, the message is formatted when read.
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+    private final String orderId;
+
+    public IdempotencyKeyReusedException(String orderId) {
+        super(null, null, false, false);
+        this.orderId = orderId;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Idempotency key was already used to create Order with ID %s with other items!", orderId);
+    }
+}
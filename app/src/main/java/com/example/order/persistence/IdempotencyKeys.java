@@ -0,0 +1,154 @@
+package com.example.order.persistence;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.SupervisorStrategy;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.javadsl.CommandHandler;
+import akka.persistence.typed.javadsl.EventHandler;
+import akka.persistence.typed.javadsl.EventSourcedBehavior;
+import akka.persistence.typed.javadsl.RetentionCriteria;
+import akka.persistence.typed.javadsl.SnapshotAdapter;
+import com.example.order.serialization.JsonSerializable;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonSetter;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Idempotency keys of "per-order" mode, where every order lives in an entity of its own and no
+ * entity sees the keys of the others. The {@link PersistenceRouter} binds the key of a create to
+ * its order id before passing the create on, so a repeated create within the key retention gets
+ * the id bound first and is answered by the entity of that order.
+ */
+class IdempotencyKeys extends EventSourcedBehavior<IdempotencyKeys.Command, IdempotencyKeys.KeyBound, IdempotencyKeys.State> {
+
+    private static final int SNAPSHOT_EVERY = 1000;
+
+    private final PersistenceSettings settings;
+
+    private IdempotencyKeys(PersistenceSettings settings) {
+        super(PersistenceId.ofUniqueId("IdempotencyKeys"),
+                SupervisorStrategy.restartWithBackoff(Duration.ofSeconds(1), Duration.ofSeconds(30), 0.2));
+        this.settings = settings;
+    }
+
+    @Override
+    public State emptyState() {
+        return new State(settings);
+    }
+
+    @Override
+    public CommandHandler<Command, KeyBound, State> commandHandler() {
+        return newCommandHandlerBuilder()
+                .forAnyState()
+                .onCommand(Bind.class, (state, cmd) -> {
+                    long now = System.currentTimeMillis();
+                    String orderId = state.keys.orderId(cmd.key, now);
+                    return orderId != null
+                            ? Effect().reply(cmd.replyTo, orderId)
+                            : Effect().persist(new KeyBound(cmd.key, cmd.orderId, now)).thenReply(cmd.replyTo, s -> cmd.orderId);
+                })
+                .build();
+    }
+
+    @Override
+    public EventHandler<State, KeyBound> eventHandler() {
+        return newEventHandlerBuilder()
+                .forAnyState()
+                .onEvent(KeyBound.class, (state, evt) -> {
+                    state.keys.put(evt.key, evt.orderId, evt.timestamp);
+                    return state;
+                })
+                .build();
+    }
+
+    @Override
+    public RetentionCriteria retentionCriteria() {
+        return RetentionCriteria.snapshotEvery(SNAPSHOT_EVERY, 2).withDeleteEventsOnSnapshot();
+    }
+
+    /**
+     * The state is changed in place, a snapshot gets a copy of it. Snapshots don't carry the limits.
+     */
+    @Override
+    public SnapshotAdapter<State> snapshotAdapter() {
+        return new SnapshotAdapter<>() {
+            @Override
+            public Object toJournal(State state) {
+                State copy = new State(settings);
+                state.keys.entries().forEach((key, entry) -> copy.keys.put(key, entry.orderId, entry.timestamp));
+                return copy;
+            }
+
+            @Override
+            public State fromJournal(Object from) {
+                State state = (State) from;
+                state.keys.limit(settings.getIdempotencyMaxKeys(), settings.getIdempotencyRetention());
+                return state;
+            }
+        };
+    }
+
+    public static Behavior<Command> create(PersistenceSettings settings) {
+        return Behaviors.setup(ctx -> new IdempotencyKeys(settings));
+    }
+
+    interface Command {
+    }
+
+    /**
+     * Binds the key to the order id unless it is bound to another order within the retention,
+     * answered with the order id the key is bound to once persisted.
+     */
+    @AllArgsConstructor
+    static final class Bind implements Command {
+        final String key;
+        final String orderId;
+        final ActorRef<String> replyTo;
+    }
+
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static final class KeyBound implements JsonSerializable {
+        public String key;
+        public String orderId;
+        public long timestamp;
+    }
+
+    public static final class State implements JsonSerializable {
+        private final IdempotencyIndex keys;
+
+        public State() {
+            this(PersistenceSettings.defaults());
+        }
+
+        State(PersistenceSettings settings) {
+            keys = new IdempotencyIndex(settings.getIdempotencyMaxKeys(), settings.getIdempotencyRetention());
+        }
+
+        @JsonGetter("keys")
+        Map<String, KeyItem> keysAsJson() {
+            Map<String, KeyItem> items = new LinkedHashMap<>();
+            keys.entries().forEach((key, entry) -> items.put(key, new KeyItem(entry.orderId, entry.timestamp)));
+            return items;
+        }
+
+        @JsonSetter("keys")
+        void keysFromJson(Map<String, KeyItem> items) {
+            items.forEach((key, item) -> keys.put(key, item.orderId, item.timestamp));
+        }
+
+        @AllArgsConstructor
+        @NoArgsConstructor
+        static final class KeyItem {
+            public String orderId;
+            public long timestamp;
+        }
+    }
+}
@@ -1,8 +1,36 @@
 package com.example.order.persistence;
 
-public class InvalidStateChangeException extends RuntimeException{
+/**
+ * A state change the order lifecycle does not allow. Stackless with a lazily formatted message,
+ * like {@link OrderNotFoundException}.
+ */
+public class InvalidStateChangeException extends RuntimeException {
+    private final String orderId;
+    private String message;
 
     public InvalidStateChangeException(String message) {
-        super(message);
+        this(null, message);
+    }
+
+    public InvalidStateChangeException(String orderId, String message) {
+        super(null, null, false, false);
+        this.orderId = orderId;
+        this.message = message;
+    }
+
+    public static InvalidStateChangeException forOrder(String orderId) {
+        return new InvalidStateChangeException(orderId, null);
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    @Override
+    public String getMessage() {
+        if (message == null && orderId != null) {
+            message = String.format("Invalid state change for Order with ID %s!", orderId);
+        }
+        return message;
     }
 }
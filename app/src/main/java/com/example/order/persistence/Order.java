@@ -1,16 +1,78 @@
 package com.example.order.persistence;
 
-import com.example.order.serialization.JsonSerializable;
+import com.example.order.serialization.BinarySerializable;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.*;
 
 import java.util.Map;
 
-@AllArgsConstructor
+/**
+ * Immutable snapshot of an order, shared between the state, the read side and replies. Changes
+ * create a new instance.
+ * <p>
+ * The version counts the events applied to the order, starting with 1 for its creation. The
+ * creation time is the epoch millis persisted with the creation, 0 for orders created before it
+ * was. Equality compares the content only, neither version nor creation time.
+ */
 @Data
 @Builder(toBuilder = true)
-public final class Order implements JsonSerializable {
-    public String id;
-    public Map<String, Integer> items;
-    public OrderState state;
-    public FulfillmentResult fulfillmentResult;
+public final class Order implements BinarySerializable {
+    public static final int FIRST_VERSION = 1;
+
+    public final String id;
+    public final Map<String, Integer> items;
+    public final OrderState state;
+    public final FulfillmentResult fulfillmentResult;
+    @EqualsAndHashCode.Exclude
+    public final int version;
+    @EqualsAndHashCode.Exclude
+    public final long createdAt;
+
+    public Order(String id, Map<String, Integer> items, OrderState state, FulfillmentResult fulfillmentResult) {
+        this(id, items, state, fulfillmentResult, FIRST_VERSION);
+    }
+
+    public Order(String id, Map<String, Integer> items, OrderState state, FulfillmentResult fulfillmentResult, int version) {
+        this(id, items, state, fulfillmentResult, version, 0);
+    }
+
+    @JsonCreator
+    public Order(@JsonProperty("id") String id,
+                 @JsonProperty("items") Map<String, Integer> items,
+                 @JsonProperty("state") OrderState state,
+                 @JsonProperty("fulfillmentResult") FulfillmentResult fulfillmentResult,
+                 @JsonProperty("version") int version,
+                 @JsonProperty("createdAt") long createdAt) {
+        this.id = id;
+        // no copy for maps that are immutable already, e.g. the items of the previous version;
+        // orders posted without items were accepted once and are recovered as orders of no items
+        this.items = items == null ? Map.of() : Map.copyOf(items);
+        this.state = state;
+        this.fulfillmentResult = fulfillmentResult;
+        // orders written before versions were introduced
+        this.version = Math.max(version, FIRST_VERSION);
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * @return the order created at the epoch millis, the same version
+     */
+    public Order createdAt(long createdAt) {
+        return createdAt == this.createdAt ? this : new Order(id, items, state, fulfillmentResult, version, createdAt);
+    }
+
+    /**
+     * @return the next version of the order, changed to the state
+     */
+    public Order withState(OrderState state) {
+        return new Order(id, items, state, fulfillmentResult, version + 1, createdAt);
+    }
+
+    /**
+     * @return the next version of the order, closed with the result
+     */
+    public Order closed(FulfillmentResult fulfillmentResult) {
+        return new Order(id, items, OrderState.CLOSED, fulfillmentResult, version + 1, createdAt);
+    }
 }
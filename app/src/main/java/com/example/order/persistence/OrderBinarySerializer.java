@@ -0,0 +1,370 @@
+package com.example.order.persistence;
+
+import akka.actor.ExtendedActorSystem;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import akka.actor.typed.javadsl.Adapter;
+import akka.pattern.StatusReply;
+import akka.serialization.SerializerWithStringManifest;
+import com.example.order.serialization.BinaryReader;
+import com.example.order.serialization.BinaryWriter;
+import com.example.order.serialization.Ids;
+
+import java.io.NotSerializableException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.example.order.persistence.Events.*;
+
+/**
+ * Compact binary format for events, persistence commands and {@link State} snapshots.
+ * <p>
+ * Enums are written as ordinals, canonical UUID ids as 16 bytes, counts and quantities as varints.
+ * Snapshots write every item SKU once and refer to it by index. The manifest carries the format
+ * version, so a changed layout gets a new manifest while old ones stay readable.
+ */
+public class OrderBinarySerializer extends SerializerWithStringManifest {
+
+    static final String ORDER_CREATED_V1 = "OC1";
+    static final String ORDER_CREATED = "OC2";
+    static final String ORDER_STATE_CHANGED = "OS1";
+    static final String ORDER_CLOSED = "OX1";
+    static final String STATE_V1 = "ST1";
+    static final String STATE_V2 = "ST2";
+    static final String STATE_V3 = "ST3";
+    static final String STATE = "ST4";
+    static final String ORDER_V1 = "O1";
+    static final String ORDER_V2 = "O2";
+    static final String ORDER = "O3";
+    static final String CREATE = "CC2";
+    static final String GET = "CG1";
+    static final String CHANGE_STATE_V1 = "CS1";
+    static final String CHANGE_STATE = "CS2";
+    static final String CLOSE = "CX1";
+    static final String PASSIVATE = "CP1";
+    static final String CREATE_BATCH = "CCB1";
+    static final String PAY_V1 = "CY1";
+    static final String PAY = "CY2";
+    static final String CHANGE_STATE_BATCH = "CSB2";
+    static final String WRITE_BATCH = "CWB1";
+    static final String LIST_IN_FULFILLMENT = "CLF1";
+
+    private static final OrderState[] ORDER_STATES = OrderState.values();
+    private static final FulfillmentResult[] FULFILLMENT_RESULTS = FulfillmentResult.values();
+
+    private final ExtendedActorSystem system;
+    private final PersistenceSettings settings;
+    private volatile ActorRefResolver actorRefResolver;
+
+    public OrderBinarySerializer(ExtendedActorSystem system) {
+        this.system = system;
+        // decode snapshots straight into the configured store and key limits instead of converting them on recovery
+        com.typesafe.config.Config config = system.settings().config();
+        this.settings = config.hasPath("order.persistence")
+                ? PersistenceSettings.fromConfig(config.getConfig("order.persistence"))
+                : PersistenceSettings.defaults();
+    }
+
+    @Override
+    public int identifier() {
+        return 7301;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        if (o instanceof OrderCreated) return ORDER_CREATED;
+        if (o instanceof OrderStateChanged) return ORDER_STATE_CHANGED;
+        if (o instanceof OrderClosed) return ORDER_CLOSED;
+        if (o instanceof State) return STATE;
+        if (o instanceof Order) return ORDER;
+        if (o instanceof PersistenceActor.Create) return CREATE;
+        if (o instanceof PersistenceActor.Get) return GET;
+        if (o instanceof PersistenceActor.ChangeState) return CHANGE_STATE;
+        if (o instanceof PersistenceActor.Pay) return PAY;
+        if (o instanceof PersistenceActor.Close) return CLOSE;
+        if (o instanceof PersistenceActor.Passivate) return PASSIVATE;
+        if (o instanceof PersistenceActor.CreateBatch) return CREATE_BATCH;
+        if (o instanceof PersistenceActor.ChangeStateBatch) return CHANGE_STATE_BATCH;
+        if (o instanceof PersistenceActor.WriteBatch) return WRITE_BATCH;
+        if (o instanceof PersistenceActor.ListInFulfillment) return LIST_IN_FULFILLMENT;
+        throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        BinaryWriter out = new BinaryWriter(64);
+        write(out, o);
+        return out.toByteArray();
+    }
+
+    private void write(BinaryWriter out, Object o) {
+        if (o instanceof OrderCreated) {
+            OrderCreated evt = (OrderCreated) o;
+            writeOrder(out, evt.order);
+            writeOptionalString(out, evt.idempotencyKey);
+            out.writeLong(evt.timestamp);
+        } else if (o instanceof OrderStateChanged) {
+            OrderStateChanged evt = (OrderStateChanged) o;
+            out.writeId(evt.orderId).writeEnum(evt.state);
+        } else if (o instanceof OrderClosed) {
+            OrderClosed evt = (OrderClosed) o;
+            out.writeId(evt.orderId).writeEnum(evt.fulfillmentResult);
+        } else if (o instanceof State) {
+            writeState(out, (State) o);
+        } else if (o instanceof Order) {
+            Order order = (Order) o;
+            writeOrder(out, order);
+            out.writeVarInt(order.version).writeLong(order.createdAt);
+        } else if (o instanceof PersistenceActor.Create) {
+            PersistenceActor.Create cmd = (PersistenceActor.Create) o;
+            writeOrder(out, cmd.order);
+            writeActorRef(out, cmd.replyTo);
+            writeOptionalString(out, cmd.idempotencyKey);
+        } else if (o instanceof PersistenceActor.Get) {
+            PersistenceActor.Get cmd = (PersistenceActor.Get) o;
+            out.writeId(cmd.orderId);
+            writeActorRef(out, cmd.replyTo);
+        } else if (o instanceof PersistenceActor.ChangeState) {
+            PersistenceActor.ChangeState cmd = (PersistenceActor.ChangeState) o;
+            out.writeId(cmd.orderId).writeEnum(cmd.state).writeVarInt(cmd.expectedVersion);
+            writeActorRef(out, cmd.replyTo);
+        } else if (o instanceof PersistenceActor.Pay) {
+            PersistenceActor.Pay cmd = (PersistenceActor.Pay) o;
+            out.writeId(cmd.orderId).writeVarInt(cmd.expectedVersion);
+            writeActorRef(out, cmd.replyTo);
+            writeActorRef(out, cmd.fulfillment);
+        } else if (o instanceof PersistenceActor.Close) {
+            PersistenceActor.Close cmd = (PersistenceActor.Close) o;
+            out.writeId(cmd.orderId).writeEnum(cmd.fulfillmentResult);
+            writeActorRef(out, cmd.replyTo);
+        } else if (o instanceof PersistenceActor.CreateBatch) {
+            PersistenceActor.CreateBatch cmd = (PersistenceActor.CreateBatch) o;
+            out.writeVarInt(cmd.orders.size());
+            cmd.orders.forEach(order -> writeOrder(out, order));
+            writeActorRef(out, cmd.replyTo);
+        } else if (o instanceof PersistenceActor.ChangeStateBatch) {
+            PersistenceActor.ChangeStateBatch cmd = (PersistenceActor.ChangeStateBatch) o;
+            out.writeVarInt(cmd.changes.size());
+            cmd.changes.forEach(change -> out.writeId(change.orderId).writeEnum(change.state));
+            writeActorRef(out, cmd.replyTo);
+            out.writeByte(cmd.fulfillment != null ? 1 : 0);
+            if (cmd.fulfillment != null) {
+                writeActorRef(out, cmd.fulfillment);
+            }
+        } else if (o instanceof PersistenceActor.WriteBatch) {
+            PersistenceActor.WriteBatch cmd = (PersistenceActor.WriteBatch) o;
+            out.writeVarInt(cmd.commands.size());
+            for (PersistenceActor.EntityCommand command : cmd.commands) {
+                out.writeString(manifest(command));
+                write(out, command);
+            }
+            writeActorRef(out, cmd.ack);
+        } else if (o instanceof PersistenceActor.ListInFulfillment) {
+            writeActorRef(out, ((PersistenceActor.ListInFulfillment) o).replyTo);
+        } else if (!(o instanceof PersistenceActor.Passivate)) {
+            throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+        }
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+        return read(new BinaryReader(bytes), manifest);
+    }
+
+    private Object read(BinaryReader in, String manifest) throws NotSerializableException {
+        switch (manifest) {
+            case ORDER_CREATED_V1:
+                return new OrderCreated(readOrder(in));
+            case ORDER_CREATED:
+                return new OrderCreated(readOrder(in), readOptionalString(in), in.readLong());
+            case ORDER_STATE_CHANGED:
+                return new OrderStateChanged(in.readId(), in.readEnum(ORDER_STATES));
+            case ORDER_CLOSED:
+                return new OrderClosed(in.readId(), in.readEnum(FULFILLMENT_RESULTS));
+            case STATE_V1:
+                return readState(in, false, false, false);
+            case STATE_V2:
+                return readState(in, true, false, false);
+            case STATE_V3:
+                return readState(in, true, true, false);
+            case STATE:
+                return readState(in, true, true, true);
+            case ORDER_V1:
+                return readOrder(in);
+            case ORDER_V2: {
+                Order order = readOrder(in);
+                return new Order(order.id, order.items, order.state, order.fulfillmentResult, in.readVarInt());
+            }
+            case ORDER: {
+                Order order = readOrder(in);
+                return new Order(order.id, order.items, order.state, order.fulfillmentResult, in.readVarInt(), in.readLong());
+            }
+            case CREATE:
+                return new PersistenceActor.Create(readOrder(in), readActorRef(in), readOptionalString(in));
+            case GET:
+                return new PersistenceActor.Get(in.readId(), readActorRef(in));
+            case CHANGE_STATE_V1:
+                return new PersistenceActor.ChangeState(in.readId(), in.readEnum(ORDER_STATES), readActorRef(in));
+            case CHANGE_STATE: {
+                String orderId = in.readId();
+                OrderState state = in.readEnum(ORDER_STATES);
+                int expectedVersion = in.readVarInt();
+                return new PersistenceActor.ChangeState(orderId, state, readActorRef(in), expectedVersion);
+            }
+            case PAY_V1:
+                return new PersistenceActor.Pay(in.readId(), readActorRef(in), readActorRef(in));
+            case PAY: {
+                String orderId = in.readId();
+                int expectedVersion = in.readVarInt();
+                return new PersistenceActor.Pay(orderId, readActorRef(in), readActorRef(in), expectedVersion);
+            }
+            case CLOSE:
+                return new PersistenceActor.Close(in.readId(), in.readEnum(FULFILLMENT_RESULTS), readActorRef(in));
+            case PASSIVATE:
+                return PersistenceActor.Passivate.INSTANCE;
+            case CREATE_BATCH: {
+                List<Order> orders = new ArrayList<>();
+                for (int i = in.readVarInt(); i > 0; i--) {
+                    orders.add(readOrder(in));
+                }
+                return new PersistenceActor.CreateBatch(orders, readActorRef(in));
+            }
+            case CHANGE_STATE_BATCH: {
+                List<PersistenceActor.StateChange> changes = new ArrayList<>();
+                for (int i = in.readVarInt(); i > 0; i--) {
+                    changes.add(new PersistenceActor.StateChange(in.readId(), in.readEnum(ORDER_STATES)));
+                }
+                ActorRef<List<StatusReply<Order>>> replyTo = readActorRef(in);
+                return new PersistenceActor.ChangeStateBatch(changes, replyTo, in.readByte() == 1 ? readActorRef(in) : null);
+            }
+            case WRITE_BATCH: {
+                List<PersistenceActor.EntityCommand> commands = new ArrayList<>();
+                for (int i = in.readVarInt(); i > 0; i--) {
+                    commands.add((PersistenceActor.EntityCommand) read(in, in.readString()));
+                }
+                return new PersistenceActor.WriteBatch(commands, readActorRef(in));
+            }
+            case LIST_IN_FULFILLMENT:
+                return new PersistenceActor.ListInFulfillment(readActorRef(in));
+            default:
+                throw new NotSerializableException("Unknown manifest " + manifest);
+        }
+    }
+
+    static void writeOrder(BinaryWriter out, Order order) {
+        out.writeId(order.id).writeEnum(order.state).writeEnum(order.fulfillmentResult);
+        if (order.items == null) {
+            out.writeVarInt(0);
+            return;
+        }
+        out.writeVarInt(order.items.size() + 1);
+        order.items.forEach((sku, quantity) -> out.writeString(sku).writeSignedVarInt(quantity));
+    }
+
+    static Order readOrder(BinaryReader in) {
+        String id = in.readId();
+        OrderState state = in.readEnum(ORDER_STATES);
+        FulfillmentResult result = in.readEnum(FULFILLMENT_RESULTS);
+        int itemCount = in.readVarInt() - 1;
+        Map<String, Integer> items = null;
+        if (itemCount >= 0) {
+            items = new LinkedHashMap<>(itemCount * 2);
+            for (int i = 0; i < itemCount; i++) {
+                items.put(Ids.internSku(in.readString()), in.readSignedVarInt());
+            }
+        }
+        return new Order(id, items, state, result);
+    }
+
+    private static void writeState(BinaryWriter out, State state) {
+        List<Order> orders = new ArrayList<>(state.size());
+        Map<String, Integer> skuIndex = new HashMap<>();
+        List<String> skus = new ArrayList<>();
+        state.forEachOrder(order -> {
+            orders.add(order);
+            if (order.items != null) {
+                order.items.keySet().forEach(sku -> skuIndex.computeIfAbsent(sku, k -> {
+                    skus.add(k);
+                    return skus.size() - 1;
+                }));
+            }
+        });
+
+        out.writeVarInt(skus.size());
+        skus.forEach(out::writeString);
+        out.writeVarInt(orders.size());
+        for (Order order : orders) {
+            out.writeId(order.id).writeEnum(order.state).writeEnum(order.fulfillmentResult).writeVarInt(order.version)
+                    .writeLong(order.createdAt);
+            if (order.items == null) {
+                out.writeVarInt(0);
+                continue;
+            }
+            out.writeVarInt(order.items.size() + 1);
+            order.items.forEach((sku, quantity) -> out.writeVarInt(skuIndex.get(sku)).writeSignedVarInt(quantity));
+        }
+        out.writeVarInt(state.idempotencyKeys().size());
+        state.idempotencyKeys().entries().forEach((key, entry) ->
+                out.writeString(key).writeId(entry.orderId).writeLong(entry.timestamp));
+    }
+
+    private State readState(BinaryReader in, boolean withIdempotencyKeys, boolean withVersions, boolean withCreationTimes) {
+        String[] skus = new String[in.readVarInt()];
+        for (int i = 0; i < skus.length; i++) {
+            skus[i] = Ids.internSku(in.readString());
+        }
+        State state = new State(settings.getStoreType(), settings);
+        int orderCount = in.readVarInt();
+        for (int i = 0; i < orderCount; i++) {
+            String id = in.readId();
+            OrderState orderState = in.readEnum(ORDER_STATES);
+            FulfillmentResult result = in.readEnum(FULFILLMENT_RESULTS);
+            int version = withVersions ? in.readVarInt() : Order.FIRST_VERSION;
+            long createdAt = withCreationTimes ? in.readLong() : 0;
+            int itemCount = in.readVarInt() - 1;
+            Map<String, Integer> items = null;
+            if (itemCount >= 0) {
+                items = new LinkedHashMap<>(itemCount * 2);
+                for (int j = 0; j < itemCount; j++) {
+                    items.put(skus[in.readVarInt()], in.readSignedVarInt());
+                }
+            }
+            state.addOrder(new Order(id, items, orderState, result, version, createdAt));
+        }
+        if (withIdempotencyKeys) {
+            for (int i = in.readVarInt(); i > 0; i--) {
+                state.rememberIdempotencyKey(in.readString(), in.readId(), in.readLong());
+            }
+        }
+        return state;
+    }
+
+    private static void writeOptionalString(BinaryWriter out, String value) {
+        out.writeByte(value != null ? 1 : 0);
+        if (value != null) {
+            out.writeString(value);
+        }
+    }
+
+    private static String readOptionalString(BinaryReader in) {
+        return in.readByte() == 1 ? in.readString() : null;
+    }
+
+    private void writeActorRef(BinaryWriter out, ActorRef<?> ref) {
+        out.writeString(resolver().toSerializationFormat(ref));
+    }
+
+    private <T> ActorRef<T> readActorRef(BinaryReader in) {
+        return resolver().resolveActorRef(in.readString());
+    }
+
+    private ActorRefResolver resolver() {
+        if (actorRefResolver == null) {
+            actorRefResolver = ActorRefResolver.get(Adapter.toTyped(system));
+        }
+        return actorRefResolver;
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.order.persistence;
+
+import akka.Done;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.SupervisorStrategy;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.javadsl.CommandHandler;
+import akka.persistence.typed.javadsl.EventHandler;
+import akka.persistence.typed.javadsl.EventSourcedBehavior;
+import akka.persistence.typed.javadsl.RetentionCriteria;
+import akka.persistence.typed.javadsl.SnapshotAdapter;
+import com.example.order.serialization.JsonSerializable;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Durable set of the ids of all orders in "per-order" mode, where every order lives in an entity
+ * of its own and the read side only sees the entities started since the last restart. The
+ * {@link PersistenceRouter} adds the ids of creates before passing them on and starts the entity
+ * of every listed order after a restart, so the read side is loaded completely. An id may stay
+ * listed after its create failed, its entity then answers with {@link OrderNotFoundException}.
+ */
+class OrderIdIndex extends EventSourcedBehavior<OrderIdIndex.Command, OrderIdIndex.OrdersAdded, OrderIdIndex.State> {
+
+    private static final int SNAPSHOT_EVERY = 1000;
+
+    private OrderIdIndex() {
+        super(PersistenceId.ofUniqueId("OrderIds"),
+                SupervisorStrategy.restartWithBackoff(Duration.ofSeconds(1), Duration.ofSeconds(30), 0.2));
+    }
+
+    @Override
+    public State emptyState() {
+        return new State(new HashSet<>());
+    }
+
+    @Override
+    public CommandHandler<Command, OrdersAdded, State> commandHandler() {
+        return newCommandHandlerBuilder()
+                .forAnyState()
+                .onCommand(Add.class, (state, cmd) -> {
+                    List<String> added = cmd.orderIds.stream()
+                            .filter(orderId -> !state.orderIds.contains(orderId))
+                            .distinct()
+                            .collect(Collectors.toList());
+                    return added.isEmpty()
+                            ? Effect().none().thenReply(cmd.replyTo, s -> Done.getInstance())
+                            : Effect().persist(new OrdersAdded(added)).thenReply(cmd.replyTo, s -> Done.getInstance());
+                })
+                .onCommand(ListOrders.class, (state, cmd) -> Effect().reply(cmd.replyTo,
+                        new OrderIds(new ArrayList<>(state.orderIds))))
+                .build();
+    }
+
+    @Override
+    public EventHandler<State, OrdersAdded> eventHandler() {
+        return newEventHandlerBuilder()
+                .forAnyState()
+                .onEvent(OrdersAdded.class, (state, evt) -> {
+                    state.orderIds.addAll(evt.orderIds);
+                    return state;
+                })
+                .build();
+    }
+
+    @Override
+    public RetentionCriteria retentionCriteria() {
+        return RetentionCriteria.snapshotEvery(SNAPSHOT_EVERY, 2).withDeleteEventsOnSnapshot();
+    }
+
+    /**
+     * The state is changed in place, a snapshot gets a copy of it.
+     */
+    @Override
+    public SnapshotAdapter<State> snapshotAdapter() {
+        return new SnapshotAdapter<>() {
+            @Override
+            public Object toJournal(State state) {
+                return new State(new HashSet<>(state.orderIds));
+            }
+
+            @Override
+            public State fromJournal(Object from) {
+                return (State) from;
+            }
+        };
+    }
+
+    public static Behavior<Command> create() {
+        return Behaviors.setup(ctx -> new OrderIdIndex());
+    }
+
+    interface Command {
+    }
+
+    /**
+     * Adds the orders, acknowledged once persisted.
+     */
+    @AllArgsConstructor
+    static final class Add implements Command {
+        final List<String> orderIds;
+        final ActorRef<Done> replyTo;
+    }
+
+    @AllArgsConstructor
+    static final class ListOrders implements Command {
+        final ActorRef<OrderIds> replyTo;
+    }
+
+    @AllArgsConstructor
+    static final class OrderIds {
+        final List<String> orderIds;
+    }
+
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static final class OrdersAdded implements JsonSerializable {
+        public List<String> orderIds;
+    }
+
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static final class State implements JsonSerializable {
+        public Set<String> orderIds;
+    }
+}
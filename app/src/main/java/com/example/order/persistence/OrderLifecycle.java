@@ -0,0 +1,169 @@
+package com.example.order.persistence;
+
+import com.typesafe.config.Config;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * State changes orders may go through, compiled into a transition matrix with one bit per pair of
+ * states, so validating a change neither allocates nor searches.
+ * <p>
+ * Transitions into internal states are made by the service only, e.g. closing an order needs the
+ * fulfillment result, and can't be requested by clients changing the state. A transition can have
+ * a guard deciding on the order itself, and a state can have side effects run once an order
+ * entering it is persisted.
+ */
+public final class OrderLifecycle {
+
+    private static final OrderState[] STATES = OrderState.values();
+
+    private final long[] transitions;
+    private final long[] clientTransitions;
+    private final Predicate<Order>[][] guards;
+    private final Consumer<Order>[] effects;
+
+    @SuppressWarnings("unchecked")
+    private OrderLifecycle(Builder builder) {
+        transitions = builder.transitions.clone();
+        clientTransitions = new long[STATES.length];
+        for (int from = 0; from < STATES.length; from++) {
+            clientTransitions[from] = transitions[from] & ~builder.internalStates;
+        }
+        guards = new Predicate[STATES.length][];
+        for (int from = 0; from < STATES.length; from++) {
+            guards[from] = builder.guards[from].clone();
+        }
+        effects = builder.effects.clone();
+    }
+
+    /**
+     * CREATED to PAID or CANCELLED, PAID to IN_FULFILLMENT and IN_FULFILLMENT to CLOSED.
+     */
+    public static OrderLifecycle defaults() {
+        return withDefaultGuards(builder()
+                .transition(OrderState.CREATED, OrderState.PAID, OrderState.CANCELLED)
+                .transition(OrderState.PAID, OrderState.IN_FULFILLMENT)
+                .transition(OrderState.IN_FULFILLMENT, OrderState.CLOSED)
+                .internal(OrderState.CLOSED))
+                .build();
+    }
+
+    public static OrderLifecycle fromConfig(Config config) {
+        Builder builder = builder();
+        Config transitions = config.getConfig("transitions");
+        for (String from : transitions.root().keySet()) {
+            transitions.getEnumList(OrderState.class, from)
+                    .forEach(to -> builder.transition(OrderState.valueOf(from), to));
+        }
+        config.getEnumList(OrderState.class, "internal-states").forEach(builder::internal);
+        return withDefaultGuards(builder).build();
+    }
+
+    /**
+     * Refunds only apply to fulfilled orders, in case refunding is configured.
+     */
+    private static Builder withDefaultGuards(Builder builder) {
+        return builder.guard(OrderState.CLOSED, OrderState.REFUNDED, order -> order.fulfillmentResult == FulfillmentResult.SUCCESS);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return whether the lifecycle has a transition between the states, guards not considered
+     */
+    public boolean isAllowed(OrderState from, OrderState to) {
+        return (transitions[from.ordinal()] & bit(to)) != 0;
+    }
+
+    /**
+     * @return whether the service may change the order to the state
+     */
+    public boolean canChange(Order order, OrderState to) {
+        return (transitions[order.state.ordinal()] & bit(to)) != 0 && guardAllows(order, to);
+    }
+
+    /**
+     * @return whether a client may change the order to the state, which excludes internal states
+     */
+    public boolean canRequest(Order order, OrderState to) {
+        return (clientTransitions[order.state.ordinal()] & bit(to)) != 0 && guardAllows(order, to);
+    }
+
+    /**
+     * @return whether entering the state has side effects, so callers only look up the order if needed
+     */
+    public boolean hasEffects(OrderState state) {
+        return effects[state.ordinal()] != null;
+    }
+
+    /**
+     * Runs the side effects of the state the order entered.
+     */
+    public void entered(Order order) {
+        Consumer<Order> effect = effects[order.state.ordinal()];
+        if (effect != null) {
+            effect.accept(order);
+        }
+    }
+
+    private boolean guardAllows(Order order, OrderState to) {
+        Predicate<Order> guard = guards[order.state.ordinal()][to.ordinal()];
+        return guard == null || guard.test(order);
+    }
+
+    private static long bit(OrderState state) {
+        return 1L << state.ordinal();
+    }
+
+    public static final class Builder {
+        private final long[] transitions = new long[STATES.length];
+        private long internalStates;
+        @SuppressWarnings("unchecked")
+        private final Predicate<Order>[][] guards = new Predicate[STATES.length][STATES.length];
+        @SuppressWarnings("unchecked")
+        private final Consumer<Order>[] effects = new Consumer[STATES.length];
+
+        private Builder() {
+        }
+
+        public Builder transition(OrderState from, OrderState... to) {
+            Arrays.stream(to).forEach(state -> transitions[from.ordinal()] |= bit(state));
+            return this;
+        }
+
+        /**
+         * Marks the state as entered by the service only.
+         */
+        public Builder internal(OrderState state) {
+            internalStates |= bit(state);
+            return this;
+        }
+
+        /**
+         * Allows the transition only for orders matching the guard, combined with earlier guards.
+         */
+        public Builder guard(OrderState from, OrderState to, Predicate<Order> guard) {
+            Predicate<Order> current = guards[from.ordinal()][to.ordinal()];
+            guards[from.ordinal()][to.ordinal()] = current == null ? guard : current.and(guard);
+            return this;
+        }
+
+        /**
+         * Runs the effect on the persistence actor whenever an order entering the state is persisted.
+         * Effects must not block, they run before the client is answered.
+         */
+        public Builder onEnter(OrderState state, Consumer<Order> effect) {
+            Consumer<Order> current = effects[state.ordinal()];
+            effects[state.ordinal()] = current == null ? effect : current.andThen(effect);
+            return this;
+        }
+
+        public OrderLifecycle build() {
+            return new OrderLifecycle(this);
+        }
+    }
+}
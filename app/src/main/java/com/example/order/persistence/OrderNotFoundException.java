@@ -1,7 +1,36 @@
 package com.example.order.persistence;
 
-public class OrderNotFoundException extends RuntimeException{
+/**
+ * Expected outcome of a command rather than a bug, so it carries no stack trace and formats its
+ * message only when it is read.
+ */
+public class OrderNotFoundException extends RuntimeException {
+    private final String orderId;
+    private String message;
+
     public OrderNotFoundException(String message) {
-        super(message);
+        this(null, message);
+    }
+
+    public OrderNotFoundException(String orderId, String message) {
+        super(null, null, false, false);
+        this.orderId = orderId;
+        this.message = message;
+    }
+
+    public static OrderNotFoundException forOrder(String orderId) {
+        return new OrderNotFoundException(orderId, null);
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    @Override
+    public String getMessage() {
+        if (message == null && orderId != null) {
+            message = String.format("Order with ID %s not found!", orderId);
+        }
+        return message;
     }
 }
@@ -1,5 +1,6 @@
 package com.example.order.persistence;
 
 public enum OrderState {
-    CREATED, PAID, IN_FULFILLMENT, CLOSED
+    // stored by ordinal, new states go last
+    CREATED, PAID, IN_FULFILLMENT, CLOSED, CANCELLED, REFUNDED
 }
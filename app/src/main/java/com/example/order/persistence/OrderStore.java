@@ -0,0 +1,35 @@
+package com.example.order.persistence;
+
+import java.util.function.Consumer;
+
+/**
+ * Storage of the orders held in {@link State}. Implementations are only accessed from the
+ * persistence actor and need not be thread safe.
+ */
+interface OrderStore {
+
+    OrderStoreType type();
+
+    /**
+     * Adds the order or replaces an order with the same id.
+     */
+    void put(Order order);
+
+    /**
+     * @return the order or null if there is no order with this id
+     */
+    Order get(String orderId);
+
+    void changeState(String orderId, OrderState state);
+
+    void close(String orderId, FulfillmentResult fulfillmentResult);
+
+    /**
+     * @return the removed order or null if there is no order with this id
+     */
+    Order remove(String orderId);
+
+    int size();
+
+    void forEach(Consumer<Order> action);
+}
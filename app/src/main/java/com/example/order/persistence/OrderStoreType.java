@@ -0,0 +1,12 @@
+package com.example.order.persistence;
+
+public enum OrderStoreType {
+    /** One map entry and item map per order, cheap to mutate. */
+    HASH_MAP,
+    /** Orders packed into primitive arrays, a fraction of the heap for millions of orders. */
+    COMPACT;
+
+    OrderStore create() {
+        return this == COMPACT ? new CompactOrderStore() : new HashMapOrderStore();
+    }
+}
@@ -1,48 +1,218 @@
 package com.example.order.persistence;
 
+import akka.Done;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
 import akka.pattern.StatusReply;
 import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.RecoveryCompleted;
+import akka.persistence.typed.SnapshotCompleted;
+import akka.persistence.typed.SnapshotFailed;
 import akka.persistence.typed.javadsl.CommandHandlerWithReply;
+import akka.persistence.typed.javadsl.EffectBuilder;
 import akka.persistence.typed.javadsl.EventHandler;
 import akka.persistence.typed.javadsl.EventSourcedBehaviorWithEnforcedReplies;
 import akka.persistence.typed.javadsl.ReplyEffect;
-import com.example.order.serialization.JsonSerializable;
+import akka.persistence.typed.javadsl.RetentionCriteria;
+import akka.persistence.typed.javadsl.SignalHandler;
+import akka.persistence.typed.javadsl.SnapshotAdapter;
+import com.example.order.metrics.MailboxFullException;
+import com.example.order.metrics.OrderMetrics;
+import com.example.order.metrics.Sheddable;
+import com.example.order.metrics.Summary;
+import com.example.order.query.OrderReadModel;
+import com.example.order.serialization.BinarySerializable;
 import lombok.AllArgsConstructor;
-import lombok.Value;
 
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.function.Supplier;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static com.example.order.persistence.Events.*;
 
 public class PersistenceActor extends EventSourcedBehaviorWithEnforcedReplies<PersistenceActor.PersistenceCommand, Event, State> {
 
-    private static final List<StateTransfer> VALID_STATE_TRANSFERS = List.of(
-            new StateTransfer(OrderState.CREATED, OrderState.PAID),
-            new StateTransfer(OrderState.PAID, OrderState.IN_FULFILLMENT)
-    );
+    /** Expected version of unconditional changes. */
+    public static final int ANY_VERSION = 0;
+    private static final int MAX_SNAPSHOT_BACKOFF = 16;
 
-    public PersistenceActor() {
-        super(PersistenceId.ofUniqueId("Orders"));
+    private final ActorContext<PersistenceCommand> ctx;
+    private final PersistenceSettings settings;
+    private final OrderLifecycle lifecycle;
+    private final ClosedOrderStore closedOrders;
+    private final OrderReadModel readModel;
+    private final Summary persistLatency;
+    private final Summary persistedEvents;
+    private final long recoveryStart = System.nanoTime();
+    private long replayedEvents;
+    private boolean recovering = true;
+    /** Earliest time of the next time based snapshot, pushed out further after failed snapshots. */
+    private long nextSnapshot;
+    private long snapshotBackoff;
+
+    public PersistenceActor(PersistenceId persistenceId, PersistenceSettings settings, ActorContext<PersistenceCommand> ctx) {
+        super(persistenceId);
+        this.ctx = ctx;
+        this.settings = settings;
+        this.lifecycle = settings.getLifecycle();
+        this.snapshotBackoff = settings.getSnapshotInterval().toNanos();
+        this.nextSnapshot = System.nanoTime() + snapshotBackoff;
+        this.closedOrders = ClosedOrderStore.get(ctx.getSystem());
+        this.readModel = OrderReadModel.get(ctx.getSystem());
+        OrderMetrics metrics = OrderMetrics.get(ctx.getSystem());
+        this.persistLatency = metrics.timer("order_persist_duration_seconds",
+                "Time from handling a command until its events are persisted.");
+        this.persistedEvents = metrics.summary("order_persist_batch_events", "Events persisted per journal write.");
     }
 
     @Override
     public State emptyState() {
-        return new State();
+        return new State(settings.getStoreType(), settings);
+    }
+
+    @Override
+    public SnapshotAdapter<State> snapshotAdapter() {
+        return new SnapshotAdapter<>() {
+            @Override
+            public Object toJournal(State state) {
+                return state;
+            }
+
+            @Override
+            public State fromJournal(Object from) {
+                return ((State) from).withStoreType(settings.getStoreType()).withIdempotencyLimits(settings);
+            }
+        };
     }
 
     @Override
     public EventHandler<State, Event> eventHandler() {
         return newEventHandlerBuilder()
                 .forAnyState()
-                .onEvent(OrderCreated.class, (state, evt) -> state.addOrder(evt.order))
-                .onEvent(OrderStateChanged.class, (state, evt) -> state.changeState(evt.orderId, evt.state))
-                .onEvent(OrderClosed.class, (state, evt) -> state.closeOrder(evt.orderId, evt.fulfillmentResult))
+                .onEvent(OrderCreated.class, (state, evt) -> applied(created(state, evt)))
+                .onEvent(OrderStateChanged.class, (state, evt) -> applied(state.changeState(evt.orderId, evt.state)))
+                .onEvent(OrderClosed.class, (state, evt) -> applied(state.closeOrder(evt.orderId, evt.fulfillmentResult)))
+                .build();
+    }
+
+    private State applied(State state) {
+        if (recovering) replayedEvents++;
+        return state;
+    }
+
+    /**
+     * Publishes the orders changed by persisted events to the read side, each once with its latest
+     * version. Nothing is published while recovering, the read side is loaded in one go once
+     * recovery completed, so events are never visible before they are persisted.
+     */
+    private void publish(State state, List<Event> events) {
+        Set<String> orderIds = new LinkedHashSet<>();
+        events.forEach(event -> orderIds.add(event.orderId()));
+        for (String orderId : orderIds) {
+            Order order = state.getOrder(orderId);
+            if (order != null) {
+                readModel.orderChanged(order);
+            } else {
+                readModel.orderRemoved(orderId);
+            }
+        }
+    }
+
+    private static State created(State state, OrderCreated evt) {
+        state.addOrder(evt.order.createdAt(evt.timestamp));
+        return evt.idempotencyKey == null ? state : state.rememberIdempotencyKey(evt.idempotencyKey, evt.order.id, evt.timestamp);
+    }
+
+    /**
+     * Moves closed orders from the state to the closed order store once their close is persisted.
+     * The store is synced before the orders leave the state, so neither a failed persist nor a
+     * snapshot deleting the journal events can lose a closed order. Orders that failed to be
+     * stored stay in the state and are evicted again after the next recovery.
+     */
+    private void evict(State state, List<String> closedOrderIds) {
+        if (!closedOrders.isEnabled() || closedOrderIds.isEmpty()) return;
+        List<Order> closed = new ArrayList<>(closedOrderIds.size());
+        for (String orderId : closedOrderIds) {
+            Order order = state.getOrder(orderId);
+            if (order != null && order.state == OrderState.CLOSED) closed.add(order);
+        }
+        try {
+            closed.forEach(closedOrders::put);
+            closedOrders.sync();
+        } catch (UncheckedIOException e) {
+            ctx.getLog().warn("Failed to store {} closed orders, keeping them in memory", closed.size(), e);
+            return;
+        }
+        for (Order order : closed) {
+            state.removeOrder(order.id);
+            if (!recovering) readModel.orderRemoved(order.id);
+        }
+    }
+
+    @Override
+    public RetentionCriteria retentionCriteria() {
+        if (settings.getSnapshotEvery() <= 0) return RetentionCriteria.disabled();
+        var criteria = RetentionCriteria.snapshotEvery(settings.getSnapshotEvery(), settings.getKeepSnapshots());
+        return settings.isDeleteEventsOnSnapshot() ? criteria.withDeleteEventsOnSnapshot() : criteria;
+    }
+
+    /**
+     * Snapshots once per interval. The next one is due an interval after this one was started
+     * rather than completed, so the events persisted while it is stored don't start more.
+     */
+    @Override
+    public boolean shouldSnapshot(State state, Event event, long sequenceNr) {
+        if (settings.getSnapshotInterval().isZero()) return false;
+        long now = System.nanoTime();
+        if (now - nextSnapshot < 0) return false;
+        nextSnapshot = now + settings.getSnapshotInterval().toNanos();
+        return true;
+    }
+
+    @Override
+    public SignalHandler<State> signalHandler() {
+        return newSignalHandlerBuilder()
+                .onSignal(RecoveryCompleted.instance(), this::onRecoveryCompleted)
+                .onSignal(SnapshotCompleted.class, (state, signal) -> {
+                    snapshotBackoff = settings.getSnapshotInterval().toNanos();
+                    ctx.getLog().debug("Snapshot saved at sequence number {}", signal.metadata().sequenceNr());
+                })
+                .onSignal(SnapshotFailed.class, (state, signal) -> {
+                    // retried after a backoff doubling up to MAX_SNAPSHOT_BACKOFF intervals
+                    nextSnapshot = System.nanoTime() + snapshotBackoff;
+                    snapshotBackoff = Math.min(snapshotBackoff * 2, settings.getSnapshotInterval().toNanos() * MAX_SNAPSHOT_BACKOFF);
+                    ctx.getLog().warn("Snapshot failed, next time based snapshot in {} s",
+                            Duration.ofNanos(nextSnapshot - System.nanoTime()).toSeconds(), signal.getFailure());
+                })
                 .build();
     }
 
+    private void onRecoveryCompleted(State state) {
+        List<String> closedOrderIds = new ArrayList<>();
+        state.forEachOrder(order -> {
+            if (order.state == OrderState.CLOSED) closedOrderIds.add(order.id);
+        });
+        evict(state, closedOrderIds);
+        recovering = false;
+        state.forEachOrder(readModel::orderChanged);
+        readModel.loaded(persistenceId().id());
+        OrderMetrics.get(ctx.getSystem())
+                .timer("order_recovery_duration_seconds", "Time to recover the persistence actors from snapshot and journal.")
+                .recordNanos(System.nanoTime() - recoveryStart);
+        ctx.getLog().info("Recovered {} orders from {} replayed events in {} ms",
+                state.size(), replayedEvents,
+                Duration.ofNanos(System.nanoTime() - recoveryStart).toMillis());
+    }
+
     @Override
     public CommandHandlerWithReply<PersistenceCommand, Event, State> commandHandler() {
         return newCommandHandlerWithReplyBuilder()
@@ -50,100 +220,567 @@ public class PersistenceActor extends EventSourcedBehaviorWithEnforcedReplies<Pe
                 .onCommand(Create.class, this::onCreate)
                 .onCommand(Get.class, this::onGet)
                 .onCommand(ChangeState.class, this::onChangeState)
+                .onCommand(Pay.class, this::onPay)
                 .onCommand(Close.class, this::onClose)
+                .onCommand(CreateBatch.class, this::onCreateBatch)
+                .onCommand(ChangeStateBatch.class, this::onChangeStateBatch)
+                .onCommand(WriteBatch.class, this::onWriteBatch)
+                .onCommand(ListInFulfillment.class, this::onListInFulfillment)
+                .onCommand(Passivate.class, (state, cmd) -> Effect().stop().thenNoReply())
                 .build();
     }
 
     private ReplyEffect<Event, State> onCreate(State state, Create cmd) {
-        return Effect()
-                .persist(new OrderCreated(cmd.order))
+        long now = System.currentTimeMillis();
+        Order original = cmd.idempotencyKey != null ? createdBefore(state, cmd.idempotencyKey, now) : null;
+        if (original != null) {
+            return Effect().reply(cmd.replyTo, repeated(original, cmd));
+        }
+        return persist(new OrderCreated(cmd.order, cmd.idempotencyKey, now))
                 .thenReply(cmd.replyTo, orders -> StatusReply.success(orders.getOrder(cmd.order.id)));
     }
 
+    /**
+     * Looks up the order a create with an idempotency key was already applied as while the key is
+     * retained. Once the key is forgotten, it creates a new order.
+     */
+    private Order createdBefore(State state, String idempotencyKey, long now) {
+        String orderId = state.orderIdForIdempotencyKey(idempotencyKey, now);
+        if (orderId == null) return null;
+        Order order = state.getOrder(orderId);
+        return order != null ? order : closedOrders.get(orderId);
+    }
+
+    /**
+     * A repeated create is answered with the order created first, unless its items differ and the
+     * client reused the key for another order.
+     */
+    private static StatusReply<Order> repeated(Order original, Create cmd) {
+        return original.items.equals(cmd.order.items)
+                ? StatusReply.success(original)
+                : StatusReply.error(new IdempotencyKeyReusedException(original.id));
+    }
+
+    private ReplyEffect<Event, State> onCreateBatch(State state, CreateBatch cmd) {
+        if (cmd.orders.isEmpty()) {
+            return Effect().reply(cmd.replyTo, List.of());
+        }
+        long now = System.currentTimeMillis();
+        List<Event> events = new ArrayList<>(cmd.orders.size());
+        cmd.orders.forEach(order -> events.add(new OrderCreated(order, null, now)));
+        return persist(events)
+                .thenReply(cmd.replyTo, orders -> cmd.orders.stream()
+                        .map(order -> StatusReply.success(orders.getOrder(order.id)))
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * Validates every change against the state including the earlier changes of the batch and
+     * persists all valid ones together. With a fulfillment listener, paid orders move on to
+     * IN_FULFILLMENT within the same write, see {@link Pay}.
+     */
+    private ReplyEffect<Event, State> onChangeStateBatch(State state, ChangeStateBatch cmd) {
+        Map<String, Order> pendingOrders = new HashMap<>();
+        List<Event> events = new ArrayList<>(cmd.changes.size());
+        List<StatusReply<Order>> replies = new ArrayList<>(cmd.changes.size());
+        List<Order> fulfillments = new ArrayList<>();
+        for (StateChange change : cmd.changes) {
+            Order current = pendingOrders.containsKey(change.orderId)
+                    ? pendingOrders.get(change.orderId)
+                    : state.getOrder(change.orderId);
+            if (current == null) {
+                replies.add(StatusReply.error(closedOrNotFound(change.orderId)));
+                continue;
+            }
+            boolean pays = cmd.fulfillment != null && change.state == OrderState.PAID;
+            if (pays ? !canPay(current) : !lifecycle.canRequest(current, change.state)) {
+                replies.add(StatusReply.error(invalidStateChange(change.orderId)));
+                continue;
+            }
+            Order updated = current.withState(change.state);
+            events.add(new OrderStateChanged(change.orderId, change.state));
+            replies.add(StatusReply.success(updated));
+            if (pays) {
+                updated = updated.withState(OrderState.IN_FULFILLMENT);
+                events.add(new OrderStateChanged(change.orderId, OrderState.IN_FULFILLMENT));
+                fulfillments.add(updated);
+            }
+            pendingOrders.put(change.orderId, updated);
+        }
+        if (events.isEmpty()) {
+            return Effect().reply(cmd.replyTo, replies);
+        }
+        return persist(events)
+                .thenRun(updatedOrders -> fulfillments.forEach(order -> cmd.fulfillment.tell(order)))
+                .thenReply(cmd.replyTo, updatedOrders -> replies);
+    }
+
+    /**
+     * Validates every write against the state including the earlier writes of the batch, persists
+     * all valid ones together and answers each client once the whole batch is persisted.
+     */
+    private ReplyEffect<Event, State> onWriteBatch(State state, WriteBatch cmd) {
+        Map<String, Order> pendingOrders = new HashMap<>();
+        Map<String, Order> pendingKeys = new HashMap<>();
+        List<Event> events = new ArrayList<>(cmd.commands.size());
+        List<Runnable> replies = new ArrayList<>(cmd.commands.size());
+        long now = System.currentTimeMillis();
+        for (EntityCommand command : cmd.commands) {
+            if (command instanceof Create) {
+                Create create = (Create) command;
+                Order original = create.idempotencyKey == null ? null
+                        : pendingKeys.containsKey(create.idempotencyKey) ? pendingKeys.get(create.idempotencyKey)
+                        : createdBefore(state, create.idempotencyKey, now);
+                if (original != null) {
+                    StatusReply<Order> reply = repeated(original, create);
+                    replies.add(() -> create.replyTo.tell(reply));
+                    continue;
+                }
+                Order created = create.order.createdAt(now);
+                events.add(new OrderCreated(create.order, create.idempotencyKey, now));
+                pendingOrders.put(created.id, created);
+                if (create.idempotencyKey != null) pendingKeys.put(create.idempotencyKey, created);
+                replies.add(() -> create.replyTo.tell(StatusReply.success(created)));
+                continue;
+            }
+            String orderId = command.entityId();
+            Order current = pendingOrders.containsKey(orderId) ? pendingOrders.get(orderId) : state.getOrder(orderId);
+            if (command instanceof Pay) {
+                Pay pay = (Pay) command;
+                if (current == null || isConflict(current, pay.expectedVersion) || !canPay(current)) {
+                    StatusReply<Order> error = StatusReply.error(current == null ? closedOrNotFound(orderId)
+                            : isConflict(current, pay.expectedVersion) ? versionConflict(current, pay.expectedVersion)
+                            : invalidStateChange(orderId));
+                    replies.add(() -> pay.replyTo.tell(error));
+                    continue;
+                }
+                Order paid = current.withState(OrderState.PAID);
+                Order inFulfillment = paid.withState(OrderState.IN_FULFILLMENT);
+                events.add(new OrderStateChanged(orderId, OrderState.PAID));
+                events.add(new OrderStateChanged(orderId, OrderState.IN_FULFILLMENT));
+                pendingOrders.put(orderId, inFulfillment);
+                replies.add(() -> {
+                    pay.replyTo.tell(StatusReply.success(paid));
+                    pay.fulfillment.tell(inFulfillment);
+                });
+                continue;
+            }
+            ActorRef<StatusReply<Order>> replyTo;
+            Order updated = null;
+            Event event = null;
+            RuntimeException error = null;
+            if (command instanceof ChangeState) {
+                ChangeState change = (ChangeState) command;
+                replyTo = change.replyTo;
+                if (current != null && isConflict(current, change.expectedVersion)) {
+                    error = versionConflict(current, change.expectedVersion);
+                } else if (current != null && lifecycle.canRequest(current, change.state)) {
+                    updated = current.withState(change.state);
+                    event = new OrderStateChanged(orderId, change.state);
+                }
+            } else if (command instanceof Close) {
+                Close close = (Close) command;
+                replyTo = close.replyTo;
+                if (current != null && lifecycle.canChange(current, OrderState.CLOSED)) {
+                    updated = current.closed(close.fulfillmentResult);
+                    event = new OrderClosed(orderId, close.fulfillmentResult);
+                }
+            } else {
+                throw new IllegalArgumentException("Can't batch command of type " + command.getClass());
+            }
+            StatusReply<Order> reply;
+            if (event != null) {
+                events.add(event);
+                pendingOrders.put(orderId, updated);
+                reply = StatusReply.success(updated);
+            } else {
+                reply = StatusReply.error(error != null ? error
+                        : current == null ? closedOrNotFound(orderId) : invalidStateChange(orderId));
+            }
+            replies.add(() -> replyTo.tell(reply));
+        }
+        if (events.isEmpty()) {
+            replies.forEach(Runnable::run);
+            return Effect().reply(cmd.ack, Done.getInstance());
+        }
+        return persist(events)
+                .thenRun(updatedOrders -> replies.forEach(Runnable::run))
+                .thenReply(cmd.ack, updatedOrders -> Done.getInstance());
+    }
+
+    private ReplyEffect<Event, State> onListInFulfillment(State state, ListInFulfillment cmd) {
+        List<String> orderIds = new ArrayList<>();
+        state.forEachOrder(order -> {
+            if (order.state == OrderState.IN_FULFILLMENT) orderIds.add(order.id);
+        });
+        return Effect().reply(cmd.replyTo, new OrdersInFulfillment(orderIds));
+    }
+
     private ReplyEffect<Event, State> onGet(State state, Get cmd) {
-        return state.findOrder(cmd.orderId)
-                .map(order -> Effect().reply(cmd.replyTo, StatusReply.success(order)))
-                .orElseGet(orderNotFoundReply(cmd.orderId, cmd.replyTo));
+        Order order = state.getOrder(cmd.orderId);
+        if (order == null) order = closedOrders.get(cmd.orderId);
+        return order != null
+                ? Effect().reply(cmd.replyTo, StatusReply.success(order))
+                : orderNotFoundReply(cmd.orderId, cmd.replyTo);
     }
 
     private ReplyEffect<Event, State> onChangeState(State state, ChangeState cmd) {
-        return state.findOrder(cmd.orderId)
-                .map(order -> changeState(cmd, order))
-                .orElseGet(orderNotFoundReply(cmd.orderId, cmd.replyTo));
+        Order order = state.getOrder(cmd.orderId);
+        return order != null ? changeState(cmd, order) : closedOrNotFoundReply(cmd.orderId, cmd.replyTo);
     }
 
     private ReplyEffect<Event, State> changeState(ChangeState cmd, Order order) {
-        if(isInvalidStateChange(order.state, cmd.state)){
+        if (isConflict(order, cmd.expectedVersion)) {
+            return Effect().reply(cmd.replyTo, StatusReply.error(versionConflict(order, cmd.expectedVersion)));
+        }
+        if (!lifecycle.canRequest(order, cmd.state)) {
             return invalidStateChangeReply(order.id, cmd.replyTo);
         }
-        return Effect()
-                .persist(new OrderStateChanged(order.id, cmd.state))
+        return persist(new OrderStateChanged(order.id, cmd.state))
                 .thenReply(cmd.replyTo, updatedOrders -> StatusReply.success(updatedOrders.getOrder(cmd.orderId)));
     }
 
+    private ReplyEffect<Event, State> onPay(State state, Pay cmd) {
+        Order order = state.getOrder(cmd.orderId);
+        return order != null ? pay(cmd, order) : closedOrNotFoundReply(cmd.orderId, cmd.replyTo);
+    }
+
+    private ReplyEffect<Event, State> pay(Pay cmd, Order order) {
+        if (isConflict(order, cmd.expectedVersion)) {
+            return Effect().reply(cmd.replyTo, StatusReply.error(versionConflict(order, cmd.expectedVersion)));
+        }
+        if (!canPay(order)) {
+            return invalidStateChangeReply(order.id, cmd.replyTo);
+        }
+        Order paid = order.withState(OrderState.PAID);
+        return persist(List.of(new OrderStateChanged(order.id, OrderState.PAID),
+                        new OrderStateChanged(order.id, OrderState.IN_FULFILLMENT)))
+                .thenRun(updatedOrders -> cmd.fulfillment.tell(updatedOrders.getOrder(cmd.orderId)))
+                .thenReply(cmd.replyTo, updatedOrders -> StatusReply.success(paid));
+    }
+
     private ReplyEffect<Event, State> onClose(State state, Close cmd) {
-        return state.findOrder(cmd.orderId)
-                .map(order -> close(cmd, order))
-                .orElseGet(orderNotFoundReply(cmd.orderId, cmd.replyTo));
+        Order order = state.getOrder(cmd.orderId);
+        return order != null ? close(cmd, order) : closedOrNotFoundReply(cmd.orderId, cmd.replyTo);
     }
 
     private ReplyEffect<Event, State> close(Close cmd, Order order) {
-        if (order.state != OrderState.IN_FULFILLMENT) return invalidStateChangeReply(cmd.orderId, cmd.replyTo);
-        return Effect()
-                .persist(new OrderClosed(order.id, cmd.fulfillmentResult))
-                .thenReply(cmd.replyTo, updatedOrders -> StatusReply.success(updatedOrders.getOrder(cmd.orderId)));
+        if (!lifecycle.canChange(order, OrderState.CLOSED)) return invalidStateChangeReply(cmd.orderId, cmd.replyTo);
+        Order closed = order.closed(cmd.fulfillmentResult);
+        return persist(new OrderClosed(order.id, cmd.fulfillmentResult))
+                .thenReply(cmd.replyTo, updatedOrders -> StatusReply.success(closed));
+    }
+
+    private EffectBuilder<Event, State> persist(Event event) {
+        return persist(List.of(event));
+    }
+
+    /**
+     * Persists the events as one atomic write and records its latency and size. Once persisted,
+     * and before any reply, the changed orders are published and lifecycle effects run.
+     */
+    private EffectBuilder<Event, State> persist(List<Event> events) {
+        long start = System.nanoTime();
+        return Effect().persist(events).thenRun(state -> {
+            persistLatency.recordNanos(System.nanoTime() - start);
+            persistedEvents.record(events.size());
+            publish(state, events);
+            events.forEach(event -> runEffects(state, event));
+            evict(state, events.stream()
+                    .filter(event -> event instanceof OrderClosed)
+                    .map(event -> ((OrderClosed) event).orderId)
+                    .collect(Collectors.toList()));
+        });
+    }
+
+    private void runEffects(State state, Event event) {
+        if (event instanceof OrderStateChanged && lifecycle.hasEffects(((OrderStateChanged) event).state)) {
+            OrderStateChanged changed = (OrderStateChanged) event;
+            Order order = state.getOrder(changed.orderId);
+            // a later event of the same write may have moved the order on already
+            if (order != null) lifecycle.entered(order.withState(changed.state));
+        } else if (event instanceof OrderClosed && lifecycle.hasEffects(OrderState.CLOSED)) {
+            String orderId = ((OrderClosed) event).orderId;
+            Order order = state.getOrder(orderId);
+            lifecycle.entered(order != null ? order : closedOrders.get(orderId));
+        }
+    }
+
+    private ReplyEffect<Event, State> orderNotFoundReply(String orderId, ActorRef<StatusReply<Order>> replyTo) {
+        return Effect().reply(replyTo, StatusReply.error(orderNotFound(orderId)));
+    }
+
+    private static OrderNotFoundException orderNotFound(String orderId) {
+        return OrderNotFoundException.forOrder(orderId);
+    }
+
+    /**
+     * Evicted orders are closed and can't change anymore.
+     */
+    private ReplyEffect<Event, State> closedOrNotFoundReply(String orderId, ActorRef<StatusReply<Order>> replyTo) {
+        return Effect().reply(replyTo, StatusReply.error(closedOrNotFound(orderId)));
+    }
+
+    private RuntimeException closedOrNotFound(String orderId) {
+        return closedOrders.contains(orderId) ? invalidStateChange(orderId) : orderNotFound(orderId);
     }
 
-    private Supplier<ReplyEffect<Event, State>> orderNotFoundReply(String orderId, ActorRef<StatusReply<Order>> replyTo) {
-        return () -> Effect().reply(replyTo, StatusReply.error(
-                new OrderNotFoundException(String.format("Order with ID %s not found!", orderId))));
+    /**
+     * Paying moves the order on to IN_FULFILLMENT in the same write, both steps must be allowed.
+     */
+    private boolean canPay(Order order) {
+        return lifecycle.canRequest(order, OrderState.PAID)
+                && lifecycle.canChange(order.withState(OrderState.PAID), OrderState.IN_FULFILLMENT);
     }
 
-    private boolean isInvalidStateChange(OrderState from, OrderState to) {
-        return !VALID_STATE_TRANSFERS.contains(new StateTransfer(from, to));
+    private static boolean isConflict(Order order, int expectedVersion) {
+        return expectedVersion != ANY_VERSION && order.version != expectedVersion;
+    }
+
+    private static VersionConflictException versionConflict(Order order, int expectedVersion) {
+        return new VersionConflictException(order.id, expectedVersion, order.version);
     }
 
     private ReplyEffect<Event, State> invalidStateChangeReply(String orderId, ActorRef<StatusReply<Order>> replyTo) {
-        return Effect().reply(replyTo, StatusReply.error(
-                new InvalidStateChangeException(String.format("Invalid state change for Order with ID %s!", orderId))));
+        return Effect().reply(replyTo, StatusReply.error(invalidStateChange(orderId)));
     }
 
+    private static InvalidStateChangeException invalidStateChange(String orderId) {
+        return InvalidStateChangeException.forOrder(orderId);
+    }
+
+    /**
+     * Answers a single order command with the error in place of its result.
+     */
+    static void replyError(EntityCommand cmd, RuntimeException error) {
+        StatusReply<Order> reply = StatusReply.error(error);
+        if (cmd instanceof Create) {
+            ((Create) cmd).replyTo.tell(reply);
+        } else if (cmd instanceof Get) {
+            ((Get) cmd).replyTo.tell(reply);
+        } else if (cmd instanceof ChangeState) {
+            ((ChangeState) cmd).replyTo.tell(reply);
+        } else if (cmd instanceof Pay) {
+            ((Pay) cmd).replyTo.tell(reply);
+        } else if (cmd instanceof Close) {
+            ((Close) cmd).replyTo.tell(reply);
+        }
+    }
+
+    /**
+     * Single event-sourced actor holding all orders in one journal stream. The read side is
+     * incomplete until the actor recovered.
+     */
     public static Behavior<PersistenceCommand> create() {
-        return new PersistenceActor();
+        return create(PersistenceSettings.defaults());
+    }
+
+    public static Behavior<PersistenceCommand> create(PersistenceSettings settings) {
+        return Behaviors.setup(ctx -> {
+            PersistenceId persistenceId = PersistenceId.ofUniqueId("Orders");
+            OrderReadModel.get(ctx.getSystem()).loading(persistenceId.id());
+            return new PersistenceActor(persistenceId, settings, ctx);
+        });
     }
 
-    public interface PersistenceCommand extends JsonSerializable {
+    /**
+     * Event-sourced entity holding exactly one order, see {@link PersistenceRouter}.
+     */
+    public static Behavior<PersistenceCommand> createEntity(String orderId, PersistenceSettings settings) {
+        return Behaviors.setup(ctx -> new PersistenceActor(PersistenceId.of("Order", orderId), settings, ctx));
     }
 
+    public interface PersistenceCommand extends BinarySerializable {
+    }
+
+    /**
+     * Command addressed to a single order, routable by its order id.
+     */
+    public interface EntityCommand extends PersistenceCommand {
+        String entityId();
+    }
+
+    /**
+     * Creates the order. With an idempotency key a repeated create within the key retention
+     * replies with the order created first and persists nothing, or fails with an
+     * {@link IdempotencyKeyReusedException} if it has other items.
+     */
     @AllArgsConstructor
-    public static final class Create implements PersistenceCommand {
+    public static final class Create implements EntityCommand, Sheddable {
         public final Order order;
         public final ActorRef<StatusReply<Order>> replyTo;
+        public final String idempotencyKey;
+
+        public Create(Order order, ActorRef<StatusReply<Order>> replyTo) {
+            this(order, replyTo, null);
+        }
+
+        @Override
+        public String entityId() {
+            return order.id;
+        }
+
+        @Override
+        public void shed(MailboxFullException reason) {
+            replyTo.tell(StatusReply.error(reason));
+        }
     }
 
     @AllArgsConstructor
-    public static final class Get implements PersistenceCommand {
+    public static final class Get implements EntityCommand, Sheddable {
         public final String orderId;
         public final ActorRef<StatusReply<Order>> replyTo;
+
+        @Override
+        public String entityId() {
+            return orderId;
+        }
+
+        @Override
+        public void shed(MailboxFullException reason) {
+            replyTo.tell(StatusReply.error(reason));
+        }
     }
 
+    /**
+     * Changes the state of the order. With an expected version other than {@link #ANY_VERSION} the
+     * change only applies to the order at that version and fails with a
+     * {@link VersionConflictException} otherwise.
+     */
     @AllArgsConstructor
-    public static final class ChangeState implements PersistenceCommand {
+    public static final class ChangeState implements EntityCommand, Sheddable {
         public final String orderId;
         public final OrderState state;
         public final ActorRef<StatusReply<Order>> replyTo;
+        public final int expectedVersion;
+
+        public ChangeState(String orderId, OrderState state, ActorRef<StatusReply<Order>> replyTo) {
+            this(orderId, state, replyTo, ANY_VERSION);
+        }
+
+        @Override
+        public String entityId() {
+            return orderId;
+        }
+
+        @Override
+        public void shed(MailboxFullException reason) {
+            replyTo.tell(StatusReply.error(reason));
+        }
+    }
+
+    /**
+     * Pays the order and starts its fulfillment in one atomic write: PAID and IN_FULFILLMENT are
+     * persisted together, the order as paid is the reply and the order in fulfillment is passed to
+     * the fulfillment listener. The expected version applies as for {@link ChangeState}.
+     */
+    @AllArgsConstructor
+    public static final class Pay implements EntityCommand, Sheddable {
+        public final String orderId;
+        public final ActorRef<StatusReply<Order>> replyTo;
+        public final ActorRef<Order> fulfillment;
+        public final int expectedVersion;
+
+        public Pay(String orderId, ActorRef<StatusReply<Order>> replyTo, ActorRef<Order> fulfillment) {
+            this(orderId, replyTo, fulfillment, ANY_VERSION);
+        }
+
+        @Override
+        public String entityId() {
+            return orderId;
+        }
+
+        @Override
+        public void shed(MailboxFullException reason) {
+            replyTo.tell(StatusReply.error(reason));
+        }
     }
 
     @AllArgsConstructor
-    public static final class Close implements PersistenceCommand {
+    public static final class Close implements EntityCommand {
         public final String orderId;
         public final FulfillmentResult fulfillmentResult;
         public final ActorRef<StatusReply<Order>> replyTo;
+
+        @Override
+        public String entityId() {
+            return orderId;
+        }
+    }
+
+    /**
+     * Creates all orders with a single journal write, replies with one result per order. Per-order
+     * entities create each order on its own, so some of them may fail while others are created.
+     */
+    @AllArgsConstructor
+    public static final class CreateBatch implements PersistenceCommand, Sheddable {
+        public final List<Order> orders;
+        public final ActorRef<List<StatusReply<Order>>> replyTo;
+
+        @Override
+        public void shed(MailboxFullException reason) {
+            replyTo.tell(Collections.nCopies(orders.size(), StatusReply.<Order>error(reason)));
+        }
     }
 
-    @Value
-    private static class StateTransfer {
-        OrderState from;
-        OrderState to;
+    /**
+     * Applies all valid changes with a single journal write, replies with one result per change.
+     * Orders changed to PAID start their fulfillment like with {@link Pay} if a fulfillment
+     * listener is given.
+     */
+    @AllArgsConstructor
+    public static final class ChangeStateBatch implements PersistenceCommand, Sheddable {
+        public final List<StateChange> changes;
+        public final ActorRef<List<StatusReply<Order>>> replyTo;
+        public final ActorRef<Order> fulfillment;
+
+        public ChangeStateBatch(List<StateChange> changes, ActorRef<List<StatusReply<Order>>> replyTo) {
+            this(changes, replyTo, null);
+        }
+
+        @Override
+        public void shed(MailboxFullException reason) {
+            replyTo.tell(Collections.nCopies(changes.size(), StatusReply.<Order>error(reason)));
+        }
+    }
+
+    @AllArgsConstructor
+    public static final class StateChange {
+        public final String orderId;
+        public final OrderState state;
+    }
+
+    /**
+     * Single order writes ({@link Create}, {@link ChangeState}, {@link Pay}, {@link Close}) of
+     * several clients persisted with one journal write, each answered to its own replyTo. The ack
+     * is sent once the batch is persisted, see {@link GroupCommitBuffer}.
+     */
+    @AllArgsConstructor
+    public static final class WriteBatch implements PersistenceCommand {
+        public final List<EntityCommand> commands;
+        public final ActorRef<Done> ack;
+    }
+
+    /**
+     * Asks for the ids of all orders in fulfillment, answered once recovery is completed.
+     */
+    @AllArgsConstructor
+    public static final class ListInFulfillment implements PersistenceCommand {
+        public final ActorRef<OrdersInFulfillment> replyTo;
+    }
+
+    @AllArgsConstructor
+    public static final class OrdersInFulfillment {
+        public final List<String> orderIds;
+    }
+
+    /**
+     * Stops the actor once all previously enqueued commands are handled.
+     */
+    public static final class Passivate implements PersistenceCommand {
+        public static final Passivate INSTANCE = new Passivate();
+
+        private Passivate() {
+        }
     }
 }
@@ -0,0 +1,461 @@
+package com.example.order.persistence;
+
+import akka.Done;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.pattern.StatusReply;
+import com.example.order.persistence.PersistenceActor.EntityCommand;
+import com.example.order.persistence.PersistenceActor.PersistenceCommand;
+import com.example.order.query.OrderReadModel;
+import lombok.AllArgsConstructor;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Routes every {@link EntityCommand} to a per-order {@link PersistenceActor} entity, so orders are
+ * persisted and recovered independently of each other. Entities are started on first use and
+ * passivated after being idle; commands arriving while an entity stops are buffered and delivered
+ * to its next incarnation.
+ * <p>
+ * Orders entering fulfillment are recorded in the {@link FulfillmentIndex} before the command is
+ * passed on, so the orders left in fulfillment by a restart can be listed without recovering every
+ * entity. Later commands for such an order wait until it is recorded, keeping them in order.
+ * Creates with an idempotency key get their order id from {@link IdempotencyKeys} the same way.
+ * <p>
+ * The read side only sees the orders of entities started since the last restart, so creates are
+ * passed on once their order id is in the {@link OrderIdIndex}, added in batches while a write is
+ * in flight. After a restart the entity of every indexed order is started with a bounded number
+ * of loads in flight and the read side counts as loaded once all of them answered. Loaded
+ * entities are passivated with the next idle check.
+ */
+public class PersistenceRouter extends AbstractBehavior<PersistenceCommand> {
+
+    private static final String READ_SIDE_LOADER = "PersistenceRouter";
+    private static final int LOADS_IN_FLIGHT = 64;
+    private static final int MAX_ORDER_IDS_PER_WRITE = 1000;
+
+    private final Duration idleTimeout;
+    private final PersistenceSettings settings;
+    private final Map<String, Entity> entities = new HashMap<>();
+    private final Map<String, List<EntityCommand>> passivating = new HashMap<>();
+    /** Commands of orders being added to the fulfillment index, the first one enters fulfillment. */
+    private final Map<String, List<EntityCommand>> indexing = new HashMap<>();
+    private final ActorRef<FulfillmentIndex.Command> fulfillmentIndex;
+    private final ActorRef<IdempotencyKeys.Command> idempotencyKeys;
+    private final ActorRef<OrderIdIndex.Command> orderIdIndex;
+    private final OrderReadModel readModel;
+    /** Creates whose order ids are not added to the order id index yet, the next batch to add. */
+    private final List<PersistenceActor.Create> unindexedCreates = new ArrayList<>();
+    private boolean addingOrderIds;
+    private final Deque<String> unloadedOrderIds = new ArrayDeque<>();
+    private int loadsInFlight;
+    private int indexedOrders;
+    private long loadStart;
+
+    private PersistenceRouter(ActorContext<PersistenceCommand> ctx, Duration idleTimeout, PersistenceSettings settings) {
+        super(ctx);
+        this.idleTimeout = idleTimeout;
+        this.settings = settings;
+        this.fulfillmentIndex = ctx.spawn(FulfillmentIndex.create(), "FulfillmentIndex");
+        this.idempotencyKeys = ctx.spawn(IdempotencyKeys.create(settings), "IdempotencyKeys");
+        this.orderIdIndex = ctx.spawn(OrderIdIndex.create(), "OrderIdIndex");
+        this.readModel = OrderReadModel.get(ctx.getSystem());
+        readModel.loading(READ_SIDE_LOADER);
+        listOrderIds();
+    }
+
+    @Override
+    public Receive<PersistenceCommand> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(EntityCommand.class, this::onEntityCommand)
+                .onMessage(PersistenceActor.CreateBatch.class, this::onCreateBatch)
+                .onMessage(PersistenceActor.ChangeStateBatch.class, this::onChangeStateBatch)
+                .onMessage(BatchCompleted.class, this::onBatchCompleted)
+                .onMessage(Indexed.class, this::onIndexed)
+                .onMessage(KeyBound.class, this::onKeyBound)
+                .onMessage(OrderIdsAdded.class, this::onOrderIdsAdded)
+                .onMessage(OrderIdsListed.class, this::onOrderIdsListed)
+                .onMessage(OrderLoaded.class, this::onOrderLoaded)
+                .onMessage(PersistenceActor.ListInFulfillment.class, this::onListInFulfillment)
+                .onMessage(IndexListed.class, this::onIndexListed)
+                .onMessage(PassivateIdle.class, cmd -> onPassivateIdle())
+                .onMessage(EntityTerminated.class, this::onEntityTerminated)
+                .build();
+    }
+
+    private Behavior<PersistenceCommand> onEntityCommand(EntityCommand cmd) {
+        List<EntityCommand> waiting = indexing.get(cmd.entityId());
+        if (waiting != null) {
+            waiting.add(cmd);
+        } else if (cmd instanceof PersistenceActor.Create && ((PersistenceActor.Create) cmd).idempotencyKey != null) {
+            PersistenceActor.Create create = (PersistenceActor.Create) cmd;
+            getContext().ask(String.class, idempotencyKeys, settings.getAskTimeout(),
+                    replyTo -> new IdempotencyKeys.Bind(create.idempotencyKey, create.order.id, replyTo),
+                    (orderId, failure) -> new KeyBound(create, orderId, failure));
+        } else if (entersFulfillment(cmd)) {
+            indexing.put(cmd.entityId(), new ArrayList<>(List.of(cmd)));
+            getContext().ask(Done.class, fulfillmentIndex, settings.getAskTimeout(),
+                    replyTo -> new FulfillmentIndex.Add(cmd.entityId(), replyTo),
+                    (done, failure) -> new Indexed(cmd.entityId(), failure));
+        } else if (cmd instanceof PersistenceActor.Create) {
+            addOrderId((PersistenceActor.Create) cmd);
+        } else {
+            route(cmd);
+        }
+        return this;
+    }
+
+    private static boolean entersFulfillment(EntityCommand cmd) {
+        return cmd instanceof PersistenceActor.Pay || cmd instanceof PersistenceActor.ChangeState
+                && ((PersistenceActor.ChangeState) cmd).state == OrderState.IN_FULFILLMENT;
+    }
+
+    private Behavior<PersistenceCommand> onIndexed(Indexed cmd) {
+        List<EntityCommand> commands = indexing.remove(cmd.orderId);
+        if (cmd.failure == null) {
+            route(commands.get(0));
+        } else {
+            getContext().getLog().warn("Failed to add order {} to the fulfillment index", cmd.orderId, cmd.failure);
+            PersistenceActor.replyError(commands.get(0), new IllegalStateException("Order could not be persisted, retry later"));
+        }
+        commands.subList(1, commands.size()).forEach(this::onEntityCommand);
+        return this;
+    }
+
+    /**
+     * A repeated create goes to the entity of the order created first, which answers it.
+     */
+    private Behavior<PersistenceCommand> onKeyBound(KeyBound cmd) {
+        PersistenceActor.Create create = cmd.create;
+        if (cmd.failure != null) {
+            getContext().getLog().warn("Failed to bind idempotency key of order {}", create.order.id, cmd.failure);
+            PersistenceActor.replyError(create, new IllegalStateException("Order could not be persisted, retry later"));
+        } else {
+            addOrderId(new PersistenceActor.Create(create.order.toBuilder().id(cmd.orderId).build(), create.replyTo, create.idempotencyKey));
+        }
+        return this;
+    }
+
+    private void addOrderId(PersistenceActor.Create create) {
+        unindexedCreates.add(create);
+        if (!addingOrderIds) {
+            addOrderIds();
+        }
+    }
+
+    private void addOrderIds() {
+        List<PersistenceActor.Create> batch = unindexedCreates.subList(0, Math.min(unindexedCreates.size(), MAX_ORDER_IDS_PER_WRITE));
+        List<PersistenceActor.Create> creates = new ArrayList<>(batch);
+        batch.clear();
+        List<String> orderIds = creates.stream().map(create -> create.order.id).collect(Collectors.toList());
+        addingOrderIds = true;
+        getContext().ask(Done.class, orderIdIndex, settings.getAskTimeout(),
+                replyTo -> new OrderIdIndex.Add(orderIds, replyTo),
+                (done, failure) -> new OrderIdsAdded(creates, failure));
+    }
+
+    private Behavior<PersistenceCommand> onOrderIdsAdded(OrderIdsAdded cmd) {
+        addingOrderIds = false;
+        if (cmd.failure == null) {
+            cmd.creates.forEach(this::route);
+        } else {
+            getContext().getLog().warn("Failed to add {} orders to the order id index", cmd.creates.size(), cmd.failure);
+            cmd.creates.forEach(create -> PersistenceActor.replyError(create, new IllegalStateException("Order could not be persisted, retry later")));
+        }
+        if (!unindexedCreates.isEmpty()) {
+            addOrderIds();
+        }
+        return this;
+    }
+
+    private void listOrderIds() {
+        getContext().ask(OrderIdIndex.OrderIds.class, orderIdIndex, settings.getAskTimeout(),
+                OrderIdIndex.ListOrders::new, (listed, failure) -> new OrderIdsListed(listed, failure));
+    }
+
+    /**
+     * While the index doesn't answer, e.g. restarting after a journal failure, it is asked again.
+     */
+    private Behavior<PersistenceCommand> onOrderIdsListed(OrderIdsListed cmd) {
+        if (cmd.failure != null) {
+            getContext().getLog().warn("Failed to list the order ids, asking again", cmd.failure);
+            listOrderIds();
+            return this;
+        }
+        loadStart = System.nanoTime();
+        indexedOrders = cmd.listed.orderIds.size();
+        unloadedOrderIds.addAll(cmd.listed.orderIds);
+        loadNext();
+        return this;
+    }
+
+    private void loadNext() {
+        while (loadsInFlight < LOADS_IN_FLIGHT && !unloadedOrderIds.isEmpty()) {
+            String orderId = unloadedOrderIds.poll();
+            loadsInFlight++;
+            getContext().pipeToSelf(askSelf(replyTo -> new PersistenceActor.Get(orderId, replyTo)),
+                    (reply, failure) -> new OrderLoaded(orderId, reply));
+        }
+        if (loadsInFlight == 0) {
+            readModel.loaded(READ_SIDE_LOADER);
+            getContext().getLog().info("Loaded {} indexed orders into the read side in {} ms",
+                    indexedOrders, Duration.ofNanos(System.nanoTime() - loadStart).toMillis());
+        }
+    }
+
+    /**
+     * Orders whose create failed after their id was indexed are not found and skipped, orders
+     * whose entity didn't answer are loaded again after the others.
+     */
+    private Behavior<PersistenceCommand> onOrderLoaded(OrderLoaded cmd) {
+        loadsInFlight--;
+        if (!cmd.reply.isSuccess() && !(cmd.reply.getError() instanceof OrderNotFoundException)) {
+            getContext().getLog().warn("Failed to load order {}, loading it again", cmd.orderId, cmd.reply.getError());
+            unloadedOrderIds.add(cmd.orderId);
+        }
+        Entity entity = entities.get(cmd.orderId);
+        if (entity != null) {
+            entity.lastAccess = System.nanoTime() - idleTimeout.toNanos();
+        }
+        loadNext();
+        return this;
+    }
+
+    private void route(EntityCommand cmd) {
+        List<EntityCommand> buffer = passivating.get(cmd.entityId());
+        if (buffer != null) {
+            buffer.add(cmd);
+            return;
+        }
+        Entity entity = entities.computeIfAbsent(cmd.entityId(), this::spawnEntity);
+        entity.lastAccess = System.nanoTime();
+        if (cmd instanceof PersistenceActor.Close) {
+            close((PersistenceActor.Close) cmd, entity.ref);
+        } else {
+            entity.ref.tell(cmd);
+        }
+    }
+
+    /**
+     * Closed orders leave the fulfillment index once the entity persisted the close.
+     */
+    private void close(PersistenceActor.Close cmd, ActorRef<PersistenceCommand> entity) {
+        ActorRef<FulfillmentIndex.Command> index = fulfillmentIndex;
+        AskPattern.<PersistenceCommand, StatusReply<Order>>ask(entity,
+                        replyTo -> new PersistenceActor.Close(cmd.orderId, cmd.fulfillmentResult, replyTo),
+                        settings.getAskTimeout(), getContext().getSystem().scheduler())
+                .whenComplete((reply, failure) -> {
+                    if (failure != null) {
+                        cmd.replyTo.tell(StatusReply.error(failure));
+                        return;
+                    }
+                    if (reply.isSuccess()) index.tell(new FulfillmentIndex.Remove(cmd.orderId));
+                    cmd.replyTo.tell(reply);
+                });
+    }
+
+    /**
+     * Orders of a batch live in different entities, so the batch is split into single commands
+     * answered with one result per order once all entities replied.
+     */
+    private Behavior<PersistenceCommand> onCreateBatch(PersistenceActor.CreateBatch cmd) {
+        List<CompletableFuture<StatusReply<Order>>> replies = new ArrayList<>(cmd.orders.size());
+        cmd.orders.forEach(order -> replies.add(askSelf(replyTo -> new PersistenceActor.Create(order, replyTo))));
+        pipeBatchToSelf(replies, cmd.replyTo);
+        return this;
+    }
+
+    private Behavior<PersistenceCommand> onChangeStateBatch(PersistenceActor.ChangeStateBatch cmd) {
+        List<CompletableFuture<StatusReply<Order>>> replies = new ArrayList<>(cmd.changes.size());
+        cmd.changes.forEach(change -> replies.add(askSelf(replyTo -> cmd.fulfillment != null && change.state == OrderState.PAID
+                ? new PersistenceActor.Pay(change.orderId, replyTo, cmd.fulfillment)
+                : new PersistenceActor.ChangeState(change.orderId, change.state, replyTo))));
+        pipeBatchToSelf(replies, cmd.replyTo);
+        return this;
+    }
+
+    private void pipeBatchToSelf(List<CompletableFuture<StatusReply<Order>>> replies, ActorRef<List<StatusReply<Order>>> replyTo) {
+        getContext().pipeToSelf(allOf(replies), (results, failure) -> new BatchCompleted(replyTo, failure == null
+                ? results
+                : Collections.nCopies(replies.size(), StatusReply.<Order>error(failure))));
+    }
+
+    private Behavior<PersistenceCommand> onBatchCompleted(BatchCompleted cmd) {
+        cmd.replyTo.tell(cmd.results);
+        return this;
+    }
+
+    private Behavior<PersistenceCommand> onListInFulfillment(PersistenceActor.ListInFulfillment cmd) {
+        getContext().ask(PersistenceActor.OrdersInFulfillment.class, fulfillmentIndex, settings.getAskTimeout(),
+                FulfillmentIndex.ListOrders::new, (listed, failure) -> new IndexListed(cmd.replyTo, listed, failure));
+        return this;
+    }
+
+    /**
+     * The index may still list orders that never entered fulfillment or left it otherwise, so only
+     * the orders their entities report in fulfillment are passed on and the others are removed.
+     * While the index doesn't answer, e.g. restarting after a journal failure, it is asked again.
+     */
+    private Behavior<PersistenceCommand> onIndexListed(IndexListed cmd) {
+        if (cmd.failure != null) {
+            getContext().getLog().warn("Failed to list the orders in fulfillment, asking again", cmd.failure);
+            getContext().getSelf().tell(new PersistenceActor.ListInFulfillment(cmd.replyTo));
+            return this;
+        }
+        List<String> orderIds = cmd.listed.orderIds;
+        List<CompletableFuture<StatusReply<Order>>> replies = new ArrayList<>(orderIds.size());
+        orderIds.forEach(orderId -> replies.add(askSelf(replyTo -> new PersistenceActor.Get(orderId, replyTo))));
+        ActorRef<FulfillmentIndex.Command> index = fulfillmentIndex;
+        allOf(replies).thenAccept(orders -> {
+            List<String> inFulfillment = new ArrayList<>();
+            for (int i = 0; i < orderIds.size(); i++) {
+                StatusReply<Order> order = orders.get(i);
+                if (order.isSuccess() && order.getValue().state == OrderState.IN_FULFILLMENT) {
+                    inFulfillment.add(orderIds.get(i));
+                } else if (order.isSuccess() || order.getError() instanceof OrderNotFoundException) {
+                    index.tell(new FulfillmentIndex.Remove(orderIds.get(i)));
+                }
+            }
+            cmd.replyTo.tell(new PersistenceActor.OrdersInFulfillment(inFulfillment));
+        });
+        return this;
+    }
+
+    /**
+     * @return the reply of the entity, an error reply if it didn't answer in time
+     */
+    private CompletableFuture<StatusReply<Order>> askSelf(Function<ActorRef<StatusReply<Order>>, EntityCommand> command) {
+        return AskPattern.<PersistenceCommand, StatusReply<Order>>ask(getContext().getSelf(), command::apply, settings.getAskTimeout(),
+                getContext().getSystem().scheduler()).toCompletableFuture()
+                .exceptionally(error -> StatusReply.error(error));
+    }
+
+    private static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(done -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    private Behavior<PersistenceCommand> onPassivateIdle() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<String, Entity>> it = entities.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entity> entry = it.next();
+            if (now - entry.getValue().lastAccess >= idleTimeout.toNanos()) {
+                it.remove();
+                passivating.put(entry.getKey(), new ArrayList<>());
+                entry.getValue().ref.tell(PersistenceActor.Passivate.INSTANCE);
+            }
+        }
+        return this;
+    }
+
+    private Behavior<PersistenceCommand> onEntityTerminated(EntityTerminated cmd) {
+        List<EntityCommand> buffer = passivating.remove(cmd.entityId);
+        if (buffer == null) {
+            getContext().getLog().warn("Entity for order {} stopped unexpectedly", cmd.entityId);
+            entities.remove(cmd.entityId);
+            return this;
+        }
+        getContext().getLog().debug("Passivated entity for order {}", cmd.entityId);
+        buffer.forEach(this::route);
+        return this;
+    }
+
+    private Entity spawnEntity(String entityId) {
+        ActorRef<PersistenceCommand> ref = getContext().spawn(PersistenceActor.createEntity(entityId, settings),
+                URLEncoder.encode(entityId, StandardCharsets.UTF_8));
+        getContext().watchWith(ref, new EntityTerminated(entityId));
+        return new Entity(ref);
+    }
+
+    public static Behavior<PersistenceCommand> create(Duration idleTimeout) {
+        return create(idleTimeout, PersistenceSettings.defaults());
+    }
+
+    public static Behavior<PersistenceCommand> create(Duration idleTimeout, PersistenceSettings settings) {
+        return Behaviors.setup(ctx -> Behaviors.withTimers(timers -> {
+            timers.startTimerWithFixedDelay(PassivateIdle.INSTANCE, idleTimeout.dividedBy(2));
+            return new PersistenceRouter(ctx, idleTimeout, settings);
+        }));
+    }
+
+    private static final class Entity {
+        final ActorRef<PersistenceCommand> ref;
+        long lastAccess;
+
+        Entity(ActorRef<PersistenceCommand> ref) {
+            this.ref = ref;
+        }
+    }
+
+    private static final class PassivateIdle implements PersistenceCommand {
+        static final PassivateIdle INSTANCE = new PassivateIdle();
+    }
+
+    @AllArgsConstructor
+    private static final class BatchCompleted implements PersistenceCommand {
+        final ActorRef<List<StatusReply<Order>>> replyTo;
+        final List<StatusReply<Order>> results;
+    }
+
+    @AllArgsConstructor
+    private static final class Indexed implements PersistenceCommand {
+        final String orderId;
+        final Throwable failure;
+    }
+
+    @AllArgsConstructor
+    private static final class KeyBound implements PersistenceCommand {
+        final PersistenceActor.Create create;
+        final String orderId;
+        final Throwable failure;
+    }
+
+    @AllArgsConstructor
+    private static final class OrderIdsAdded implements PersistenceCommand {
+        final List<PersistenceActor.Create> creates;
+        final Throwable failure;
+    }
+
+    @AllArgsConstructor
+    private static final class OrderIdsListed implements PersistenceCommand {
+        final OrderIdIndex.OrderIds listed;
+        final Throwable failure;
+    }
+
+    @AllArgsConstructor
+    private static final class OrderLoaded implements PersistenceCommand {
+        final String orderId;
+        final StatusReply<Order> reply;
+    }
+
+    @AllArgsConstructor
+    private static final class IndexListed implements PersistenceCommand {
+        final ActorRef<PersistenceActor.OrdersInFulfillment> replyTo;
+        final PersistenceActor.OrdersInFulfillment listed;
+        final Throwable failure;
+    }
+
+    @AllArgsConstructor
+    private static final class EntityTerminated implements PersistenceCommand {
+        final String entityId;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.order.persistence;
+
+import com.typesafe.config.Config;
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+@Value
+@Builder(toBuilder = true)
+public class PersistenceSettings {
+    OrderStoreType storeType;
+    /** Snapshot after this many events, 0 disables count based snapshots. */
+    int snapshotEvery;
+    /** Snapshot when this much time passed since the last snapshot, zero disables time based snapshots. */
+    Duration snapshotInterval;
+    int keepSnapshots;
+    /** Delete journal events covered by a count based snapshot. */
+    boolean deleteEventsOnSnapshot;
+    /** Single order writes persisted together by the {@link GroupCommitBuffer}, 1 or less disables it. */
+    int groupCommitMaxBatchSize;
+    /** Longest time a write waits for the batch in flight before it is persisted anyway. */
+    Duration groupCommitMaxLinger;
+    /** Idempotency keys remembered at most, the oldest are forgotten first. */
+    int idempotencyMaxKeys;
+    /** Time an idempotency key is remembered after the order was created with it. */
+    Duration idempotencyRetention;
+    OrderLifecycle lifecycle;
+    /** Time a per-order entity has to answer the router, e.g. for each order of a batch. */
+    Duration askTimeout;
+    /** Dispatcher config path of the actor writing all orders in single mode, null for the default dispatcher. */
+    String dispatcher;
+
+    public static PersistenceSettings defaults() {
+        return PersistenceSettings.builder()
+                .storeType(OrderStoreType.HASH_MAP)
+                .snapshotEvery(0)
+                .snapshotInterval(Duration.ZERO)
+                .keepSnapshots(2)
+                .deleteEventsOnSnapshot(false)
+                .groupCommitMaxBatchSize(0)
+                .groupCommitMaxLinger(Duration.ZERO)
+                .idempotencyMaxKeys(100_000)
+                .idempotencyRetention(Duration.ofHours(24))
+                .lifecycle(OrderLifecycle.defaults())
+                .askTimeout(Duration.ofSeconds(5))
+                .dispatcher(null)
+                .build();
+    }
+
+    public static PersistenceSettings fromConfig(Config config) {
+        Config snapshots = config.getConfig("snapshots");
+        Config groupCommit = config.getConfig("group-commit");
+        Config idempotency = config.getConfig("idempotency");
+        return PersistenceSettings.builder()
+                .storeType(OrderStoreType.valueOf(config.getString("state-store").toUpperCase().replace('-', '_')))
+                .snapshotEvery(snapshots.getInt("every-events"))
+                .snapshotInterval(snapshots.getDuration("interval"))
+                .keepSnapshots(snapshots.getInt("keep"))
+                .deleteEventsOnSnapshot(snapshots.getBoolean("delete-events"))
+                .groupCommitMaxBatchSize(groupCommit.getInt("max-batch-size"))
+                .groupCommitMaxLinger(groupCommit.getDuration("max-linger"))
+                .idempotencyMaxKeys(idempotency.getInt("max-keys"))
+                .idempotencyRetention(idempotency.getDuration("retention"))
+                .lifecycle(OrderLifecycle.fromConfig(config.getConfig("lifecycle")))
+                .askTimeout(config.getDuration("ask-timeout"))
+                .dispatcher(config.getString("dispatcher").isEmpty() ? null : config.getString("dispatcher"))
+                .build();
+    }
+}
@@ -1,56 +1,142 @@
 package com.example.order.persistence;
 
-import com.example.order.serialization.JsonSerializable;
+import com.example.order.serialization.BinarySerializable;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonSetter;
 import lombok.AllArgsConstructor;
-import lombok.Data;
 import lombok.NoArgsConstructor;
-import lombok.Setter;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
-@NoArgsConstructor
-@Data
-class State implements JsonSerializable {
-    private Map<String, OrderItem> orders = new HashMap<>();
+class State implements BinarySerializable {
+    private final OrderStore orders;
+    private IdempotencyIndex idempotencyKeys;
+
+    public State() {
+        this(OrderStoreType.HASH_MAP);
+    }
+
+    public State(OrderStoreType storeType) {
+        this(storeType, PersistenceSettings.defaults());
+    }
+
+    public State(OrderStoreType storeType, PersistenceSettings settings) {
+        orders = storeType.create();
+        idempotencyKeys = new IdempotencyIndex(settings.getIdempotencyMaxKeys(), settings.getIdempotencyRetention());
+    }
+
+    /**
+     * @return this state if it already uses the given store type, otherwise a copy using it
+     */
+    public State withStoreType(OrderStoreType storeType) {
+        if (orders.type() == storeType) return this;
+        State copy = new State(storeType);
+        orders.forEach(copy.orders::put);
+        copy.idempotencyKeys = idempotencyKeys;
+        return copy;
+    }
+
+    /**
+     * Applies the idempotency key limits of the settings, snapshots don't carry them.
+     */
+    public State withIdempotencyLimits(PersistenceSettings settings) {
+        idempotencyKeys.limit(settings.getIdempotencyMaxKeys(), settings.getIdempotencyRetention());
+        return this;
+    }
 
     public State addOrder(Order order) {
-        orders.put(order.id, new OrderItem(order.items, order.state, order.fulfillmentResult));
+        orders.put(order);
         return this;
     }
 
     public Optional<Order> findOrder(String orderId) {
-        return Optional.ofNullable(orders.get(orderId))
-                .map(orderItem -> toOrder(orderId, orderItem));
+        return Optional.ofNullable(orders.get(orderId));
     }
 
     public Order getOrder(String orderId) {
-        return toOrder(orderId, orders.get(orderId));
+        return orders.get(orderId);
     }
 
-    private Order toOrder(String orderId, OrderItem orderItem) {
-        return new Order(orderId, orderItem.items, orderItem.state, orderItem.fulfillmentResult);
+    public int size() {
+        return orders.size();
+    }
+
+    public void forEachOrder(Consumer<Order> action) {
+        orders.forEach(action);
     }
 
     public State changeState(String orderId, OrderState state) {
-        orders.get(orderId).state = state;
+        orders.changeState(orderId, state);
         return this;
     }
 
     public State closeOrder(String orderId, FulfillmentResult fulfillmentResult) {
-        OrderItem orderItem = orders.get(orderId);
-        orderItem.state = OrderState.CLOSED;
-        orderItem.fulfillmentResult = fulfillmentResult;
+        orders.close(orderId, fulfillmentResult);
+        return this;
+    }
+
+    public Order removeOrder(String orderId) {
+        return orders.remove(orderId);
+    }
+
+    public State rememberIdempotencyKey(String key, String orderId, long timestamp) {
+        idempotencyKeys.put(key, orderId, timestamp);
         return this;
     }
 
+    /**
+     * @return the id of the order created with the key, null if the key is unknown or expired
+     */
+    public String orderIdForIdempotencyKey(String key, long now) {
+        return idempotencyKeys.orderId(key, now);
+    }
+
+    IdempotencyIndex idempotencyKeys() {
+        return idempotencyKeys;
+    }
+
+    @JsonGetter("orders")
+    Map<String, OrderItem> ordersAsJson() {
+        Map<String, OrderItem> items = new HashMap<>();
+        orders.forEach(order -> items.put(order.id, new OrderItem(order.items, order.state, order.fulfillmentResult, order.version, order.createdAt)));
+        return items;
+    }
+
+    @JsonSetter("orders")
+    void ordersFromJson(Map<String, OrderItem> items) {
+        items.forEach((orderId, item) -> orders.put(new Order(orderId, item.items, item.state, item.fulfillmentResult, item.version, item.createdAt)));
+    }
+
+    @JsonGetter("idempotencyKeys")
+    Map<String, IdempotencyKeyItem> idempotencyKeysAsJson() {
+        Map<String, IdempotencyKeyItem> keys = new LinkedHashMap<>();
+        idempotencyKeys.entries().forEach((key, entry) -> keys.put(key, new IdempotencyKeyItem(entry.orderId, entry.timestamp)));
+        return keys;
+    }
+
+    @JsonSetter("idempotencyKeys")
+    void idempotencyKeysFromJson(Map<String, IdempotencyKeyItem> keys) {
+        keys.forEach((key, item) -> idempotencyKeys.put(key, item.orderId, item.timestamp));
+    }
+
+    @AllArgsConstructor
+    @NoArgsConstructor
+    static final class IdempotencyKeyItem {
+        public String orderId;
+        public long timestamp;
+    }
+
     @AllArgsConstructor
     @NoArgsConstructor
-    private final static class OrderItem implements JsonSerializable {
+    static final class OrderItem {
         public Map<String, Integer> items;
         public OrderState state;
         public FulfillmentResult fulfillmentResult;
+        public int version;
+        public long createdAt;
     }
-
 }
@@ -0,0 +1,88 @@
+package com.example.order.persistence;
+
+import com.example.order.serialization.Ids;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Map from order id to a long value without a String and a boxed Long per entry for UUID ids.
+ * Uses open addressing with linear probing, other ids go through a plain map. Not thread safe.
+ */
+final class UuidLongMap {
+    static final long MISSING = Long.MIN_VALUE;
+
+    private long[] high = new long[32];
+    private long[] low = new long[32];
+    private long[] values = new long[32];
+    private boolean[] used = new boolean[32];
+    private int uuidCount;
+    private final Map<String, Long> otherIds = new HashMap<>();
+
+    long get(String id) {
+        UUID uuid = Ids.parseUuid(id);
+        if (uuid == null) {
+            return otherIds.getOrDefault(id, MISSING);
+        }
+        int slot = find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        return used[slot] ? values[slot] : MISSING;
+    }
+
+    void put(String id, long value) {
+        UUID uuid = Ids.parseUuid(id);
+        if (uuid == null) {
+            otherIds.put(id, value);
+            return;
+        }
+        if ((uuidCount + 1) * 3 > used.length * 2) {
+            resize(used.length * 2);
+        }
+        int slot = find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        if (!used[slot]) {
+            used[slot] = true;
+            high[slot] = uuid.getMostSignificantBits();
+            low[slot] = uuid.getLeastSignificantBits();
+            uuidCount++;
+        }
+        values[slot] = value;
+    }
+
+    int size() {
+        return uuidCount + otherIds.size();
+    }
+
+    private int find(long h, long l) {
+        int mask = used.length - 1;
+        int slot = hash(h, l) & mask;
+        while (used[slot] && (high[slot] != h || low[slot] != l)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        long[] oldHigh = high;
+        long[] oldLow = low;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        high = new long[capacity];
+        low = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                int slot = find(oldHigh[i], oldLow[i]);
+                used[slot] = true;
+                high[slot] = oldHigh[i];
+                low[slot] = oldLow[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    static int hash(long high, long low) {
+        long h = (high ^ low) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
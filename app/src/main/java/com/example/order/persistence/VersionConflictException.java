@@ -0,0 +1,31 @@
+package com.example.order.persistence;
+
+/**
+ * The order is not at the version a conditional change expected, it was changed in between.
+ * Stackless, the message is formatted when read.
+ */
+public class VersionConflictException extends RuntimeException {
+    private final String orderId;
+    private final int expectedVersion;
+    private final int version;
+
+    public VersionConflictException(String orderId, int expectedVersion, int version) {
+        super(null, null, false, false);
+        this.orderId = orderId;
+        this.expectedVersion = expectedVersion;
+        this.version = version;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("Order with ID %s is at version %d, not %d!", orderId, version, expectedVersion);
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.order.persistence.journal;
+
+import akka.dispatch.Futures;
+import akka.persistence.AtomicWrite;
+import akka.persistence.PersistentRepr;
+import akka.persistence.journal.japi.AsyncWriteJournal;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import com.typesafe.config.Config;
+import scala.concurrent.Future;
+import scala.concurrent.Promise;
+import scala.jdk.javaapi.CollectionConverters;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Local journal plugin writing to a {@link SegmentLog} of memory-mapped segment files.
+ * <p>
+ * With {@code fsync = always} every write is forced to disk before it is acknowledged, with
+ * {@code batch} writes arriving within {@code fsync-interval} share one force and are acknowledged
+ * after it, and with {@code never} writes are acknowledged right away and flushed by the OS.
+ * Enable it with {@code akka.persistence.journal.plugin = "akka.persistence.journal.segment"}.
+ */
+public class SegmentJournal extends AsyncWriteJournal {
+
+    private enum Fsync {ALWAYS, BATCH, NEVER}
+
+    private final Serialization serialization = SerializationExtension.get(context().system());
+    private final SegmentLog log;
+    private final Fsync fsync;
+    private final Duration fsyncInterval;
+    private final ScheduledExecutorService flusher;
+    private List<Unflushed> unflushed = new ArrayList<>();
+
+    public SegmentJournal(Config config) {
+        this.log = new SegmentLog(Paths.get(config.getString("dir")),
+                (int) Math.min(config.getBytes("segment-size"), Integer.MAX_VALUE));
+        this.fsync = Fsync.valueOf(config.getString("fsync").toUpperCase());
+        this.fsyncInterval = config.getDuration("fsync-interval");
+        this.flusher = fsync == Fsync.BATCH
+                ? Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "segment-journal-flusher"))
+                : null;
+    }
+
+    @Override
+    public Future<Iterable<Optional<Exception>>> doAsyncWriteMessages(Iterable<AtomicWrite> messages) {
+        List<Optional<Exception>> results = new ArrayList<>();
+        try {
+            for (AtomicWrite write : messages) {
+                results.add(write(write));
+            }
+        } catch (RuntimeException e) {
+            return Futures.failed(e);
+        }
+        switch (fsync) {
+            case ALWAYS:
+                log.force();
+                return Futures.<Iterable<Optional<Exception>>>successful(results);
+            case BATCH:
+                return flushLater(results);
+            default:
+                return Futures.<Iterable<Optional<Exception>>>successful(results);
+        }
+    }
+
+    /**
+     * Serializes all events of the write before appending any, so a rejected write leaves nothing behind.
+     */
+    private Optional<Exception> write(AtomicWrite write) {
+        List<PersistentRepr> events = CollectionConverters.asJava(write.payload());
+        List<byte[]> payloads = new ArrayList<>(events.size());
+        for (PersistentRepr event : events) {
+            try {
+                payloads.add(serialization.serialize(event).get());
+            } catch (Exception e) {
+                return Optional.of(e);
+            }
+        }
+        for (int i = 0; i < events.size(); i++) {
+            log.append(events.get(i).persistenceId(), events.get(i).sequenceNr(), payloads.get(i));
+        }
+        return Optional.empty();
+    }
+
+    private Future<Iterable<Optional<Exception>>> flushLater(List<Optional<Exception>> results) {
+        Unflushed write = new Unflushed(results);
+        boolean first;
+        synchronized (this) {
+            first = unflushed.isEmpty();
+            unflushed.add(write);
+        }
+        if (first) {
+            flusher.schedule(this::flush, fsyncInterval.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        return write.promise.future();
+    }
+
+    private void flush() {
+        List<Unflushed> writes;
+        synchronized (this) {
+            writes = unflushed;
+            unflushed = new ArrayList<>();
+        }
+        try {
+            log.force();
+            writes.forEach(write -> write.promise.success(write.results));
+        } catch (RuntimeException e) {
+            writes.forEach(write -> write.promise.failure(e));
+        }
+    }
+
+    @Override
+    public Future<Void> doAsyncDeleteMessagesTo(String persistenceId, long toSequenceNr) {
+        log.delete(persistenceId, toSequenceNr);
+        if (fsync != Fsync.NEVER) {
+            log.force();
+        }
+        return Futures.successful(null);
+    }
+
+    @Override
+    public Future<Void> doAsyncReplayMessages(String persistenceId, long fromSequenceNr, long toSequenceNr, long max,
+                                              Consumer<PersistentRepr> replayCallback) {
+        try {
+            log.replay(persistenceId, fromSequenceNr, toSequenceNr, max, payload ->
+                    replayCallback.accept(serialization.deserialize(payload, PersistentRepr.class).get()));
+            return Futures.successful(null);
+        } catch (RuntimeException e) {
+            return Futures.failed(e);
+        }
+    }
+
+    @Override
+    public Future<Long> doAsyncReadHighestSequenceNr(String persistenceId, long fromSequenceNr) {
+        return Futures.successful(log.highestSequenceNr(persistenceId));
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        log.close();
+        super.postStop();
+    }
+
+    private static final class Unflushed {
+        final Promise<Iterable<Optional<Exception>>> promise = Futures.promise();
+        final Iterable<Optional<Exception>> results;
+
+        Unflushed(Iterable<Optional<Exception>> results) {
+            this.results = results;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.order.persistence.journal;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of journal entries in memory-mapped segment files.
+ * <p>
+ * Every record is written as {@code length, crc32, type, persistence id, sequence number, payload}
+ * right after the previous one. Segments are preallocated, so a zero length marks the end of the
+ * written part. When a record does not fit, the segment is forced to disk and a new one is mapped.
+ * Deletions are appended as markers. An in-memory index maps every persistence id to the sequence
+ * numbers and positions of its entries and is rebuilt by scanning the segments on open, stopping
+ * at the first torn record.
+ * <p>
+ * Appends and reads are serialized, {@link #force()} may run concurrently from another thread.
+ */
+@Slf4j
+final class SegmentLog {
+
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final byte WRITE = 1;
+    private static final byte DELETE = 2;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final Map<String, Entries> index = new HashMap<>();
+    private volatile MappedByteBuffer active;
+    private int writePosition;
+
+    SegmentLog(Path dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(dir);
+            for (int segment = 0; Files.exists(segmentPath(segment)); segment++) {
+                segments.add(map(segment, Files.size(segmentPath(segment))));
+                writePosition = scan(segment);
+            }
+            if (segments.isEmpty()) {
+                segments.add(map(0, segmentSize));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open journal in " + dir, e);
+        }
+        active = segments.get(segments.size() - 1);
+        log.info("Opened journal in {} with {} persistence ids in {} segments", dir, index.size(), segments.size());
+    }
+
+    synchronized void append(String persistenceId, long sequenceNr, byte[] payload) {
+        write(WRITE, persistenceId, sequenceNr, payload);
+        entries(persistenceId).add(sequenceNr, position(segments.size() - 1, writePosition));
+        writePosition += recordSize(persistenceId, payload);
+    }
+
+    synchronized void delete(String persistenceId, long toSequenceNr) {
+        write(DELETE, persistenceId, toSequenceNr, new byte[0]);
+        entries(persistenceId).deleteTo(toSequenceNr);
+        writePosition += recordSize(persistenceId, new byte[0]);
+    }
+
+    /**
+     * Passes the payloads of the not deleted entries in the given range to the consumer, at most max.
+     */
+    synchronized void replay(String persistenceId, long fromSequenceNr, long toSequenceNr, long max, Consumer<byte[]> consumer) {
+        Entries entries = index.get(persistenceId);
+        if (entries == null) return;
+        long replayed = 0;
+        for (int i = entries.indexOf(Math.max(fromSequenceNr, entries.deletedTo + 1));
+             i < entries.size && entries.sequenceNrs[i] <= toSequenceNr && replayed < max; i++, replayed++) {
+            consumer.accept(readPayload(entries.positions[i]));
+        }
+    }
+
+    synchronized long highestSequenceNr(String persistenceId) {
+        Entries entries = index.get(persistenceId);
+        return entries == null ? 0 : entries.highest;
+    }
+
+    /**
+     * Flushes everything appended so far to disk. Segments are forced when they are rolled, so only
+     * the active one needs it.
+     */
+    void force() {
+        active.force();
+    }
+
+    synchronized void close() {
+        active.force();
+        segments.clear();
+    }
+
+    private void write(byte type, String persistenceId, long sequenceNr, byte[] payload) {
+        int size = recordSize(persistenceId, payload);
+        if (writePosition + size > active.capacity()) {
+            roll(size);
+        }
+        byte[] id = persistenceId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(size - HEADER_BYTES)
+                .put(type).putShort((short) id.length).put(id).putLong(sequenceNr).put(payload)
+                .flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        // the length goes last, so a torn write never looks like a complete record
+        ByteBuffer target = active.duplicate();
+        target.position(writePosition + Integer.BYTES);
+        target.putInt((int) crc.getValue()).put(body);
+        active.putInt(writePosition, body.limit());
+    }
+
+    private void roll(int recordSize) {
+        try {
+            active.force();
+            int segment = segments.size();
+            segments.add(map(segment, Math.max(segmentSize, recordSize)));
+            active = segments.get(segment);
+            writePosition = 0;
+            log.debug("Rolled journal to segment {}", segmentPath(segment));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to roll journal segment in " + dir, e);
+        }
+    }
+
+    private int scan(int segment) {
+        MappedByteBuffer buffer = segments.get(segment);
+        int position = 0;
+        while (position + HEADER_BYTES < buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length > buffer.capacity()) break;
+            ByteBuffer body = buffer.duplicate().position(position + HEADER_BYTES).limit(position + HEADER_BYTES + length);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(position + Integer.BYTES)) {
+                log.warn("Ignoring torn record at {} in segment {}", position, segmentPath(segment));
+                break;
+            }
+            byte type = body.get();
+            String persistenceId = readId(body);
+            long sequenceNr = body.getLong();
+            if (type == WRITE) {
+                entries(persistenceId).add(sequenceNr, position(segment, position));
+            } else {
+                entries(persistenceId).deleteTo(sequenceNr);
+            }
+            position += HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private byte[] readPayload(long position) {
+        MappedByteBuffer segment = segments.get((int) (position >>> 32));
+        int offset = (int) position;
+        ByteBuffer body = segment.duplicate().position(offset + HEADER_BYTES).limit(offset + HEADER_BYTES + segment.getInt(offset));
+        body.get();
+        readId(body);
+        body.getLong();
+        byte[] payload = new byte[body.remaining()];
+        body.get(payload);
+        return payload;
+    }
+
+    private static String readId(ByteBuffer body) {
+        byte[] id = new byte[body.getShort()];
+        body.get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private Entries entries(String persistenceId) {
+        return index.computeIfAbsent(persistenceId, id -> new Entries());
+    }
+
+    private static int recordSize(String persistenceId, byte[] payload) {
+        return HEADER_BYTES + 1 + Short.BYTES + persistenceId.getBytes(StandardCharsets.UTF_8).length + Long.BYTES + payload.length;
+    }
+
+    private static long position(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private MappedByteBuffer map(int segment, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return dir.resolve(String.format("segment-%06d.log", segment));
+    }
+
+    /**
+     * Sequence numbers and positions of the entries of one persistence id in ascending order.
+     */
+    private static final class Entries {
+        long[] sequenceNrs = new long[8];
+        long[] positions = new long[8];
+        int size;
+        long highest;
+        long deletedTo;
+
+        void add(long sequenceNr, long position) {
+            if (size == sequenceNrs.length) {
+                sequenceNrs = Arrays.copyOf(sequenceNrs, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            sequenceNrs[size] = sequenceNr;
+            positions[size] = position;
+            size++;
+            highest = Math.max(highest, sequenceNr);
+        }
+
+        /** Drops the deleted entries, the highest sequence number stays. */
+        void deleteTo(long toSequenceNr) {
+            deletedTo = Math.max(deletedTo, Math.min(toSequenceNr, highest));
+            int first = indexOf(deletedTo + 1);
+            System.arraycopy(sequenceNrs, first, sequenceNrs, 0, size - first);
+            System.arraycopy(positions, first, positions, 0, size - first);
+            size -= first;
+        }
+
+        /** Index of the first entry with a sequence number of at least the given one. */
+        int indexOf(long sequenceNr) {
+            int i = Arrays.binarySearch(sequenceNrs, 0, size, sequenceNr);
+            return i >= 0 ? i : -i - 1;
+        }
+    }
+}
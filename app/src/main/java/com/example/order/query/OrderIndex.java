@@ -0,0 +1,168 @@
+package com.example.order.query;
+
+import com.example.order.persistence.Order;
+import com.example.order.persistence.OrderState;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Secondary indexes of the read side by creation, by state and by item SKU, updated with every
+ * order change.
+ * <p>
+ * Orders are keyed by their {@link Position}, the creation time persisted with the order and its
+ * id, so every index lists orders oldest first and a position is a stable place to continue a
+ * listing from, also after a restart loaded the orders in any order. A query walks the smallest
+ * index matching it and checks the other criteria on the current order, so it never visits orders
+ * outside that index.
+ */
+final class OrderIndex {
+
+    private final Index byCreation = new Index();
+    private final Map<OrderState, Index> byState = new EnumMap<>(OrderState.class);
+    private final Map<String, Index> bySku = new ConcurrentHashMap<>();
+
+    OrderIndex() {
+        for (OrderState state : OrderState.values()) {
+            byState.put(state, new Index());
+        }
+    }
+
+    /**
+     * Updates the indexes for a change of an order from the previous version, null for a new order,
+     * to the order, null for a removed order. Changes of the same order must not be concurrent.
+     */
+    void update(Order previous, Order order) {
+        if (previous == null && order == null) return;
+        if (previous == null) {
+            add(order);
+        } else if (order == null) {
+            remove(previous);
+        } else if (previous.createdAt != order.createdAt) {
+            // creation times don't change once persisted, moved anyway so a removal finds the order
+            add(order);
+            remove(previous);
+        } else if (previous.state != order.state) {
+            Position position = new Position(order);
+            byState.get(order.state).add(position);
+            byState.get(previous.state).remove(position);
+        }
+    }
+
+    private void add(Order order) {
+        Position position = new Position(order);
+        byCreation.add(position);
+        byState.get(order.state).add(position);
+        order.items.keySet().forEach(sku -> bySku.computeIfAbsent(sku, s -> new Index()).add(position));
+    }
+
+    private void remove(Order order) {
+        Position position = new Position(order);
+        byCreation.remove(position);
+        byState.get(order.state).remove(position);
+        // emptied SKU indexes are kept, SKUs are few compared to orders
+        order.items.keySet().forEach(sku -> bySku.get(sku).remove(position));
+    }
+
+    /**
+     * @param state  state of the listed orders, null for any
+     * @param sku    SKU the listed orders contain, null for any
+     * @param after  position of the last order of the previous page, null for the first page
+     * @param limit  most orders to list
+     * @param lookup current version of an order by id
+     */
+    OrderPage query(OrderState state, String sku, Position after, int limit, Function<String, Order> lookup) {
+        Index index = state != null ? byState.get(state) : byCreation;
+        if (sku != null) {
+            Index skuIndex = bySku.get(sku);
+            if (skuIndex == null) {
+                return new OrderPage(List.of(), null);
+            }
+            if (skuIndex.size() < index.size()) {
+                index = skuIndex;
+            }
+        }
+        List<Order> orders = new ArrayList<>(Math.min(limit, 1024));
+        Position last = after;
+        for (Position position : index.after(after)) {
+            Order order = lookup.apply(position.orderId);
+            // the order may have changed or been removed since it was indexed
+            if (order == null || (state != null && order.state != state) || (sku != null && !order.items.containsKey(sku))) {
+                continue;
+            }
+            if (orders.size() == limit) {
+                return new OrderPage(orders, OrderPage.cursor(last));
+            }
+            orders.add(order);
+            last = position;
+        }
+        return new OrderPage(orders, null);
+    }
+
+    /**
+     * Place of an order in the indexes, by creation time and then by id for orders created in the
+     * same millisecond or before creation times were persisted.
+     */
+    static final class Position implements Comparable<Position> {
+        final long createdAt;
+        final String orderId;
+
+        Position(long createdAt, String orderId) {
+            this.createdAt = createdAt;
+            this.orderId = orderId;
+        }
+
+        Position(Order order) {
+            this(order.createdAt, order.id);
+        }
+
+        @Override
+        public int compareTo(Position other) {
+            int byTime = Long.compare(createdAt, other.createdAt);
+            return byTime != 0 ? byTime : orderId.compareTo(other.orderId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Position && compareTo((Position) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(createdAt) * 31 + orderId.hashCode();
+        }
+    }
+
+    /** Orders by position with a size kept alongside, counting a skip list is linear. */
+    private static final class Index {
+        private final ConcurrentSkipListSet<Position> orders = new ConcurrentSkipListSet<>();
+        private final LongAdder size = new LongAdder();
+
+        void add(Position position) {
+            if (orders.add(position)) {
+                size.increment();
+            }
+        }
+
+        void remove(Position position) {
+            if (orders.remove(position)) {
+                size.decrement();
+            }
+        }
+
+        long size() {
+            return size.sum();
+        }
+
+        NavigableSet<Position> after(Position position) {
+            return position == null ? orders : orders.tailSet(position, false);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.order.query;
+
+import com.example.order.persistence.Order;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * One page of an order listing. The cursor continues the listing after the last order of the
+ * page, also after a restart, and is null on the last page. It carries the creation time and id
+ * of that order.
+ */
+@Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class OrderPage {
+    List<Order> orders;
+    String nextCursor;
+
+    static String cursor(OrderIndex.Position position) {
+        return Long.toString(position.createdAt, Character.MAX_RADIX) + "." + position.orderId;
+    }
+
+    /**
+     * @return the position the cursor continues after, null for a null cursor
+     * @throws IllegalArgumentException if the cursor was not issued by a listing
+     */
+    static OrderIndex.Position after(String cursor) {
+        if (cursor == null) return null;
+        int separator = cursor.indexOf('.');
+        if (separator > 0 && separator < cursor.length() - 1) {
+            try {
+                long createdAt = Long.parseLong(cursor.substring(0, separator), Character.MAX_RADIX);
+                if (createdAt >= 0) return new OrderIndex.Position(createdAt, cursor.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+        }
+        throw new IllegalArgumentException("Invalid cursor " + cursor);
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.order.query;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Extension;
+import akka.actor.typed.ExtensionId;
+import akka.actor.typed.Scheduler;
+import com.example.order.persistence.ClosedOrderStore;
+import com.example.order.metrics.OrderMetrics;
+import com.example.order.persistence.Order;
+import com.example.order.persistence.OrderState;
+import com.typesafe.config.Config;
+import scala.concurrent.ExecutionContextExecutor;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Query side of the orders, fed with every order change persisted by the persistence actors and
+ * read without going through them.
+ * <p>
+ * With read-your-writes on, changes are applied before the persistence actor replies, so a client
+ * sees its own writes. With it off, changes are queued and applied on the dispatcher to keep the
+ * work off the writer, and readers may briefly see the previous version of an order.
+ */
+public class OrderReadModel implements Extension {
+
+    public static final ExtensionId<OrderReadModel> ID = new ExtensionId<>() {
+        @Override
+        public OrderReadModel createExtension(ActorSystem<?> system) {
+            Config config = system.settings().config();
+            OrderReadModel readModel = config.hasPath("order.read-side")
+                    ? new OrderReadModel(config.getBoolean("order.read-side.read-your-writes"),
+                            config.getBoolean("order.read-side.fallback-to-write-side"),
+                            system.scheduler(), system.executionContext(), ClosedOrderStore.get(system))
+                    : new OrderReadModel(true, true, system.scheduler(), system.executionContext(), ClosedOrderStore.get(system));
+            readModel.registerMetrics(OrderMetrics.get(system));
+            return readModel;
+        }
+    };
+
+    private final boolean readYourWrites;
+    private final boolean fallbackToWriteSide;
+    private final ExecutionContextExecutor executor;
+    private final ClosedOrderStore closedOrders;
+    private final Map<String, Order> orders = new ConcurrentHashMap<>();
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong lastLagNanos = new AtomicLong();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private final LongAdder[] ordersByState = new LongAdder[OrderState.values().length];
+    private final OrderIndex index = new OrderIndex();
+    private final OrderSubscriptions subscriptions;
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+
+    OrderReadModel(boolean readYourWrites, boolean fallbackToWriteSide, Scheduler scheduler,
+                   ExecutionContextExecutor executor, ClosedOrderStore closedOrders) {
+        this.readYourWrites = readYourWrites;
+        this.fallbackToWriteSide = fallbackToWriteSide;
+        this.executor = executor;
+        this.closedOrders = closedOrders;
+        this.subscriptions = new OrderSubscriptions(scheduler, executor);
+        for (int i = 0; i < ordersByState.length; i++) {
+            ordersByState[i] = new LongAdder();
+        }
+    }
+
+    private void registerMetrics(OrderMetrics metrics) {
+        for (OrderState state : OrderState.values()) {
+            metrics.gauge("order_orders", "Orders known to the read side per state.", () -> count(state),
+                    "state", state.name());
+        }
+        metrics.gauge("order_read_model_pending_changes", "Order changes not yet visible to readers.", this::pendingChanges);
+        metrics.nanosGauge("order_read_model_lag_seconds", "Time between persisting and applying the most recent change.",
+                this::lastLagNanos);
+        metrics.gauge("order_subscribers", "Clients waiting for an order to change.", subscriptions::size);
+    }
+
+    public static OrderReadModel get(ActorSystem<?> system) {
+        return ID.get(system);
+    }
+
+    /**
+     * @return the latest known version of the order, open or closed, null if unknown to the read side
+     */
+    public Order find(String orderId) {
+        Order order = orders.get(orderId);
+        return order != null ? order : closedOrders.get(orderId);
+    }
+
+    /**
+     * Weakly consistent iteration over the open orders followed by the evicted closed orders,
+     * without copying them. Complete only once {@link #isLoaded()}.
+     */
+    public Iterator<Order> iterator() {
+        Iterator<Order> open = orders.values().iterator();
+        Iterator<Order> closed = closedOrders.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return open.hasNext() || closed.hasNext();
+            }
+
+            @Override
+            public Order next() {
+                return open.hasNext() ? open.next() : closed.next();
+            }
+        };
+    }
+
+    /**
+     * Lists open orders oldest first from the secondary indexes, without visiting orders outside
+     * the smallest index matching the criteria. Closed orders evicted to the closed order store
+     * are not listed, open orders are complete only once {@link #isLoaded()}.
+     *
+     * @param state  state of the listed orders, null for any
+     * @param sku    SKU the listed orders contain, null for any
+     * @param limit  most orders on the page
+     * @param cursor next cursor of the previous page, null for the first page
+     * @throws IllegalArgumentException if the cursor was not issued by a listing
+     */
+    public OrderPage list(OrderState state, String sku, int limit, String cursor) {
+        return index.query(state, sku, OrderPage.after(cursor), limit, orders::get);
+    }
+
+    /**
+     * Waits for the order to match the condition without holding a thread, e.g. to change its
+     * state. Completes with the order right away if it already matches, otherwise with the first
+     * version applied to the read side that does, or with the current version once the timeout
+     * passed, null if the order is unknown by then.
+     */
+    public CompletionStage<Order> await(String orderId, Predicate<Order> condition, Duration timeout) {
+        return subscriptions.await(orderId, condition, timeout, this::find);
+    }
+
+    /**
+     * Whether lookups missing on the read side should be answered by the persistence actors, which
+     * covers orders of entities not started yet and requests arriving before recovery finished.
+     */
+    public boolean isFallbackToWriteSide() {
+        return fallbackToWriteSide;
+    }
+
+    /**
+     * Marks the read side as missing the orders of the loader, e.g. a persistence actor recovering
+     * or the per-order entities being started after a restart, until the loader {@link #loaded}
+     * them. Marking the same loader again, e.g. once restarted, is a no-op.
+     */
+    public void loading(String loader) {
+        loading.add(loader);
+    }
+
+    public void loaded(String loader) {
+        // queued behind the orders of the loader, so it counts as loaded once they are visible
+        apply(new Change(null, null, loader));
+    }
+
+    /**
+     * Whether the read side holds every order, so listings and exports are not silently partial.
+     * Lookups of single orders fall back to the write side meanwhile.
+     */
+    public boolean isLoaded() {
+        return loading.isEmpty();
+    }
+
+    public void orderChanged(Order order) {
+        apply(new Change(order.id, order, null));
+    }
+
+    public void orderRemoved(String orderId) {
+        apply(new Change(orderId, null, null));
+    }
+
+    public int size() {
+        return orders.size();
+    }
+
+    /**
+     * @return the number of orders in the state, closed orders evicted to the closed order store included
+     */
+    public long count(OrderState state) {
+        long count = ordersByState[state.ordinal()].sum();
+        return state == OrderState.CLOSED ? count + closedOrders.size() : count;
+    }
+
+    /** Changes not yet visible to readers. */
+    public int pendingChanges() {
+        return pending.get();
+    }
+
+    /** Time between persisting and applying the most recent change. */
+    public long lastLagNanos() {
+        return lastLagNanos.get();
+    }
+
+    /** Highest lag since the last call. */
+    public long takeMaxLagNanos() {
+        return maxLagNanos.getAndSet(0);
+    }
+
+    private void apply(Change change) {
+        if (readYourWrites) {
+            update(change);
+            return;
+        }
+        pending.incrementAndGet();
+        changes.add(change);
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        Change change;
+        while ((change = changes.poll()) != null) {
+            update(change);
+            pending.decrementAndGet();
+            long lag = System.nanoTime() - change.createdAt;
+            lastLagNanos.set(lag);
+            maxLagNanos.accumulateAndGet(lag, Math::max);
+        }
+        draining.set(false);
+        // a change added after the last poll but before resetting the flag has no drain scheduled
+        if (!changes.isEmpty() && draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void update(Change change) {
+        if (change.loader != null) {
+            loading.remove(change.loader);
+            return;
+        }
+        Order previous = change.order == null
+                ? orders.remove(change.orderId)
+                : orders.put(change.orderId, change.order);
+        if (previous != null) {
+            ordersByState[previous.state.ordinal()].decrement();
+        }
+        if (change.order != null) {
+            ordersByState[change.order.state.ordinal()].increment();
+        }
+        index.update(previous, change.order);
+        // removals evict orders already published as closed, they don't change for subscribers
+        if (change.order != null && subscriptions.isWatched(change.orderId)) {
+            subscriptions.changed(change.order);
+        }
+    }
+
+    private static final class Change {
+        final String orderId;
+        final Order order;
+        /** Loader done loading, instead of an order change. */
+        final String loader;
+        final long createdAt = System.nanoTime();
+
+        Change(String orderId, Order order, String loader) {
+            this.orderId = orderId;
+            this.order = order;
+            this.loader = loader;
+        }
+    }
+}
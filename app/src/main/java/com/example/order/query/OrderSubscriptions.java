@@ -0,0 +1,140 @@
+package com.example.order.query;
+
+import akka.actor.Cancellable;
+import akka.actor.typed.Scheduler;
+import com.example.order.persistence.Order;
+import scala.concurrent.ExecutionContextExecutor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Clients waiting for changes of single orders, e.g. long polls and server-sent event streams.
+ * <p>
+ * A waiting client is just a future registered under the order id, there is no thread, actor or
+ * stream per subscriber. Publishing a change of an order nobody waits for costs one map lookup.
+ * Matching waiters are completed on the executor, off the thread publishing the change, and
+ * timeouts run on the hashed wheel of the scheduler.
+ */
+final class OrderSubscriptions {
+
+    private final Map<String, Waiter[]> waiters = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Scheduler scheduler;
+    private final ExecutionContextExecutor executor;
+
+    OrderSubscriptions(Scheduler scheduler, ExecutionContextExecutor executor) {
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    /**
+     * Completes with the order once a change matches the condition, right away if the current
+     * order already does, or with the current order once the timeout passed.
+     *
+     * @param lookup current order by id, null if unknown
+     */
+    CompletableFuture<Order> await(String orderId, Predicate<Order> condition, Duration timeout, Function<String, Order> lookup) {
+        Waiter waiter = new Waiter(orderId, condition);
+        waiters.merge(orderId, new Waiter[]{waiter}, OrderSubscriptions::concat);
+        size.incrementAndGet();
+        // registered before looking at the order, so a change applied in between is not missed
+        Order current = lookup.apply(orderId);
+        if (current != null && condition.test(current)) {
+            if (remove(waiter)) {
+                waiter.complete(current);
+            }
+        } else {
+            waiter.timeout = scheduler.scheduleOnce(timeout, () -> {
+                if (remove(waiter)) {
+                    waiter.complete(lookup.apply(orderId));
+                }
+            }, executor);
+        }
+        return waiter;
+    }
+
+    boolean isWatched(String orderId) {
+        return waiters.containsKey(orderId);
+    }
+
+    void changed(Order order) {
+        if (!waiters.containsKey(order.id)) return;
+        List<Waiter> matched = new ArrayList<>();
+        waiters.computeIfPresent(order.id, (id, current) -> {
+            Waiter[] remaining = new Waiter[current.length];
+            int count = 0;
+            for (Waiter waiter : current) {
+                if (waiter.condition.test(order)) {
+                    matched.add(waiter);
+                } else {
+                    remaining[count++] = waiter;
+                }
+            }
+            return count == 0 ? null : count == current.length ? current : Arrays.copyOf(remaining, count);
+        });
+        if (matched.isEmpty()) return;
+        size.addAndGet(-matched.size());
+        executor.execute(() -> {
+            for (Waiter waiter : matched) {
+                Cancellable timeout = waiter.timeout;
+                if (timeout != null) {
+                    // a timeout scheduled after the change found the waiter removed and does nothing
+                    timeout.cancel();
+                }
+                waiter.complete(order);
+            }
+        });
+    }
+
+    /** Clients currently waiting. */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * @return whether the waiter was still registered, i.e. this call owns completing it
+     */
+    private boolean remove(Waiter waiter) {
+        boolean[] removed = new boolean[1];
+        waiters.computeIfPresent(waiter.orderId, (id, current) -> {
+            int index = Arrays.asList(current).indexOf(waiter);
+            if (index < 0) return current;
+            removed[0] = true;
+            if (current.length == 1) return null;
+            Waiter[] remaining = new Waiter[current.length - 1];
+            System.arraycopy(current, 0, remaining, 0, index);
+            System.arraycopy(current, index + 1, remaining, index, remaining.length - index);
+            return remaining;
+        });
+        if (removed[0]) {
+            size.decrementAndGet();
+        }
+        return removed[0];
+    }
+
+    private static Waiter[] concat(Waiter[] current, Waiter[] added) {
+        Waiter[] all = Arrays.copyOf(current, current.length + added.length);
+        System.arraycopy(added, 0, all, current.length, added.length);
+        return all;
+    }
+
+    private static final class Waiter extends CompletableFuture<Order> {
+        final String orderId;
+        final Predicate<Order> condition;
+        volatile Cancellable timeout;
+
+        Waiter(String orderId, Predicate<Order> condition) {
+            this.orderId = orderId;
+            this.condition = condition;
+        }
+    }
+}
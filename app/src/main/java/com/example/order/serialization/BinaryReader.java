@@ -0,0 +1,66 @@
+package com.example.order.serialization;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Reads data written by {@link BinaryWriter}.
+ */
+public final class BinaryReader {
+    private final byte[] buffer;
+    private int position;
+
+    public BinaryReader(byte[] buffer) {
+        this.buffer = buffer;
+    }
+
+    public int readByte() {
+        return buffer[position++] & 0xFF;
+    }
+
+    public long readLong() {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buffer[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer[position++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint at position " + position);
+    }
+
+    public int readSignedVarInt() {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public String readString() {
+        int length = readVarInt();
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    public String readId() {
+        if (readByte() == 0) {
+            return new UUID(readLong(), readLong()).toString();
+        }
+        return readString();
+    }
+
+    public <E extends Enum<E>> E readEnum(E[] values) {
+        int ordinal = readByte();
+        return ordinal == 0 ? null : values[ordinal - 1];
+    }
+
+    public boolean hasRemaining() {
+        return position < buffer.length;
+    }
+}
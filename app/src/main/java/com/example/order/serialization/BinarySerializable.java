@@ -0,0 +1,8 @@
+package com.example.order.serialization;
+
+/**
+ * Marker for messages with a compact binary format. Extends {@link JsonSerializable} so data written
+ * with Jackson before switching the binding can still be read.
+ */
+public interface BinarySerializable extends JsonSerializable {
+}
@@ -0,0 +1,39 @@
+package com.example.order.serialization;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class Ids {
+    private static final int MAX_INTERNED_SKUS = 100_000;
+    private static final ConcurrentHashMap<String, String> SKUS = new ConcurrentHashMap<>();
+
+    private Ids() {
+    }
+
+    /**
+     * Returns the UUID for a canonical (lower case, 36 char) UUID string, null for any other id.
+     */
+    public static UUID parseUuid(String id) {
+        if (id == null || id.length() != 36 || id.charAt(8) != '-' || id.charAt(13) != '-'
+                || id.charAt(18) != '-' || id.charAt(23) != '-') {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(id);
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Deduplicates item SKUs read from the journal, the set of SKUs is small compared to the orders.
+     */
+    public static String internSku(String sku) {
+        String interned = SKUS.get(sku);
+        if (interned != null) return interned;
+        if (SKUS.size() >= MAX_INTERNED_SKUS) return sku;
+        interned = SKUS.putIfAbsent(sku, sku);
+        return interned == null ? sku : interned;
+    }
+}
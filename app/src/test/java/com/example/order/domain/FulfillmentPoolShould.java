@@ -0,0 +1,116 @@
+package com.example.order.domain;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FulfillmentPoolShould {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+    @Test
+    public void passResultToRequesterOfOrder() {
+        ActorRef<FulfillmentActor.Command> pool = testKit.spawn(FulfillmentPool.create(FulfillmentSettings.defaults()));
+        TestProbe<OrderActor.Command> probe = testKit.createTestProbe();
+
+        pool.tell(new FulfillmentActor.Fulfill("a", probe.ref()));
+        pool.tell(new FulfillmentActor.Fulfill("b", probe.ref()));
+
+        List<String> orderIds = probe.receiveSeveralMessages(2).stream()
+                .map(cmd -> ((OrderActor.Close) cmd).orderId)
+                .collect(Collectors.toList());
+        assertThat(orderIds).containsExactlyInAnyOrder("a", "b");
+    }
+
+    @Test
+    public void fulfillAnOrderRequestedTwiceOnceAndAnswerBothRequesters() {
+        ActorRef<FulfillmentActor.Command> pool = testKit.spawn(FulfillmentPool.create(FulfillmentSettings.defaults().toBuilder()
+                .parallelism(1)
+                .build()));
+        TestProbe<OrderActor.Command> first = testKit.createTestProbe();
+        TestProbe<OrderActor.Command> second = testKit.createTestProbe();
+
+        pool.tell(new FulfillmentActor.Fulfill("c", first.ref()));
+        pool.tell(new FulfillmentActor.Fulfill("c", second.ref()));
+        pool.tell(new FulfillmentActor.Fulfill("d", first.ref()));
+
+        assertThat(((OrderActor.Close) first.receiveMessage()).orderId).isEqualTo("c");
+        assertThat(((OrderActor.Close) second.receiveMessage()).orderId).isEqualTo("c");
+        assertThat(((OrderActor.Close) first.receiveMessage()).orderId).isEqualTo("d");
+        second.expectNoMessage(Duration.ofMillis(100));
+    }
+
+    @Test
+    public void replaceWorkersThatDoNotAnswerInTime() {
+        FulfillmentMetrics metrics = FulfillmentMetrics.get(testKit.system());
+        long timedOut = metrics.timedOut();
+        ActorRef<FulfillmentActor.Command> pool = testKit.spawn(FulfillmentPool.create(FulfillmentSettings.defaults().toBuilder()
+                .parallelism(1)
+                .simulatedLatency(Duration.ofMillis(500))
+                .timeout(Duration.ofMillis(100))
+                .build()));
+        TestProbe<OrderActor.Command> probe = testKit.createTestProbe();
+
+        pool.tell(new FulfillmentActor.Fulfill("e", probe.ref()));
+        pool.tell(new FulfillmentActor.Fulfill("f", probe.ref()));
+
+        // the second order only gets a worker once the stuck one is replaced
+        probe.awaitAssert(Duration.ofMillis(450), () -> assertThat(metrics.timedOut()).isEqualTo(timedOut + 2));
+        probe.expectNoMessage(Duration.ofMillis(100));
+    }
+
+    @Test
+    public void rejectOrdersBeyondMaxQueued() {
+        FulfillmentMetrics metrics = FulfillmentMetrics.get(testKit.system());
+        long rejected = metrics.rejected();
+        ActorRef<FulfillmentActor.Command> pool = testKit.spawn(FulfillmentPool.create(FulfillmentSettings.defaults().toBuilder()
+                .parallelism(1)
+                .maxQueued(1)
+                .simulatedLatency(Duration.ofMillis(100))
+                .build()));
+        TestProbe<OrderActor.Command> probe = testKit.createTestProbe();
+
+        pool.tell(new FulfillmentActor.Fulfill("g", probe.ref()));
+        pool.tell(new FulfillmentActor.Fulfill("h", probe.ref()));
+        pool.tell(new FulfillmentActor.Fulfill("i", probe.ref()));
+
+        List<String> orderIds = probe.receiveSeveralMessages(2).stream()
+                .map(cmd -> ((OrderActor.Close) cmd).orderId)
+                .collect(Collectors.toList());
+        assertThat(orderIds).containsExactly("g", "h");
+        assertThat(metrics.rejected()).isEqualTo(rejected + 1);
+        probe.expectNoMessage(Duration.ofMillis(200));
+    }
+
+    @Test
+    public void scaleThroughputWithParallelism() {
+        long sequential = fulfill(1, 16);
+        long parallel = fulfill(8, 16);
+
+        assertThat(sequential).isGreaterThanOrEqualTo(Duration.ofMillis(16 * 50).toNanos());
+        assertThat(parallel).isLessThan(sequential / 3);
+    }
+
+    private long fulfill(int parallelism, int orders) {
+        ActorRef<FulfillmentActor.Command> pool = testKit.spawn(FulfillmentPool.create(FulfillmentSettings.defaults().toBuilder()
+                .parallelism(parallelism)
+                .simulatedLatency(Duration.ofMillis(50))
+                .build()));
+        TestProbe<OrderActor.Command> probe = testKit.createTestProbe();
+        long start = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            pool.tell(new FulfillmentActor.Fulfill("order-" + i, probe.ref()));
+        }
+        probe.receiveSeveralMessages(orders, Duration.ofSeconds(5));
+        return System.nanoTime() - start;
+    }
+}
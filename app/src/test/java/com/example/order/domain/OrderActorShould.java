@@ -0,0 +1,93 @@
+package com.example.order.domain;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.pattern.StatusReply;
+import akka.persistence.testkit.javadsl.EventSourcedBehaviorTestKit;
+import com.example.order.persistence.FulfillmentResult;
+import com.example.order.persistence.Order;
+import com.example.order.persistence.OrderState;
+import com.example.order.persistence.PersistenceActor;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OrderActorShould {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(ConfigFactory.parseString(
+            "akka.actor.serialization-bindings { \"com.example.order.serialization.JsonSerializable\" = jackson-json}")
+            .withFallback(EventSourcedBehaviorTestKit.config()));
+
+    private static final FulfillmentSettings SETTINGS = FulfillmentSettings.defaults().toBuilder()
+            .timeout(Duration.ofMillis(200))
+            .minBackoff(Duration.ofMillis(50))
+            .maxBackoff(Duration.ofMillis(100))
+            .maxAttempts(2)
+            .build();
+
+    private ActorRef<PersistenceActor.PersistenceCommand> persistenceActor;
+    private TestProbe<FulfillmentActor.Command> fulfillment;
+    private ActorRef<OrderActor.Command> orderActor;
+
+    @Before
+    public void spawn() {
+        persistenceActor = testKit.spawn(PersistenceActor.create());
+        fulfillment = testKit.createTestProbe();
+        orderActor = testKit.spawn(OrderActor.create(persistenceActor, fulfillment.ref(), SETTINGS));
+    }
+
+    @After
+    public void stop() {
+        testKit.stop(orderActor);
+        testKit.stop(persistenceActor);
+    }
+
+    @Test
+    public void retryFulfillmentWithoutResult() {
+        pay("retried");
+
+        assertThat(fulfillment.expectMessageClass(FulfillmentActor.Fulfill.class).orderId).isEqualTo("retried");
+        assertThat(fulfillment.expectMessageClass(FulfillmentActor.Fulfill.class, Duration.ofSeconds(2)).orderId).isEqualTo("retried");
+        orderActor.tell(new OrderActor.Close("retried", FulfillmentResult.SUCCESS));
+
+        assertThat(awaitClosed("retried").fulfillmentResult).isEqualTo(FulfillmentResult.SUCCESS);
+    }
+
+    @Test
+    public void closeAsFailedAfterMaxAttempts() {
+        pay("abandoned");
+
+        fulfillment.receiveSeveralMessages(2, Duration.ofSeconds(2));
+
+        assertThat(awaitClosed("abandoned").fulfillmentResult).isEqualTo(FulfillmentResult.FAILURE);
+        fulfillment.expectNoMessage(Duration.ofMillis(300));
+    }
+
+    private void pay(String orderId) {
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+        persistenceActor.tell(new PersistenceActor.Create(
+                new Order(orderId, Map.of("TV", 1), OrderState.CREATED, FulfillmentResult.NO_RESULT), probe.ref()));
+        probe.expectMessageClass(StatusReply.class);
+        orderActor.tell(new OrderActor.ChangeState(orderId, OrderState.PAID, probe.ref()));
+        assertThat(probe.receiveMessage().getValue().state).isEqualTo(OrderState.PAID);
+    }
+
+    private Order awaitClosed(String orderId) {
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+        return probe.awaitAssert(Duration.ofSeconds(2), () -> {
+            persistenceActor.tell(new PersistenceActor.Get(orderId, probe.ref()));
+            Order order = probe.receiveMessage().getValue();
+            assertThat(order.state).isEqualTo(OrderState.CLOSED);
+            return order;
+        });
+    }
+}
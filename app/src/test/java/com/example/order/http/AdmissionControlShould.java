@@ -0,0 +1,57 @@
+package com.example.order.http;
+
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.RetryAfter;
+import akka.http.javadsl.testkit.JUnitRouteTest;
+import akka.http.javadsl.testkit.TestRoute;
+import com.example.order.metrics.OrderMetrics;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdmissionControlShould extends JUnitRouteTest {
+
+    private final OrderMetrics metrics = new OrderMetrics();
+    private final AdmissionControl admission = new AdmissionControl(AdmissionSettings.defaults().toBuilder()
+            .initialLimit(2)
+            .minLimit(2)
+            .writeShare(0.5)
+            .build(), metrics);
+    private final TestRoute route = testRoute(admission.admit("test", () -> complete("ok")));
+
+    @Test
+    public void answerWith503AndRetryAfterOnceTheLimitIsReached() {
+        admission.limiter("test").tryAcquire(ConcurrencyLimiter.Priority.READ);
+        admission.limiter("test").tryAcquire(ConcurrencyLimiter.Priority.READ);
+
+        route.run(HttpRequest.GET("/"))
+                .assertStatusCode(StatusCodes.SERVICE_UNAVAILABLE)
+                .assertHeaderExists(RetryAfter.create(1));
+        assertThat(metrics.prometheus()).contains("order_admission_rejected_total{route=\"test\",priority=\"read\"} 1");
+
+        admission.limiter("test").release(0, false);
+        route.run(HttpRequest.GET("/"))
+                .assertStatusCode(StatusCodes.OK)
+                .assertEntity("ok");
+        assertThat(admission.limiter("test").inFlight()).isEqualTo(1);
+    }
+
+    @Test
+    public void shedWritesBeforeReads() {
+        admission.limiter("test").tryAcquire(ConcurrencyLimiter.Priority.WRITE);
+
+        route.run(HttpRequest.POST("/")).assertStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+        route.run(HttpRequest.GET("/")).assertStatusCode(StatusCodes.OK);
+    }
+
+    @Test
+    public void limitEveryRouteOnItsOwn() {
+        TestRoute other = testRoute(admission.admit("other", () -> complete("ok")));
+        admission.limiter("test").tryAcquire(ConcurrencyLimiter.Priority.READ);
+        admission.limiter("test").tryAcquire(ConcurrencyLimiter.Priority.READ);
+
+        route.run(HttpRequest.GET("/")).assertStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+        other.run(HttpRequest.GET("/")).assertStatusCode(StatusCodes.OK);
+    }
+}
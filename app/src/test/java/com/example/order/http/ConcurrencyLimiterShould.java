@@ -0,0 +1,98 @@
+package com.example.order.http;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static com.example.order.http.ConcurrencyLimiter.Priority.READ;
+import static com.example.order.http.ConcurrencyLimiter.Priority.WRITE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class ConcurrencyLimiterShould {
+
+    private static final long FAST = Duration.ofMillis(1).toNanos();
+    private static final long SLOW = Duration.ofSeconds(1).toNanos();
+
+    private final AdmissionSettings settings = AdmissionSettings.defaults().toBuilder()
+            .initialLimit(10)
+            .minLimit(5)
+            .maxLimit(20)
+            .targetLatency(Duration.ofMillis(100))
+            .backoffRatio(0.5)
+            .writeShare(0.8)
+            .build();
+
+    @Test
+    public void admitReadsUpToTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(settings);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(limiter.tryAcquire(READ)).isTrue();
+        }
+
+        assertThat(limiter.tryAcquire(READ)).isFalse();
+        assertThat(limiter.inFlight()).isEqualTo(10);
+        assertThat(limiter.rejectedReads.sum()).isEqualTo(1);
+    }
+
+    @Test
+    public void keepTheRestOfTheLimitForReadsOnceWritesUsedTheirShare() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(settings);
+
+        for (int i = 0; i < 8; i++) {
+            assertThat(limiter.tryAcquire(WRITE)).isTrue();
+        }
+
+        assertThat(limiter.tryAcquire(WRITE)).isFalse();
+        assertThat(limiter.tryAcquire(READ)).isTrue();
+        assertThat(limiter.tryAcquire(READ)).isTrue();
+        assertThat(limiter.tryAcquire(READ)).isFalse();
+        assertThat(limiter.rejectedWrites.sum()).isEqualTo(1);
+    }
+
+    @Test
+    public void lowerTheLimitOncePerTargetLatencyWhenRequestsAreSlow() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(settings);
+        Thread.sleep(settings.getTargetLatency().toMillis());
+
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire(READ);
+        }
+        limiter.release(SLOW, false);
+        limiter.release(SLOW, false);
+        limiter.release(FAST, true);
+
+        assertThat(limiter.limit()).isEqualTo(5);
+        assertThat(limiter.inFlight()).isZero();
+    }
+
+    @Test
+    public void raiseTheLimitWhenFastRequestsUseMostOfIt() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(settings);
+
+        limiter.tryAcquire(READ);
+        limiter.release(FAST, false);
+        assertThat(limiter.limit()).isEqualTo(10);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire(READ);
+        }
+        limiter.release(FAST, false);
+
+        assertThat(limiter.limit()).isCloseTo(10.1, within(1e-9));
+    }
+
+    @Test
+    public void stayWithinTheConfiguredBounds() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(settings);
+
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(settings.getTargetLatency().toMillis());
+            limiter.tryAcquire(READ);
+            limiter.release(SLOW, false);
+        }
+
+        assertThat(limiter.limit()).isEqualTo(settings.getMinLimit());
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.order.http;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.RetryAfter;
+import akka.http.javadsl.testkit.JUnitRouteTest;
+import akka.http.javadsl.testkit.TestRoute;
+import akka.http.javadsl.testkit.TestRouteResult;
+import akka.pattern.StatusReply;
+import com.example.order.domain.OrderActor;
+import com.example.order.persistence.OrderNotFoundException;
+import com.example.order.persistence.PersistenceActor;
+import com.typesafe.config.ConfigFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OrderRoutesOverloadShould extends JUnitRouteTest {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(ConfigFactory.parseString(
+            "order.http.admission {\n" +
+            "  enabled = on\n" +
+            "  initial-limit = 2\n" +
+            "  min-limit = 2\n" +
+            "  max-limit = 2\n" +
+            "  target-latency = 500 ms\n" +
+            "  backoff-ratio = 0.9\n" +
+            "  write-share = 0.5\n" +
+            "  retry-after = 1 s\n" +
+            "}"));
+
+    private final TestProbe<PersistenceActor.PersistenceCommand> persistence = testKit.createTestProbe();
+    private final TestProbe<OrderActor.Command> orderActor = testKit.createTestProbe();
+    private final TestRoute appRoute = testRoute(new OrderRoutes(testKit.system(), persistence.ref(), orderActor.ref()).userRoutes());
+
+    @Test
+    public void answer_requests_beyond_the_limit_of_their_route_with_503_right_away_while_persistence_is_slow() throws Exception {
+        CompletableFuture<TestRouteResult> admitted = CompletableFuture.supplyAsync(() -> appRoute.run(createOrder()));
+        PersistenceActor.Create create = persistence.expectMessageClass(PersistenceActor.Create.class);
+
+        long start = System.nanoTime();
+        appRoute.run(createOrder())
+                .assertStatusCode(StatusCodes.SERVICE_UNAVAILABLE)
+                .assertHeaderExists(RetryAfter.create(1));
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+        persistence.expectNoMessage(Duration.ofMillis(100));
+        // other routes have limits of their own
+        appRoute.run(HttpRequest.GET("/orders")).assertStatusCode(StatusCodes.OK);
+
+        create.replyTo.tell(StatusReply.success(create.order));
+        admitted.get(5, TimeUnit.SECONDS).assertStatusCode(StatusCodes.CREATED);
+    }
+
+    @Test
+    public void admit_write_side_lookups_of_long_polls_by_the_limit_of_their_route() throws Exception {
+        String orderId = UUID.randomUUID().toString();
+        CompletableFuture<TestRouteResult> first = CompletableFuture.supplyAsync(() ->
+                appRoute.run(HttpRequest.GET("/orders/" + orderId + "?waitForStateChange=PAID&timeout=1")));
+        PersistenceActor.Get firstGet = persistence.expectMessageClass(PersistenceActor.Get.class);
+        CompletableFuture<TestRouteResult> second = CompletableFuture.supplyAsync(() ->
+                appRoute.run(HttpRequest.GET("/orders/" + orderId + "?waitForStateChange=PAID&timeout=1")));
+        PersistenceActor.Get secondGet = persistence.expectMessageClass(PersistenceActor.Get.class);
+
+        long start = System.nanoTime();
+        appRoute.run(HttpRequest.GET("/orders/" + orderId + "?waitForStateChange=PAID&timeout=1"))
+                .assertStatusCode(StatusCodes.SERVICE_UNAVAILABLE)
+                .assertHeaderExists(RetryAfter.create(1));
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+        persistence.expectNoMessage(Duration.ofMillis(100));
+
+        firstGet.replyTo.tell(StatusReply.error(OrderNotFoundException.forOrder(orderId)));
+        secondGet.replyTo.tell(StatusReply.error(OrderNotFoundException.forOrder(orderId)));
+        first.get(5, TimeUnit.SECONDS).assertStatusCode(StatusCodes.NOT_FOUND);
+        second.get(5, TimeUnit.SECONDS).assertStatusCode(StatusCodes.NOT_FOUND);
+    }
+
+    private static HttpRequest createOrder() {
+        return HttpRequest.POST("/orders").withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"items\":{\"TV\":1}}");
+    }
+}
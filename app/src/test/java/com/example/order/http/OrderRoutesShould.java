@@ -2,18 +2,24 @@ package com.example.order.http;
 
 import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
 import akka.actor.typed.ActorRef;
+import akka.http.javadsl.model.HttpEntities;
 import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.MediaRanges;
 import akka.http.javadsl.model.MediaTypes;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.headers.Accept;
+import akka.http.javadsl.model.headers.RawHeader;
 import akka.http.javadsl.testkit.JUnitRouteTest;
 import akka.http.javadsl.testkit.TestRoute;
 import akka.persistence.testkit.javadsl.EventSourcedBehaviorTestKit;
 import com.example.order.domain.OrderActor;
 import com.example.order.domain.FulfillmentActor;
 import com.example.order.persistence.PersistenceActor;
+import com.example.order.query.OrderReadModel;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.typesafe.config.ConfigFactory;
 import lombok.extern.slf4j.Slf4j;
@@ -21,6 +27,9 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.util.UUID;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 @Slf4j
@@ -99,6 +108,239 @@ public class OrderRoutesShould extends JUnitRouteTest {
                 .assertMediaType("application/json");
     }
 
+    @Test
+    public void create_and_change_orders_in_batches() throws JsonProcessingException {
+        ArrayNode orders = mapper.createArrayNode();
+        orders.add(mapper.readTree(createOrderJson()));
+        orders.add(mapper.readTree(createOrderJson()));
+
+        JsonNode createdOrders = mapper.readTree(appRoute.run(HttpRequest.POST("/orders/batch")
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), orders.toString()))
+                .assertStatusCode(StatusCodes.CREATED)
+                .assertMediaType("application/json")
+                .entityString());
+
+        assertThat(createdOrders.size()).isEqualTo(2);
+        ArrayNode changes = mapper.createArrayNode();
+        changes.addObject().put("id", createdOrders.get(0).get("id").asText()).put("state", "PAID");
+        changes.addObject().put("id", "no existing id").put("state", "PAID");
+
+        JsonNode results = mapper.readTree(appRoute.run(HttpRequest.PATCH("/orders/batch")
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), changes.toString()))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString());
+
+        assertThat(results.get(0).get("status").asInt()).isEqualTo(200);
+        assertThat(results.get(0).get("order").get("state").asText()).isEqualTo("PAID");
+        assertThat(results.get(1).get("status").asInt()).isEqualTo(404);
+    }
+
+    @Test
+    public void import_and_export_orders_as_ndjson() throws JsonProcessingException {
+        String lines = createOrderJson() + "\n" + createOrderJson() + "\n\n" + createOrderJson();
+
+        String[] created = appRoute.run(HttpRequest.POST("/orders/stream")
+                .withEntity(OrderStreamRoutes.NDJSON, lines))
+                .assertStatusCode(StatusCodes.OK)
+                .assertMediaType("application/x-ndjson")
+                .entityString()
+                .split("\n");
+
+        assertThat(created).hasSize(3);
+        String id = mapper.readTree(created[2]).get("id").asText();
+
+        String exported = appRoute.run(HttpRequest.GET("/orders/stream?state=CREATED"))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString();
+
+        assertThat(exported).contains(id);
+        appRoute.run(HttpRequest.GET("/orders/stream?state=UNKNOWN"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+    }
+
+    @Test
+    public void reject_orders_without_items() {
+        appRoute.run(HttpRequest.POST("/orders")
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{}"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+        appRoute.run(HttpRequest.POST("/orders")
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"items\":null}"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+        appRoute.run(HttpRequest.GET("/orders?sku=TV"))
+                .assertStatusCode(StatusCodes.OK);
+    }
+
+    @Test
+    public void reject_items_without_quantity() {
+        appRoute.run(HttpRequest.POST("/orders")
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"items\":{\"TV\":null}}"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+    }
+
+    @Test
+    public void create_order_once_per_idempotency_key() throws JsonProcessingException {
+        HttpRequest create = HttpRequest.POST("/orders")
+                .addHeader(RawHeader.create(OrderRoutes.IDEMPOTENCY_KEY, "create-once-" + System.nanoTime()))
+                .addHeader(RawHeader.create(OrderRoutes.CLIENT_ID, "client-a"))
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), createOrderJson());
+
+        String first = mapper.readTree(appRoute.run(create).assertStatusCode(StatusCodes.CREATED).entityString()).get("id").asText();
+        String retried = mapper.readTree(appRoute.run(create).assertStatusCode(StatusCodes.CREATED).entityString()).get("id").asText();
+
+        assertThat(retried).isEqualTo(first);
+        String otherClient = mapper.readTree(appRoute.run(create.removeHeader(OrderRoutes.CLIENT_ID)
+                .addHeader(RawHeader.create(OrderRoutes.CLIENT_ID, "client-b")))
+                .assertStatusCode(StatusCodes.CREATED).entityString()).get("id").asText();
+        assertThat(otherClient).isNotEqualTo(first);
+        appRoute.run(HttpRequest.POST("/orders")
+                .addHeader(create.getHeader(OrderRoutes.IDEMPOTENCY_KEY).get())
+                .addHeader(create.getHeader(OrderRoutes.CLIENT_ID).get())
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"items\":{\"Radio\":2}}"))
+                .assertStatusCode(StatusCodes.UNPROCESSABLE_ENTITY);
+        appRoute.run(HttpRequest.POST("/orders")
+                .addHeader(RawHeader.create(OrderRoutes.IDEMPOTENCY_KEY, " "))
+                .addHeader(RawHeader.create(OrderRoutes.CLIENT_ID, "client-a"))
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), createOrderJson()))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+        appRoute.run(HttpRequest.POST("/orders")
+                .addHeader(create.getHeader(OrderRoutes.IDEMPOTENCY_KEY).get())
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), createOrderJson()))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+    }
+
+    @Test
+    public void answer_unchanged_orders_with_not_modified_and_change_only_matching_versions() throws JsonProcessingException {
+        String id = mapper.readTree(appRoute.run(HttpRequest.POST("/orders")
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), createOrderJson()))
+                .assertStatusCode(StatusCodes.CREATED)
+                .entityString()).get("id").asText();
+
+        appRoute.run(HttpRequest.GET("/orders/" + id))
+                .assertStatusCode(StatusCodes.OK)
+                .assertHeaderExists("ETag", "\"1\"");
+        appRoute.run(HttpRequest.GET("/orders/" + id).addHeader(RawHeader.create("If-None-Match", "\"1\"")))
+                .assertStatusCode(StatusCodes.NOT_MODIFIED);
+
+        appRoute.run(HttpRequest.PATCH("/orders/" + id)
+                .addHeader(RawHeader.create(OrderRoutes.IF_MATCH, "\"5\""))
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), createOrderStateJson("CANCELLED")))
+                .assertStatusCode(StatusCodes.PRECONDITION_FAILED);
+        appRoute.run(HttpRequest.PATCH("/orders/" + id)
+                .addHeader(RawHeader.create(OrderRoutes.IF_MATCH, "\"1\""))
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), createOrderStateJson("CANCELLED")))
+                .assertStatusCode(StatusCodes.OK)
+                .assertHeaderExists("ETag", "\"2\"");
+        appRoute.run(HttpRequest.GET("/orders/" + id).addHeader(RawHeader.create("If-None-Match", "\"1\"")))
+                .assertStatusCode(StatusCodes.OK);
+    }
+
+    @Test
+    public void answer_long_polls_once_the_state_changed_or_the_timeout_passed() throws JsonProcessingException {
+        String id = mapper.readTree(appRoute.run(HttpRequest.POST("/orders")
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), createOrderJson()))
+                .assertStatusCode(StatusCodes.CREATED)
+                .entityString()).get("id").asText();
+
+        JsonNode unchanged = mapper.readTree(appRoute.run(HttpRequest.GET("/orders/" + id + "?waitForStateChange=CREATED&timeout=1"))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString());
+        appRoute.run(HttpRequest.PATCH("/orders/" + id)
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), createOrderStateJson("CANCELLED")))
+                .assertStatusCode(StatusCodes.OK);
+        JsonNode changed = mapper.readTree(appRoute.run(HttpRequest.GET("/orders/" + id + "?waitForStateChange=CREATED&timeout=1"))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString());
+
+        assertThat(unchanged.get("state").asText()).isEqualTo("CREATED");
+        assertThat(changed.get("state").asText()).isEqualTo("CANCELLED");
+        appRoute.run(HttpRequest.GET("/orders/" + id + "?waitForStateChange=UNKNOWN"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+        appRoute.run(HttpRequest.GET("/orders/" + id + "?waitForStateChange=CREATED&timeout=3600"))
+                .assertStatusCode(StatusCodes.BAD_REQUEST);
+    }
+
+    @Test
+    public void look_up_orders_unknown_to_the_read_side_on_the_write_side_before_waiting() throws JsonProcessingException {
+        String id = mapper.readTree(appRoute.run(HttpRequest.POST("/orders")
+                .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), createOrderJson()))
+                .assertStatusCode(StatusCodes.CREATED)
+                .entityString()).get("id").asText();
+        // as for an order of a per-order entity not started since a restart
+        OrderReadModel.get(testKit.system()).orderRemoved(id);
+
+        JsonNode unchanged = mapper.readTree(appRoute.run(HttpRequest.GET("/orders/" + id + "?waitForStateChange=CREATED&timeout=1"))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString());
+
+        assertThat(unchanged.get("state").asText()).isEqualTo("CREATED");
+        appRoute.run(HttpRequest.GET("/orders/" + UUID.randomUUID() + "?waitForStateChange=CREATED&timeout=1"))
+                .assertStatusCode(StatusCodes.NOT_FOUND);
+        appRoute.run(HttpRequest.GET("/orders/" + UUID.randomUUID() + "/events"))
+                .assertStatusCode(StatusCodes.NOT_FOUND);
+    }
+
+    @Test
+    public void create_and_get_orders_as_cbor() throws IOException {
+        HttpRequest create = HttpRequest.POST("/orders")
+                .withEntity(HttpEntities.create(OrderCodec.CBOR, OrderCodec.CBOR_MAPPER.writeValueAsBytes(mapper.readTree(createOrderJson()))))
+                .addHeader(Accept.create(MediaRanges.create(OrderCodec.APPLICATION_CBOR)));
+        JsonNode created = OrderCodec.CBOR_MAPPER.readTree(appRoute.run(create)
+                .assertStatusCode(StatusCodes.CREATED)
+                .assertMediaType(OrderCodec.APPLICATION_CBOR)
+                .entityBytes().toArray());
+        String id = created.get("id").asText();
+
+        JsonNode order = OrderCodec.CBOR_MAPPER.readTree(appRoute.run(HttpRequest.GET("/orders/" + id)
+                .addHeader(Accept.create(MediaRanges.create(OrderCodec.APPLICATION_CBOR))))
+                .assertStatusCode(StatusCodes.OK)
+                .assertMediaType(OrderCodec.APPLICATION_CBOR)
+                .assertHeaderExists("ETag", "\"1-cbor\"")
+                .assertHeaderExists("Vary", "Accept")
+                .entityBytes().toArray());
+        JsonNode json = mapper.readTree(appRoute.run(HttpRequest.GET("/orders/" + id))
+                .assertStatusCode(StatusCodes.OK)
+                .assertMediaType("application/json")
+                .assertHeaderExists("ETag", "\"1\"")
+                .assertHeaderExists("Vary", "Accept")
+                .entityString());
+        // the JSON tag doesn't validate the CBOR representation
+        appRoute.run(HttpRequest.GET("/orders/" + id)
+                .addHeader(Accept.create(MediaRanges.create(OrderCodec.APPLICATION_CBOR)))
+                .addHeader(RawHeader.create("If-None-Match", "\"1\"")))
+                .assertStatusCode(StatusCodes.OK);
+
+        assertThat(created.get("items").get("TV").asInt()).isEqualTo(1);
+        assertThat(order).isEqualTo(json);
+    }
+
+    @Test
+    public void list_orders_by_sku_in_pages() throws JsonProcessingException, InterruptedException {
+        String sku = "list-" + System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            appRoute.run(HttpRequest.POST("/orders")
+                    .withEntity(MediaTypes.APPLICATION_JSON.toContentType(), "{\"items\":{\"" + sku + "\":" + (i + 1) + "}}"))
+                    .assertStatusCode(StatusCodes.CREATED);
+            // orders created within the same millisecond are listed by id
+            Thread.sleep(2);
+        }
+
+        JsonNode first = mapper.readTree(appRoute.run(HttpRequest.GET("/orders?state=CREATED&sku=" + sku + "&limit=2"))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString());
+        JsonNode second = mapper.readTree(appRoute.run(HttpRequest.GET("/orders?sku=" + sku + "&limit=2&cursor="
+                + first.get("nextCursor").asText()))
+                .assertStatusCode(StatusCodes.OK)
+                .entityString());
+
+        assertThat(first.get("orders").size()).isEqualTo(2);
+        assertThat(first.get("orders").get(0).get("items").get(sku).asInt()).isEqualTo(1);
+        assertThat(second.get("orders").size()).isEqualTo(1);
+        assertThat(second.get("orders").get(0).get("items").get(sku).asInt()).isEqualTo(3);
+        assertThat(second.has("nextCursor")).isFalse();
+        appRoute.run(HttpRequest.GET("/orders?limit=0")).assertStatusCode(StatusCodes.BAD_REQUEST);
+        appRoute.run(HttpRequest.GET("/orders?cursor=-")).assertStatusCode(StatusCodes.BAD_REQUEST);
+    }
+
     private String createOrderJson() {
         ObjectNode root = mapper.createObjectNode();
         ObjectNode item = mapper.createObjectNode();
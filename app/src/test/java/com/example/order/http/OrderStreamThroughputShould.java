@@ -0,0 +1,84 @@
+package com.example.order.http;
+
+import akka.NotUsed;
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.ServerBinding;
+import akka.http.javadsl.model.HttpEntities;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.persistence.testkit.javadsl.EventSourcedBehaviorTestKit;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.FramingTruncation;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.example.order.domain.FulfillmentActor;
+import com.example.order.domain.OrderActor;
+import com.example.order.persistence.OrderStoreType;
+import com.example.order.persistence.PersistenceActor;
+import com.example.order.persistence.PersistenceSettings;
+import com.typesafe.config.ConfigFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Streams a few orders in unit runs, {@code ./gradlew :app:throughputTest} streams a million.
+ */
+@Slf4j
+public class OrderStreamThroughputShould {
+
+    private static final int ORDERS = Integer.getInteger("order.stream.throughput.orders", 10_000);
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(ConfigFactory.parseString(
+            "akka.actor.serialization-bindings { \"com.example.order.serialization.JsonSerializable\" = jackson-json}")
+            .withFallback(EventSourcedBehaviorTestKit.config()));
+
+    @Test
+    public void stream_orders_in_and_out() throws Exception {
+        ActorSystem<Void> system = testKit.system();
+        ActorRef<PersistenceActor.PersistenceCommand> persistenceActor = testKit.spawn(PersistenceActor.create(
+                PersistenceSettings.defaults().toBuilder().storeType(OrderStoreType.COMPACT).build()));
+        ActorRef<OrderActor.Command> orderActor = testKit.spawn(
+                OrderActor.create(persistenceActor, testKit.spawn(FulfillmentActor.create())));
+        ServerBinding binding = Http.get(system).newServerAt("localhost", 0)
+                .bind(new OrderRoutes(system, persistenceActor, orderActor).userRoutes())
+                .toCompletableFuture().get(10, TimeUnit.SECONDS);
+        String uri = "http://localhost:" + binding.localAddress().getPort() + "/orders/stream";
+
+        Source<ByteString, NotUsed> orders = Source.range(1, ORDERS)
+                .map(i -> ByteString.fromString("{\"items\":{\"SKU-" + i % 1000 + "\":" + (i % 5 + 1) + "}}\n"));
+        long start = System.nanoTime();
+        long created = countLines(Http.get(system).singleRequest(HttpRequest.POST(uri)
+                .withEntity(HttpEntities.create(OrderStreamRoutes.NDJSON, orders))).toCompletableFuture().get());
+        long imported = System.nanoTime();
+        long exported = countLines(Http.get(system).singleRequest(HttpRequest.GET(uri + "?state=CREATED"))
+                .toCompletableFuture().get());
+        long end = System.nanoTime();
+
+        log.info("Imported {} orders at {} orders/s, exported {} at {} orders/s", created,
+                perSecond(created, imported - start), exported, perSecond(exported, end - imported));
+        assertThat(created).isEqualTo(ORDERS);
+        assertThat(exported).isEqualTo(ORDERS);
+        binding.unbind();
+    }
+
+    private long countLines(HttpResponse response) throws Exception {
+        return response.entity().withoutSizeLimit().getDataBytes()
+                .via(Framing.delimiter(ByteString.fromString("\n"), 64 * 1024, FramingTruncation.ALLOW))
+                .runWith(Sink.fold(0L, (count, line) -> count + 1), testKit.system())
+                .toCompletableFuture().get(5, TimeUnit.MINUTES);
+    }
+
+    private static long perSecond(long count, long nanos) {
+        return count * TimeUnit.SECONDS.toNanos(1) / Math.max(nanos, 1);
+    }
+}
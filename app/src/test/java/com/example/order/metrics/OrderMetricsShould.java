@@ -0,0 +1,54 @@
+package com.example.order.metrics;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class OrderMetricsShould {
+
+    final OrderMetrics metrics = new OrderMetrics();
+
+    @Test
+    public void renderTimersInSeconds() {
+        Summary latency = metrics.timer("request_seconds", "Request latency.", "route", "get");
+        for (int i = 0; i < 100; i++) {
+            latency.recordNanos(Duration.ofMillis(2).toNanos());
+        }
+
+        String text = metrics.prometheus();
+
+        assertThat(text).contains("# HELP request_seconds Request latency.\n# TYPE request_seconds summary\n");
+        assertThat(text).containsPattern("request_seconds\\{route=\"get\",quantile=\"0.99\"} 0\\.0020\\d*\n");
+        assertThat(text).contains("request_seconds_count{route=\"get\"} 100\n");
+    }
+
+    @Test
+    public void renderGaugesAndCounters() {
+        metrics.gauge("depth", "Queue depth.", () -> 3, "actor", "/user/a\"b");
+        metrics.counter("done_total", "Done.", () -> 42);
+
+        String text = metrics.prometheus();
+
+        assertThat(text).contains("# TYPE depth gauge\ndepth{actor=\"/user/a\\\"b\"} 3\n");
+        assertThat(text).contains("# TYPE done_total counter\ndone_total 42\n");
+    }
+
+    @Test
+    public void dropRemovedGauges() {
+        metrics.gauge("depth", "Queue depth.", () -> 3, "actor", "a");
+        metrics.remove("depth", "actor", "a");
+
+        assertThat(metrics.prometheus()).doesNotContain("depth");
+    }
+
+    @Test
+    public void rejectMetricRegisteredWithOtherType() {
+        metrics.gauge("value", "A gauge.", () -> 1);
+
+        assertThatThrownBy(() -> metrics.summary("value", "A summary."))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.order.persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClosedOrderStoreShould {
+
+    Path dir;
+    ClosedOrderStore store;
+
+    @Before
+    public void before() throws IOException {
+        dir = Files.createTempDirectory("closed-orders");
+        store = new ClosedOrderStore(dir, 256, 2);
+    }
+
+    @After
+    public void after() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void findStoredOrdersAfterReopen() {
+        List<Order> orders = closedOrders(20);
+        orders.forEach(store::put);
+        store.close();
+
+        store = new ClosedOrderStore(dir, 256, 2);
+
+        assertThat(store.size()).isEqualTo(orders.size());
+        orders.forEach(order -> assertThat(store.get(order.id)).isEqualTo(order));
+        assertThat(store.get(UUID.randomUUID().toString())).isNull();
+    }
+
+    @Test
+    public void storeOrderOnlyOnce() {
+        Order order = closedOrders(1).get(0);
+
+        store.put(order);
+        store.put(order);
+
+        List<Order> stored = new ArrayList<>();
+        store.forEach(stored::add);
+        assertThat(stored).containsExactly(order);
+    }
+
+    private static List<Order> closedOrders(int count) {
+        List<Order> orders = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            orders.add(new Order(UUID.randomUUID().toString(), Map.of("TV", i), OrderState.CLOSED, FulfillmentResult.SUCCESS));
+        }
+        return orders;
+    }
+}
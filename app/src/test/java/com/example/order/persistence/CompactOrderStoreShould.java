@@ -0,0 +1,66 @@
+package com.example.order.persistence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompactOrderStoreShould {
+
+    final CompactOrderStore store = new CompactOrderStore();
+
+    @Test
+    public void findOrdersWithUuidAndOtherIds() {
+        Order uuidOrder = order(UUID.randomUUID().toString(), Map.of("TV", 1));
+        Order otherOrder = order("1", Map.of("Radio", 2));
+        store.put(uuidOrder);
+        store.put(otherOrder);
+
+        assertThat(store.get(uuidOrder.id)).isEqualTo(uuidOrder);
+        assertThat(store.get(otherOrder.id)).isEqualTo(otherOrder);
+        assertThat(store.get(UUID.randomUUID().toString())).isNull();
+    }
+
+    @Test
+    public void keepOrdersWhileGrowing() {
+        List<Order> orders = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            Order order = order(UUID.randomUUID().toString(), i % 2 == 0 ? Map.of("SKU" + i % 7, i) : null);
+            orders.add(order);
+            store.put(order);
+        }
+
+        assertThat(store.size()).isEqualTo(orders.size());
+        orders.forEach(order -> assertThat(store.get(order.id)).isEqualTo(order));
+    }
+
+    @Test
+    public void changeStateAndClose() {
+        String id = UUID.randomUUID().toString();
+        store.put(order(id, Map.of("TV", 1)));
+
+        store.changeState(id, OrderState.IN_FULFILLMENT);
+        store.close(id, FulfillmentResult.SUCCESS);
+
+        assertThat(store.get(id).state).isEqualTo(OrderState.CLOSED);
+        assertThat(store.get(id).fulfillmentResult).isEqualTo(FulfillmentResult.SUCCESS);
+    }
+
+    @Test
+    public void replaceOrderWithSameId() {
+        String id = UUID.randomUUID().toString();
+        store.put(order(id, Map.of("TV", 1)));
+        store.put(order(id, Map.of("Radio", 3)));
+
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.get(id).items).isEqualTo(Map.of("Radio", 3));
+    }
+
+    private static Order order(String id, Map<String, Integer> items) {
+        return new Order(id, items, OrderState.CREATED, FulfillmentResult.NO_RESULT);
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.order.persistence;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.pattern.StatusReply;
+import akka.persistence.testkit.javadsl.EventSourcedBehaviorTestKit;
+import akka.persistence.testkit.javadsl.PersistenceTestKit;
+import com.typesafe.config.ConfigFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GroupCommitBufferShould {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(ConfigFactory.parseString(
+            "akka.actor.serialization-bindings { \"com.example.order.serialization.JsonSerializable\" = jackson-json}")
+            .withFallback(EventSourcedBehaviorTestKit.config()));
+
+    private static final PersistenceSettings SETTINGS = PersistenceSettings.defaults().toBuilder()
+            .groupCommitMaxBatchSize(100)
+            .groupCommitMaxLinger(Duration.ofMillis(50))
+            .build();
+
+    @Test
+    public void applyWritesOfOneBatchInOrder() {
+        ActorRef<PersistenceActor.PersistenceCommand> buffer = testKit.spawn(GroupCommitBuffer.create(SETTINGS));
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+
+        buffer.tell(new PersistenceActor.Create(order("a"), probe.ref()));
+        buffer.tell(new PersistenceActor.ChangeState("a", OrderState.PAID, probe.ref()));
+        buffer.tell(new PersistenceActor.ChangeState("a", OrderState.IN_FULFILLMENT, probe.ref()));
+        buffer.tell(new PersistenceActor.Close("a", FulfillmentResult.SUCCESS, probe.ref()));
+        buffer.tell(new PersistenceActor.Get("a", probe.ref()));
+
+        List<StatusReply<Order>> replies = probe.receiveSeveralMessages(5);
+        assertThat(replies).allMatch(StatusReply::isSuccess);
+        assertThat(replies.get(1).getValue().state).isEqualTo(OrderState.PAID);
+        assertThat(replies.get(3).getValue().state).isEqualTo(OrderState.CLOSED);
+        assertThat(replies.get(4).getValue()).isEqualTo(replies.get(3).getValue());
+    }
+
+    @Test
+    public void replyErrorsOfSingleWrites() {
+        ActorRef<PersistenceActor.PersistenceCommand> buffer = testKit.spawn(GroupCommitBuffer.create(SETTINGS));
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+
+        buffer.tell(new PersistenceActor.Create(order("b"), probe.ref()));
+        buffer.tell(new PersistenceActor.ChangeState("no existing id", OrderState.PAID, probe.ref()));
+        buffer.tell(new PersistenceActor.Close("b", FulfillmentResult.SUCCESS, probe.ref()));
+        buffer.tell(new PersistenceActor.ChangeState("b", OrderState.PAID, probe.ref()));
+
+        List<StatusReply<Order>> replies = probe.receiveSeveralMessages(4);
+        assertThat(replies.get(0).isSuccess()).isTrue();
+        assertThat(replies.get(1).getError()).isInstanceOf(OrderNotFoundException.class);
+        assertThat(replies.get(2).getError()).isInstanceOf(InvalidStateChangeException.class);
+        assertThat(replies.get(3).getValue().state).isEqualTo(OrderState.PAID);
+    }
+
+    @Test
+    public void failPendingWritesAndRecoverWhenThePersistenceActorStops() {
+        ActorRef<PersistenceActor.PersistenceCommand> buffer = testKit.spawn(GroupCommitBuffer.create(SETTINGS));
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+        PersistenceTestKit.create(testKit.system()).failNextPersisted();
+
+        buffer.tell(new PersistenceActor.Create(order("c"), probe.ref()));
+        assertThat(probe.receiveMessage().isError()).isTrue();
+
+        buffer.tell(new PersistenceActor.Create(order("d"), probe.ref()));
+        assertThat(probe.receiveMessage(Duration.ofSeconds(5)).getValue().id).isEqualTo("d");
+    }
+
+    private static Order order(String id) {
+        return new Order(id, Map.of("TV", 1), OrderState.CREATED, FulfillmentResult.NO_RESULT);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.order.persistence;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class HashMapOrderStoreShould {
+
+    final HashMapOrderStore store = new HashMapOrderStore();
+
+    @Test
+    public void shareOrdersUntilChanged() {
+        store.put(new Order("1", Map.of("TV", 1), OrderState.CREATED, FulfillmentResult.NO_RESULT));
+        Order created = store.get("1");
+
+        assertThat(store.get("1")).isSameAs(created);
+        store.changeState("1", OrderState.PAID);
+
+        assertThat(store.get("1")).isNotSameAs(created);
+        assertThat(store.get("1").state).isEqualTo(OrderState.PAID);
+        assertThat(created.state).isEqualTo(OrderState.CREATED);
+    }
+
+    @Test
+    public void notShareItemsWithTheCaller() {
+        Map<String, Integer> items = new HashMap<>(Map.of("TV", 1));
+        store.put(new Order("1", items, OrderState.CREATED, FulfillmentResult.NO_RESULT));
+
+        items.put("Radio", 2);
+
+        assertThat(store.get("1").items).containsOnlyKeys("TV");
+        assertThatThrownBy(() -> store.get("1").items.put("Radio", 2)).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void formatErrorMessagesWithoutStackTraces() {
+        OrderNotFoundException notFound = OrderNotFoundException.forOrder("1");
+
+        assertThat(notFound.getStackTrace()).isEmpty();
+        assertThat(notFound.getMessage()).isEqualTo("Order with ID 1 not found!");
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.order.persistence;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IdempotencyIndexShould {
+
+    @Test
+    public void forgetKeysAfterRetention() {
+        IdempotencyIndex index = new IdempotencyIndex(10, Duration.ofMillis(100));
+        index.put("a", "order-a", 1000);
+        index.put("b", "order-b", 1050);
+
+        assertThat(index.orderId("a", 1099)).isEqualTo("order-a");
+        assertThat(index.orderId("a", 1100)).isNull();
+
+        index.put("c", "order-c", 1120);
+
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.orderId("b", 1120)).isEqualTo("order-b");
+    }
+
+    @Test
+    public void forgetOldestKeysBeyondMaxKeys() {
+        IdempotencyIndex index = new IdempotencyIndex(2, Duration.ofHours(1));
+        index.put("a", "order-a", 1000);
+        index.put("b", "order-b", 1001);
+        index.put("c", "order-c", 1002);
+
+        assertThat(index.orderId("a", 1002)).isNull();
+        assertThat(index.orderId("b", 1002)).isEqualTo("order-b");
+        assertThat(index.orderId("c", 1002)).isEqualTo("order-c");
+    }
+
+    @Test
+    public void evictReusedKeysByTheirLatestUse() {
+        IdempotencyIndex index = new IdempotencyIndex(2, Duration.ofHours(1));
+        index.put("a", "order-a", 1000);
+        index.put("b", "order-b", 1001);
+        index.put("a", "order-a2", 1002);
+        index.put("c", "order-c", 1003);
+
+        assertThat(index.orderId("a", 1003)).isEqualTo("order-a2");
+        assertThat(index.orderId("b", 1003)).isNull();
+        assertThat(index.orderId("c", 1003)).isEqualTo("order-c");
+    }
+}
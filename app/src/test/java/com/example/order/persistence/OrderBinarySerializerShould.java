@@ -0,0 +1,142 @@
+package com.example.order.persistence;
+
+import akka.Done;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.javadsl.Adapter;
+import akka.pattern.StatusReply;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.NotSerializableException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OrderBinarySerializerShould {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+    static final Order ORDER = new Order(UUID.randomUUID().toString(), Map.of("TV", 1, "Radio", 3),
+            OrderState.PAID, FulfillmentResult.NO_RESULT);
+
+    final OrderBinarySerializer serializer =
+            new OrderBinarySerializer((ExtendedActorSystem) Adapter.toClassic(testKit.system()));
+
+    @Test
+    public void roundTripOrderCreated() throws NotSerializableException {
+        Events.OrderCreated result = roundTrip(new Events.OrderCreated(ORDER));
+
+        assertThat(result.order).isEqualTo(ORDER);
+    }
+
+    @Test
+    public void roundTripNonUuidIds() throws NotSerializableException {
+        Events.OrderClosed result = roundTrip(new Events.OrderClosed("order 1", FulfillmentResult.FAILURE));
+
+        assertThat(result.orderId).isEqualTo("order 1");
+        assertThat(result.fulfillmentResult).isEqualTo(FulfillmentResult.FAILURE);
+    }
+
+    @Test
+    public void roundTripState() throws NotSerializableException {
+        State state = new State()
+                .addOrder(ORDER)
+                .addOrder(new Order("2", null, OrderState.CLOSED, FulfillmentResult.SUCCESS));
+
+        State result = roundTrip(state);
+
+        assertThat(result.findOrder(ORDER.id)).contains(ORDER);
+        assertThat(result.findOrder("2")).contains(new Order("2", null, OrderState.CLOSED, FulfillmentResult.SUCCESS));
+    }
+
+    @Test
+    public void roundTripOrderVersions() throws NotSerializableException {
+        State state = new State().addOrder(ORDER).changeState(ORDER.id, OrderState.PAID);
+
+        TestProbe<StatusReply<Order>> replyTo = testKit.createTestProbe();
+        TestProbe<Order> fulfillment = testKit.createTestProbe();
+
+        State result = roundTrip(state);
+        PersistenceActor.Pay pay = roundTrip(new PersistenceActor.Pay(ORDER.id, replyTo.ref(), fulfillment.ref(), 2));
+
+        assertThat(result.getOrder(ORDER.id).version).isEqualTo(2);
+        assertThat(pay.expectedVersion).isEqualTo(2);
+    }
+
+    @Test
+    public void roundTripOrderWithVersionAndReadOrdersWithoutAsFirstVersion() throws NotSerializableException {
+        Order paid = ORDER.withState(OrderState.IN_FULFILLMENT);
+
+        Order result = roundTrip(paid);
+        Order old = (Order) serializer.fromBinary(serializer.toBinary(ORDER), OrderBinarySerializer.ORDER_V1);
+
+        assertThat(result).isEqualTo(paid);
+        assertThat(result.version).isEqualTo(paid.version);
+        assertThat(old.version).isEqualTo(Order.FIRST_VERSION);
+    }
+
+    @Test
+    public void roundTripCreationTimes() throws NotSerializableException {
+        Order created = ORDER.createdAt(1_600_000_000_000L);
+
+        State result = roundTrip(new State().addOrder(created));
+        Order order = roundTrip(created);
+        Order old = (Order) serializer.fromBinary(serializer.toBinary(created), OrderBinarySerializer.ORDER_V2);
+
+        assertThat(result.getOrder(ORDER.id).createdAt).isEqualTo(created.createdAt);
+        assertThat(order.createdAt).isEqualTo(created.createdAt);
+        assertThat(old.createdAt).isZero();
+    }
+
+    @Test
+    public void roundTripIdempotencyKeys() throws NotSerializableException {
+        State state = new State().addOrder(ORDER).rememberIdempotencyKey("key-1", ORDER.id, 1000);
+
+        State result = roundTrip(state);
+        Events.OrderCreated event = roundTrip(new Events.OrderCreated(ORDER, "key-1", 1000));
+
+        assertThat(result.orderIdForIdempotencyKey("key-1", 2000)).isEqualTo(ORDER.id);
+        assertThat(event.idempotencyKey).isEqualTo("key-1");
+        assertThat(event.timestamp).isEqualTo(1000);
+    }
+
+    @Test
+    public void roundTripCommandWithReplyTo() throws NotSerializableException {
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+
+        PersistenceActor.ChangeState result = roundTrip(new PersistenceActor.ChangeState(ORDER.id, OrderState.PAID, probe.ref()));
+
+        assertThat(result.replyTo).isEqualTo(probe.ref());
+        assertThat(result.state).isEqualTo(OrderState.PAID);
+    }
+
+    @Test
+    public void roundTripWriteBatch() throws NotSerializableException {
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+        TestProbe<Done> ack = testKit.createTestProbe();
+
+        PersistenceActor.WriteBatch result = roundTrip(new PersistenceActor.WriteBatch(List.of(
+                new PersistenceActor.Create(ORDER, probe.ref()),
+                new PersistenceActor.Close(ORDER.id, FulfillmentResult.SUCCESS, probe.ref())), ack.ref()));
+
+        assertThat(result.commands).hasSize(2);
+        assertThat(((PersistenceActor.Create) result.commands.get(0)).order).isEqualTo(ORDER);
+        assertThat(((PersistenceActor.Close) result.commands.get(1)).fulfillmentResult).isEqualTo(FulfillmentResult.SUCCESS);
+        assertThat(result.ack).isEqualTo(ack.ref());
+    }
+
+    @Test
+    public void writeCompactStateChangedEvents() {
+        assertThat(serializer.toBinary(new Events.OrderStateChanged(ORDER.id, OrderState.PAID))).hasSizeLessThan(20);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(Object o) throws NotSerializableException {
+        return (T) serializer.fromBinary(serializer.toBinary(o), serializer.manifest(o));
+    }
+}
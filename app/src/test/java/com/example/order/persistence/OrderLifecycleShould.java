@@ -0,0 +1,53 @@
+package com.example.order.persistence;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OrderLifecycleShould {
+
+    @Test
+    public void keepInternalStatesFromClients() {
+        OrderLifecycle lifecycle = OrderLifecycle.defaults();
+
+        assertThat(lifecycle.canChange(order(OrderState.IN_FULFILLMENT, FulfillmentResult.NO_RESULT), OrderState.CLOSED)).isTrue();
+        assertThat(lifecycle.canRequest(order(OrderState.IN_FULFILLMENT, FulfillmentResult.NO_RESULT), OrderState.CLOSED)).isFalse();
+        assertThat(lifecycle.canRequest(order(OrderState.CREATED, FulfillmentResult.NO_RESULT), OrderState.CANCELLED)).isTrue();
+    }
+
+    @Test
+    public void readTransitionsFromConfig() {
+        OrderLifecycle lifecycle = OrderLifecycle.fromConfig(ConfigFactory.parseString(
+                "transitions { CREATED = [PAID], CLOSED = [REFUNDED] }, internal-states = []"));
+
+        assertThat(lifecycle.isAllowed(OrderState.CREATED, OrderState.PAID)).isTrue();
+        assertThat(lifecycle.isAllowed(OrderState.CREATED, OrderState.CANCELLED)).isFalse();
+        assertThat(lifecycle.canRequest(order(OrderState.CLOSED, FulfillmentResult.SUCCESS), OrderState.REFUNDED)).isTrue();
+        assertThat(lifecycle.canRequest(order(OrderState.CLOSED, FulfillmentResult.FAILURE), OrderState.REFUNDED)).isFalse();
+    }
+
+    @Test
+    public void runEffectsOfEnteredState() {
+        List<Order> cancelled = new ArrayList<>();
+        OrderLifecycle lifecycle = OrderLifecycle.builder()
+                .transition(OrderState.CREATED, OrderState.CANCELLED)
+                .onEnter(OrderState.CANCELLED, cancelled::add)
+                .build();
+        Order order = order(OrderState.CANCELLED, FulfillmentResult.NO_RESULT);
+
+        lifecycle.entered(order(OrderState.CREATED, FulfillmentResult.NO_RESULT));
+        lifecycle.entered(order);
+
+        assertThat(lifecycle.hasEffects(OrderState.CREATED)).isFalse();
+        assertThat(cancelled).containsExactly(order);
+    }
+
+    private static Order order(OrderState state, FulfillmentResult result) {
+        return new Order("order", Map.of("TV", 1), state, result);
+    }
+}
@@ -1,9 +1,14 @@
 package com.example.order.persistence;
 
+import akka.Done;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
 import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
 import akka.pattern.StatusReply;
 import akka.persistence.testkit.javadsl.EventSourcedBehaviorTestKit;
 import akka.persistence.testkit.javadsl.EventSourcedBehaviorTestKit.CommandResultWithReply;
+import akka.persistence.testkit.javadsl.SnapshotTestKit;
+import com.example.order.query.OrderReadModel;
 import com.typesafe.config.ConfigFactory;
 import junitparams.JUnitParamsRunner;
 import junitparams.Parameters;
@@ -11,9 +16,16 @@ import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @RunWith(JUnitParamsRunner.class)
 public class PersistenceActorShould {
@@ -46,6 +58,7 @@ public class PersistenceActorShould {
     @Parameters({
             "CREATED, PAID",
             "PAID, IN_FULFILLMENT",
+            "CREATED, CANCELLED",
     })
     public void changeState(OrderState from, OrderState to) {
         createOrder(orderWithState(from));
@@ -71,6 +84,8 @@ public class PersistenceActorShould {
             "CLOSED, CREATED",
             "CLOSED, PAID",
             "CLOSED, IN_FULFILLMENT",
+            "CLOSED, REFUNDED",
+            "CANCELLED, PAID",
     })
     public void notChangeState(OrderState from, OrderState to) {
         createOrder(orderWithState(from));
@@ -105,10 +120,201 @@ public class PersistenceActorShould {
         assertThat(order.state).isEqualTo(OrderState.CLOSED);
     }
 
+    @Test
+    public void payAndStartFulfillmentInOneWrite() {
+        createOrder(ORDER);
+        TestProbe<Order> fulfillment = testKit.createTestProbe();
+
+        CommandResultWithReply<PersistenceActor.PersistenceCommand, Events.Event, State, StatusReply<Order>> result =
+                eventSourcedTestKit.runCommand(replyTo -> new PersistenceActor.Pay(ORDER.id, replyTo, fulfillment.ref()));
+
+        assertThat(result.events()).hasSize(2);
+        assertThat(result.reply().getValue()).isEqualTo(orderWithState(OrderState.PAID));
+        assertThat(fulfillment.receiveMessage()).isEqualTo(orderWithState(OrderState.IN_FULFILLMENT));
+    }
+
+    @Test
+    public void startFulfillmentOfBatchedPaymentsAtTheVersionAfterPaying() {
+        Order batched = ORDER.toBuilder().id(UUID.randomUUID().toString()).build();
+        Order grouped = ORDER.toBuilder().id(UUID.randomUUID().toString()).build();
+        createOrder(batched);
+        createOrder(grouped);
+        TestProbe<Order> fulfillment = testKit.createTestProbe();
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+
+        List<StatusReply<Order>> replies = eventSourcedTestKit.<List<StatusReply<Order>>>runCommand(replyTo ->
+                new PersistenceActor.ChangeStateBatch(List.of(new PersistenceActor.StateChange(batched.id, OrderState.PAID)),
+                        replyTo, fulfillment.ref())).reply();
+        Order batchedInFulfillment = fulfillment.receiveMessage();
+        eventSourcedTestKit.<Done>runCommand(ack -> new PersistenceActor.WriteBatch(
+                List.of(new PersistenceActor.Pay(grouped.id, probe.ref(), fulfillment.ref())), ack));
+        Order groupedInFulfillment = fulfillment.receiveMessage();
+
+        assertThat(replies.get(0).getValue().version).isEqualTo(2);
+        assertThat(probe.receiveMessage().getValue().version).isEqualTo(2);
+        assertThat(batchedInFulfillment.state).isEqualTo(OrderState.IN_FULFILLMENT);
+        assertThat(batchedInFulfillment.version).isEqualTo(3);
+        assertThat(groupedInFulfillment.version).isEqualTo(3);
+        assertThat(getOrder(batched.id).reply().getValue().version).isEqualTo(3);
+    }
+
+    @Test
+    public void notPayBatchedOrdersWhoseFulfillmentTheLifecycleForbids() {
+        EventSourcedBehaviorTestKit<PersistenceActor.PersistenceCommand, Events.Event, State> payOnly =
+                EventSourcedBehaviorTestKit.create(testKit.system(), PersistenceActor.create(PersistenceSettings.defaults()
+                        .toBuilder()
+                        .lifecycle(OrderLifecycle.fromConfig(ConfigFactory.parseString(
+                                "transitions { CREATED = [PAID] }, internal-states = []")))
+                        .build()));
+        Order order = ORDER.toBuilder().id(UUID.randomUUID().toString()).build();
+        payOnly.runCommand(replyTo -> new PersistenceActor.Create(order, replyTo));
+        TestProbe<Order> fulfillment = testKit.createTestProbe();
+
+        CommandResultWithReply<PersistenceActor.PersistenceCommand, Events.Event, State, List<StatusReply<Order>>> result =
+                payOnly.runCommand(replyTo -> new PersistenceActor.ChangeStateBatch(
+                        List.of(new PersistenceActor.StateChange(order.id, OrderState.PAID)), replyTo, fulfillment.ref()));
+
+        assertThat(result.hasNoEvents()).isTrue();
+        assertThat(result.reply().get(0).getError()).isInstanceOf(InvalidStateChangeException.class);
+        fulfillment.expectNoMessage(Duration.ofMillis(100));
+    }
+
+    @Test
+    public void changeStateOnlyAtExpectedVersion() {
+        createOrder(ORDER);
+
+        StatusReply<Order> stale = eventSourcedTestKit.<StatusReply<Order>>runCommand(replyTo ->
+                new PersistenceActor.ChangeState(ORDER.id, OrderState.PAID, replyTo, 2)).reply();
+        Order paid = eventSourcedTestKit.<StatusReply<Order>>runCommand(replyTo ->
+                new PersistenceActor.ChangeState(ORDER.id, OrderState.PAID, replyTo, 1)).reply().getValue();
+
+        assertThat(stale.getError()).isInstanceOf(VersionConflictException.class);
+        assertThat(paid.state).isEqualTo(OrderState.PAID);
+        assertThat(paid.version).isEqualTo(2);
+    }
+
+    @Test
+    public void createOrderWithIdempotencyKeyOnlyOnce() {
+        Order order = ORDER.toBuilder().id("idempotent").build();
+        eventSourcedTestKit.runCommand(replyTo -> new PersistenceActor.Create(order, replyTo, "key-1"));
+        changeState(order.id, OrderState.PAID);
+        Order retry = order.toBuilder().id("retried").build();
+        Order other = order.toBuilder().id("other").items(Map.of("Radio", 2)).build();
+
+        CommandResultWithReply<PersistenceActor.PersistenceCommand, Events.Event, State, StatusReply<Order>> result =
+                eventSourcedTestKit.runCommand(replyTo -> new PersistenceActor.Create(retry, replyTo, "key-1"));
+        eventSourcedTestKit.restart();
+        CommandResultWithReply<PersistenceActor.PersistenceCommand, Events.Event, State, StatusReply<Order>> afterRecovery =
+                eventSourcedTestKit.runCommand(replyTo -> new PersistenceActor.Create(retry, replyTo, "key-1"));
+        CommandResultWithReply<PersistenceActor.PersistenceCommand, Events.Event, State, StatusReply<Order>> reused =
+                eventSourcedTestKit.runCommand(replyTo -> new PersistenceActor.Create(other, replyTo, "key-1"));
+
+        Order paid = order.toBuilder().state(OrderState.PAID).build();
+        assertThat(result.hasNoEvents()).isTrue();
+        assertThat(result.reply().getValue()).isEqualTo(paid);
+        assertThat(afterRecovery.hasNoEvents()).isTrue();
+        assertThat(afterRecovery.reply().getValue()).isEqualTo(paid);
+        assertThat(reused.hasNoEvents()).isTrue();
+        assertThat(reused.reply().getError()).isInstanceOf(IdempotencyKeyReusedException.class);
+    }
+
+    @Test
+    public void createNewOrderOnceIdempotencyKeyIsForgotten() {
+        EventSourcedBehaviorTestKit<PersistenceActor.PersistenceCommand, Events.Event, State> shortRetention =
+                EventSourcedBehaviorTestKit.create(testKit.system(), PersistenceActor.create(PersistenceSettings.defaults()
+                        .toBuilder()
+                        .idempotencyRetention(Duration.ZERO)
+                        .build()));
+        Order order = ORDER.toBuilder().id(UUID.randomUUID().toString()).build();
+        Order retry = ORDER.toBuilder().id(UUID.randomUUID().toString()).build();
+        shortRetention.runCommand(replyTo -> new PersistenceActor.Create(order, replyTo, "key-2"));
+
+        CommandResultWithReply<PersistenceActor.PersistenceCommand, Events.Event, State, StatusReply<Order>> result =
+                shortRetention.runCommand(replyTo -> new PersistenceActor.Create(retry, replyTo, "key-2"));
+
+        assertThat(result.reply().getValue()).isEqualTo(retry);
+    }
+
     private Order orderWithState(OrderState from) {
         return ORDER.toBuilder().state(from).build();
     }
 
+    @Test
+    public void takeOneTimeBasedSnapshotPerInterval() throws InterruptedException {
+        EventSourcedBehaviorTestKit<PersistenceActor.PersistenceCommand, Events.Event, State> timed =
+                EventSourcedBehaviorTestKit.create(testKit.system(), PersistenceActor.create(PersistenceSettings.defaults()
+                        .toBuilder()
+                        .snapshotInterval(Duration.ofMillis(300))
+                        .build()));
+        SnapshotTestKit snapshots = timed.snapshotTestKit().orElseThrow();
+        int before = snapshots.persistedInStorage("Orders").size();
+        Thread.sleep(400);
+
+        for (int i = 0; i < 20; i++) {
+            Order order = ORDER.toBuilder().id(UUID.randomUUID().toString()).build();
+            timed.runCommand(replyTo -> new PersistenceActor.Create(order, replyTo));
+        }
+        Thread.sleep(200);
+
+        assertThat(snapshots.persistedInStorage("Orders")).hasSize(before + 1);
+    }
+
+    @Test
+    public void recoverOrdersFromSnapshot() {
+        PersistenceSettings settings = PersistenceSettings.defaults().toBuilder()
+                .snapshotEvery(2)
+                .deleteEventsOnSnapshot(true)
+                .build();
+        EventSourcedBehaviorTestKit<PersistenceActor.PersistenceCommand, Events.Event, State> snapshottingTestKit =
+                EventSourcedBehaviorTestKit.create(testKit.system(), PersistenceActor.create(settings));
+        snapshottingTestKit.runCommand(replyTo -> new PersistenceActor.Create(ORDER, replyTo));
+        snapshottingTestKit.runCommand(replyTo -> new PersistenceActor.ChangeState(ORDER.id, OrderState.PAID, replyTo));
+
+        snapshottingTestKit.restart();
+
+        assertThat(snapshottingTestKit.getState().findOrder(ORDER.id)).contains(orderWithState(OrderState.PAID));
+    }
+
+    @Test
+    public void publishOrdersToTheReadSideOnlyOncePersisted() {
+        OrderReadModel readModel = OrderReadModel.get(testKit.system());
+        Order persisted = ORDER.toBuilder().id(UUID.randomUUID().toString()).build();
+        Order failed = ORDER.toBuilder().id(UUID.randomUUID().toString()).build();
+        createOrder(persisted);
+        eventSourcedTestKit.persistenceTestKit().failNextPersisted();
+
+        assertThatThrownBy(() -> createOrder(failed)).isInstanceOf(AssertionError.class);
+
+        assertThat(readModel.find(persisted.id)).isEqualTo(persisted);
+        assertThat(readModel.find(failed.id)).isNull();
+    }
+
+    @Test
+    public void evictClosedOrdersOnceTheCloseIsPersisted() throws IOException {
+        Path dir = Files.createTempDirectory("closed-orders");
+        ActorTestKit evictingTestKit = ActorTestKit.create(ConfigFactory.parseString(
+                "order.persistence.closed-orders { evict = on, dir = \"" + dir.toString().replace('\\', '/') + "\", " +
+                        "segment-size = 1 MiB, cache-size = 10 }")
+                .withFallback(testKit.system().settings().config()));
+        try {
+            EventSourcedBehaviorTestKit<PersistenceActor.PersistenceCommand, Events.Event, State> evictingEventSourcedTestKit =
+                    EventSourcedBehaviorTestKit.create(evictingTestKit.system(), PersistenceActor.create());
+            Order order = ORDER.toBuilder().id(UUID.randomUUID().toString()).state(OrderState.IN_FULFILLMENT).build();
+            evictingEventSourcedTestKit.runCommand(replyTo -> new PersistenceActor.Create(order, replyTo));
+
+            StatusReply<Order> closed = evictingEventSourcedTestKit.<StatusReply<Order>>runCommand(replyTo ->
+                    new PersistenceActor.Close(order.id, FulfillmentResult.SUCCESS, replyTo)).reply();
+            evictingEventSourcedTestKit.restart();
+
+            ClosedOrderStore store = ClosedOrderStore.get(evictingTestKit.system());
+            assertThat(closed.getValue().version).isEqualTo(2);
+            assertThat(store.get(order.id)).isEqualTo(closed.getValue());
+            assertThat(evictingEventSourcedTestKit.getState().findOrder(order.id)).isEmpty();
+        } finally {
+            evictingTestKit.shutdownTestKit();
+        }
+    }
+
     @Test
     public void dontGetMissingOrder() {
         assertThat(getOrder("no existing id").reply().isError()).isTrue();
@@ -0,0 +1,148 @@
+package com.example.order.persistence;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.pattern.StatusReply;
+import akka.persistence.testkit.javadsl.EventSourcedBehaviorTestKit;
+import com.example.order.query.OrderReadModel;
+import com.typesafe.config.ConfigFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PersistenceRouterShould {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource(ConfigFactory.parseString(
+            "akka.actor.serialization-bindings { \"com.example.order.serialization.JsonSerializable\" = jackson-json}")
+            .withFallback(EventSourcedBehaviorTestKit.config()));
+
+    @Test
+    public void routeCommandsToEntityOfOrder() {
+        ActorRef<PersistenceActor.PersistenceCommand> router = testKit.spawn(PersistenceRouter.create(Duration.ofMinutes(1)));
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+
+        router.tell(new PersistenceActor.Create(order("a"), probe.ref()));
+        router.tell(new PersistenceActor.Create(order("b"), probe.ref()));
+        probe.receiveSeveralMessages(2);
+
+        router.tell(new PersistenceActor.ChangeState("a", OrderState.PAID, probe.ref()));
+        assertThat(probe.receiveMessage().getValue().state).isEqualTo(OrderState.PAID);
+
+        router.tell(new PersistenceActor.Get("b", probe.ref()));
+        assertThat(probe.receiveMessage().getValue()).isEqualTo(order("b"));
+    }
+
+    @Test
+    public void recoverOrderAfterPassivation() throws InterruptedException {
+        ActorRef<PersistenceActor.PersistenceCommand> router = testKit.spawn(PersistenceRouter.create(Duration.ofMillis(100)));
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+
+        router.tell(new PersistenceActor.Create(order("c"), probe.ref()));
+        router.tell(new PersistenceActor.ChangeState("c", OrderState.PAID, probe.ref()));
+        probe.receiveSeveralMessages(2);
+        Thread.sleep(500);
+
+        router.tell(new PersistenceActor.Get("c", probe.ref()));
+        assertThat(probe.receiveMessage().getValue().state).isEqualTo(OrderState.PAID);
+    }
+
+    @Test
+    public void replyNotFoundForUnknownOrder() {
+        ActorRef<PersistenceActor.PersistenceCommand> router = testKit.spawn(PersistenceRouter.create(Duration.ofMinutes(1)));
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+
+        router.tell(new PersistenceActor.Get("no existing id", probe.ref()));
+
+        assertThat(probe.receiveMessage().getError()).isInstanceOf(OrderNotFoundException.class);
+    }
+
+    @Test
+    public void answerBatchesWithOneResultPerOrder() {
+        ActorRef<PersistenceActor.PersistenceCommand> router = testKit.spawn(PersistenceRouter.create(Duration.ofMinutes(1)));
+        TestProbe<List<StatusReply<Order>>> probe = testKit.createTestProbe();
+
+        router.tell(new PersistenceActor.CreateBatch(List.of(order("d"), order("e")), probe.ref()));
+        List<StatusReply<Order>> created = probe.receiveMessage();
+        router.tell(new PersistenceActor.ChangeStateBatch(List.of(
+                new PersistenceActor.StateChange("d", OrderState.PAID),
+                new PersistenceActor.StateChange("no existing id", OrderState.PAID)), probe.ref()));
+        List<StatusReply<Order>> changed = probe.receiveMessage();
+
+        assertThat(created).extracting(StatusReply::getValue).containsExactly(order("d"), order("e"));
+        assertThat(changed.get(0).getValue().state).isEqualTo(OrderState.PAID);
+        assertThat(changed.get(1).getError()).isInstanceOf(OrderNotFoundException.class);
+    }
+
+    @Test
+    public void listOrdersLeftInFulfillmentAfterRestart() {
+        ActorRef<PersistenceActor.PersistenceCommand> router = testKit.spawn(PersistenceRouter.create(Duration.ofMinutes(1)));
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+        TestProbe<Order> fulfillment = testKit.createTestProbe();
+
+        router.tell(new PersistenceActor.Create(order("f"), probe.ref()));
+        router.tell(new PersistenceActor.Create(order("g"), probe.ref()));
+        router.tell(new PersistenceActor.Pay("f", probe.ref(), fulfillment.ref()));
+        router.tell(new PersistenceActor.Pay("g", probe.ref(), fulfillment.ref()));
+        router.tell(new PersistenceActor.Close("g", FulfillmentResult.SUCCESS, probe.ref()));
+        assertThat(probe.receiveSeveralMessages(5)).allMatch(StatusReply::isSuccess);
+        testKit.stop(router);
+
+        ActorRef<PersistenceActor.PersistenceCommand> restarted = testKit.spawn(PersistenceRouter.create(Duration.ofMinutes(1)));
+        TestProbe<PersistenceActor.OrdersInFulfillment> listProbe = testKit.createTestProbe();
+        restarted.tell(new PersistenceActor.ListInFulfillment(listProbe.ref()));
+
+        assertThat(listProbe.receiveMessage().orderIds).contains("f").doesNotContain("g");
+    }
+
+    @Test
+    public void loadEveryOrderIntoTheReadSideAfterRestart() {
+        OrderReadModel readModel = OrderReadModel.get(testKit.system());
+        ActorRef<PersistenceActor.PersistenceCommand> router = testKit.spawn(PersistenceRouter.create(Duration.ofMinutes(1)));
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+
+        router.tell(new PersistenceActor.Create(order("k"), probe.ref()));
+        router.tell(new PersistenceActor.Create(order("l"), probe.ref()));
+        router.tell(new PersistenceActor.ChangeState("l", OrderState.PAID, probe.ref()));
+        assertThat(probe.receiveSeveralMessages(3)).allMatch(StatusReply::isSuccess);
+        testKit.stop(router);
+        readModel.orderRemoved("k");
+        readModel.orderRemoved("l");
+
+        testKit.spawn(PersistenceRouter.create(Duration.ofMinutes(1)));
+
+        probe.awaitAssert(() -> {
+            assertThat(readModel.isLoaded()).isTrue();
+            assertThat(readModel.find("k")).isEqualTo(order("k"));
+            assertThat(readModel.find("l").state).isEqualTo(OrderState.PAID);
+            return null;
+        });
+    }
+
+    @Test
+    public void answerRepeatedCreatesFromTheEntityOfTheFirstOrder() {
+        ActorRef<PersistenceActor.PersistenceCommand> router = testKit.spawn(PersistenceRouter.create(Duration.ofMinutes(1)));
+        TestProbe<StatusReply<Order>> probe = testKit.createTestProbe();
+
+        router.tell(new PersistenceActor.Create(order("h"), probe.ref(), "client key-1"));
+        StatusReply<Order> created = probe.receiveMessage();
+        router.tell(new PersistenceActor.Create(order("i"), probe.ref(), "client key-1"));
+        StatusReply<Order> retried = probe.receiveMessage();
+        router.tell(new PersistenceActor.Create(order("j").toBuilder().items(Map.of("Radio", 2)).build(), probe.ref(), "client key-1"));
+        StatusReply<Order> reused = probe.receiveMessage();
+
+        assertThat(created.getValue()).isEqualTo(order("h"));
+        assertThat(retried.getValue()).isEqualTo(order("h"));
+        assertThat(reused.getError()).isInstanceOf(IdempotencyKeyReusedException.class);
+    }
+
+    private static Order order(String id) {
+        return new Order(id, Map.of("TV", 1), OrderState.CREATED, FulfillmentResult.NO_RESULT);
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.order.persistence.journal;
+
+import akka.persistence.CapabilityFlag;
+import akka.persistence.japi.journal.JavaJournalSpec;
+import com.typesafe.config.ConfigFactory;
+import org.junit.runner.RunWith;
+import org.scalatestplus.junit.JUnitRunner;
+
+import java.util.UUID;
+
+/**
+ * Runs the Akka persistence journal TCK against the segment journal, with small segments so
+ * rolling is covered as well.
+ */
+@RunWith(JUnitRunner.class)
+public class SegmentJournalSpec extends JavaJournalSpec {
+
+    public SegmentJournalSpec() {
+        super(ConfigFactory.parseString(
+                "akka.persistence.journal.plugin = \"akka.persistence.journal.segment\"\n" +
+                "akka.persistence.journal.segment {\n" +
+                "  class = \"com.example.order.persistence.journal.SegmentJournal\"\n" +
+                "  dir = \"build/segment-journal-tck/" + UUID.randomUUID() + "\"\n" +
+                "  segment-size = 4 KiB\n" +
+                "  fsync = batch\n" +
+                "  fsync-interval = 1 ms\n" +
+                "}"));
+    }
+
+    @Override
+    public CapabilityFlag supportsRejectingNonSerializableObjects() {
+        return CapabilityFlag.on();
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.order.persistence.journal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SegmentLogShould {
+
+    Path dir;
+    SegmentLog log;
+
+    @Before
+    public void before() throws IOException {
+        dir = Files.createTempDirectory("segment-journal");
+        log = new SegmentLog(dir, 256);
+    }
+
+    @After
+    public void after() throws IOException {
+        log.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void replayEntriesAcrossSegmentsAfterReopen() throws IOException {
+        for (long seqNr = 1; seqNr <= 20; seqNr++) {
+            log.append("a", seqNr, payload("a" + seqNr));
+            log.append("b", seqNr, payload("b" + seqNr));
+        }
+        log.close();
+
+        log = new SegmentLog(dir, 256);
+
+        assertThat(segmentFiles()).isGreaterThan(1);
+        assertThat(replay("a", 5, 7, Long.MAX_VALUE)).containsExactly("a5", "a6", "a7");
+        assertThat(replay("b", 1, Long.MAX_VALUE, 2)).containsExactly("b1", "b2");
+        assertThat(log.highestSequenceNr("a")).isEqualTo(20);
+        assertThat(log.highestSequenceNr("c")).isZero();
+    }
+
+    @Test
+    public void keepHighestSequenceNrOfDeletedEntries() {
+        for (long seqNr = 1; seqNr <= 5; seqNr++) {
+            log.append("a", seqNr, payload("a" + seqNr));
+        }
+        log.delete("a", 3);
+        log.close();
+
+        log = new SegmentLog(dir, 256);
+
+        assertThat(replay("a", 1, Long.MAX_VALUE, Long.MAX_VALUE)).containsExactly("a4", "a5");
+        assertThat(log.highestSequenceNr("a")).isEqualTo(5);
+    }
+
+    @Test
+    public void ignoreTornRecordAtEndOfSegment() throws IOException {
+        log.append("a", 1, payload("a1"));
+        log.append("a", 2, payload("a2"));
+        log.close();
+        try (RandomAccessFile file = new RandomAccessFile(dir.resolve("segment-000000.log").toFile(), "rw")) {
+            // flip a byte in the body of the second record, its length still claims it complete
+            int secondRecord = 8 + file.readInt();
+            file.seek(secondRecord + 8 + 4);
+            int damaged = file.read() ^ 0xff;
+            file.seek(secondRecord + 8 + 4);
+            file.write(damaged);
+        }
+
+        log = new SegmentLog(dir, 256);
+        log.append("a", 2, payload("a2 again"));
+
+        assertThat(replay("a", 1, Long.MAX_VALUE, Long.MAX_VALUE)).containsExactly("a1", "a2 again");
+    }
+
+    private List<String> replay(String persistenceId, long from, long to, long max) {
+        List<String> payloads = new ArrayList<>();
+        log.replay(persistenceId, from, to, max, bytes -> payloads.add(new String(bytes, StandardCharsets.UTF_8)));
+        return payloads;
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static byte[] payload(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
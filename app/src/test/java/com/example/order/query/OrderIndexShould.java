@@ -0,0 +1,107 @@
+package com.example.order.query;
+
+import com.example.order.persistence.FulfillmentResult;
+import com.example.order.persistence.Order;
+import com.example.order.persistence.OrderState;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class OrderIndexShould {
+
+    private final OrderIndex index = new OrderIndex();
+    private final Map<String, Order> orders = new HashMap<>();
+
+    @Test
+    public void pageThroughOrdersOldestFirst() {
+        for (int i = 0; i < 5; i++) {
+            put(order("o" + i, "TV", OrderState.CREATED));
+        }
+
+        OrderPage first = index.query(null, null, null, 2, orders::get);
+        OrderPage second = index.query(null, null, OrderPage.after(first.getNextCursor()), 2, orders::get);
+        OrderPage last = index.query(null, null, OrderPage.after(second.getNextCursor()), 2, orders::get);
+
+        assertThat(ids(first)).containsExactly("o0", "o1");
+        assertThat(ids(second)).containsExactly("o2", "o3");
+        assertThat(ids(last)).containsExactly("o4");
+        assertThat(last.getNextCursor()).isNull();
+    }
+
+    @Test
+    public void listByCreationTimeAndContinueAfterLoadingInAnotherOrder() {
+        List<Order> created = List.of(
+                order("b", "TV", OrderState.CREATED).createdAt(1000),
+                order("a", "TV", OrderState.CREATED).createdAt(2000),
+                order("c", "TV", OrderState.PAID).createdAt(2000));
+        created.forEach(this::put);
+
+        OrderPage first = index.query(null, null, null, 2, orders::get);
+        OrderIndex restarted = new OrderIndex();
+        for (int i = created.size() - 1; i >= 0; i--) {
+            restarted.update(null, created.get(i));
+        }
+        OrderPage rest = restarted.query(null, "TV", OrderPage.after(first.getNextCursor()), 2, orders::get);
+
+        assertThat(ids(first)).containsExactly("b", "a");
+        assertThat(ids(rest)).containsExactly("c");
+        assertThatThrownBy(() -> OrderPage.after("1")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void followStateChangesAndRemovals() {
+        put(order("a", "TV", OrderState.CREATED));
+        put(order("b", "TV", OrderState.CREATED));
+        put(order("c", "TV", OrderState.CREATED));
+
+        put(order("a", "TV", OrderState.PAID));
+        remove("b");
+
+        assertThat(ids(index.query(OrderState.PAID, null, null, 10, orders::get))).containsExactly("a");
+        assertThat(ids(index.query(OrderState.CREATED, null, null, 10, orders::get))).containsExactly("c");
+        assertThat(ids(index.query(null, "TV", null, 10, orders::get))).containsExactly("a", "c");
+    }
+
+    @Test
+    public void combineStateAndSku() {
+        put(order("tv-created", "TV", OrderState.CREATED));
+        put(order("radio-created", "Radio", OrderState.CREATED));
+        put(order("radio-paid", "Radio", OrderState.PAID));
+
+        assertThat(ids(index.query(OrderState.CREATED, "Radio", null, 10, orders::get))).containsExactly("radio-created");
+        assertThat(ids(index.query(OrderState.PAID, "TV", null, 10, orders::get))).isEmpty();
+        assertThat(ids(index.query(null, "Unknown", null, 10, orders::get))).isEmpty();
+    }
+
+    @Test
+    public void indexOrdersWithoutItems() {
+        put(new Order("no-items", null, OrderState.CREATED, FulfillmentResult.NO_RESULT));
+        put(order("with-items", "TV", OrderState.CREATED));
+
+        assertThat(ids(index.query(null, "TV", null, 10, orders::get))).containsExactly("with-items");
+        assertThat(ids(index.query(OrderState.CREATED, null, null, 10, orders::get))).containsExactly("no-items", "with-items");
+        remove("no-items");
+    }
+
+    private void put(Order order) {
+        index.update(orders.put(order.id, order), order);
+    }
+
+    private void remove(String orderId) {
+        index.update(orders.remove(orderId), null);
+    }
+
+    private static Order order(String id, String sku, OrderState state) {
+        return new Order(id, Map.of(sku, 1), state, FulfillmentResult.NO_RESULT);
+    }
+
+    private static List<String> ids(OrderPage page) {
+        return page.getOrders().stream().map(order -> order.id).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.order.query;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import com.example.order.persistence.FulfillmentResult;
+import com.example.order.persistence.Order;
+import com.example.order.persistence.OrderState;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OrderSubscriptionsShould {
+
+    @ClassRule
+    public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+    private final OrderSubscriptions subscriptions =
+            new OrderSubscriptions(testKit.system().scheduler(), testKit.system().executionContext());
+    private final Map<String, Order> orders = new ConcurrentHashMap<>();
+
+    @Test
+    public void completeWaitersOnceTheOrderMatches() throws Exception {
+        Order created = order("a", OrderState.CREATED);
+        orders.put("a", created);
+
+        CompletableFuture<Order> paid = subscriptions.await("a", order -> order.state != OrderState.CREATED, Duration.ofMinutes(1), orders::get);
+        CompletableFuture<Order> closed = subscriptions.await("a", order -> order.state == OrderState.CLOSED, Duration.ofMinutes(1), orders::get);
+        subscriptions.changed(change(created.withState(OrderState.PAID)));
+
+        assertThat(paid.get(3, TimeUnit.SECONDS).state).isEqualTo(OrderState.PAID);
+        assertThat(closed).isNotDone();
+        assertThat(subscriptions.size()).isEqualTo(1);
+        assertThat(subscriptions.isWatched("a")).isTrue();
+    }
+
+    @Test
+    public void completeRightAwayIfTheOrderAlreadyMatches() throws Exception {
+        orders.put("b", order("b", OrderState.PAID));
+
+        CompletableFuture<Order> paid = subscriptions.await("b", order -> order.state != OrderState.CREATED, Duration.ofMinutes(1), orders::get);
+
+        assertThat(paid.get(3, TimeUnit.SECONDS).state).isEqualTo(OrderState.PAID);
+        assertThat(subscriptions.isWatched("b")).isFalse();
+    }
+
+    @Test
+    public void completeWithTheCurrentOrderOnTimeout() throws Exception {
+        orders.put("c", order("c", OrderState.CREATED));
+
+        CompletableFuture<Order> unchanged = subscriptions.await("c", order -> order.state != OrderState.CREATED, Duration.ofMillis(50), orders::get);
+        CompletableFuture<Order> unknown = subscriptions.await("d", order -> true, Duration.ofMillis(50), orders::get);
+
+        assertThat(unchanged.get(3, TimeUnit.SECONDS).state).isEqualTo(OrderState.CREATED);
+        assertThat(unknown.get(3, TimeUnit.SECONDS)).isNull();
+        assertThat(subscriptions.isWatched("c")).isFalse();
+        assertThat(subscriptions.size()).isZero();
+    }
+
+    private Order change(Order order) {
+        orders.put(order.id, order);
+        return order;
+    }
+
+    private static Order order(String id, OrderState state) {
+        return new Order(id, Map.of("TV", 1), state, FulfillmentResult.NO_RESULT);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.order;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Configuration of the actor systems benchmarks run, keeping journal, snapshots and closed orders
+ * in a directory of their own.
+ */
+public final class BenchmarkSystems {
+
+    public static final String LEVELDB = "akka.persistence.journal.leveldb";
+    public static final String SEGMENT = "akka.persistence.journal.segment";
+
+    private BenchmarkSystems() {
+    }
+
+    public static Config config(Path dir, String journalPlugin) {
+        return ConfigFactory.empty()
+                .withValue("akka.loglevel", ConfigValueFactory.fromAnyRef("WARNING"))
+                .withValue("akka.persistence.journal.plugin", ConfigValueFactory.fromAnyRef(journalPlugin))
+                .withValue("akka.persistence.journal.leveldb.dir", ConfigValueFactory.fromAnyRef(dir.resolve("leveldb").toString()))
+                .withValue("akka.persistence.journal.segment.dir", ConfigValueFactory.fromAnyRef(dir.resolve("segments").toString()))
+                // durability is not what is measured, flushing is left to the OS
+                .withValue("akka.persistence.journal.segment.fsync", ConfigValueFactory.fromAnyRef("never"))
+                .withValue("akka.persistence.snapshot-store.local.dir", ConfigValueFactory.fromAnyRef(dir.resolve("snapshots").toString()))
+                .withValue("order.persistence.closed-orders.dir", ConfigValueFactory.fromAnyRef(dir.resolve("closed-orders").toString()))
+                .withFallback(ConfigFactory.load());
+    }
+
+    public static Path createTempDir(String prefix) {
+        try {
+            return Files.createTempDirectory(prefix);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void delete(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
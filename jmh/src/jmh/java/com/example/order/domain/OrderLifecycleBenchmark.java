@@ -0,0 +1,81 @@
+package com.example.order.domain;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Props;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.actor.typed.javadsl.Behaviors;
+import com.example.order.BenchmarkSystems;
+import com.example.order.persistence.FulfillmentResult;
+import com.example.order.persistence.Order;
+import com.example.order.persistence.OrderState;
+import com.example.order.persistence.PersistenceActor;
+import com.example.order.query.OrderReadModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One order from creation through payment and fulfillment until it is closed. Run with the gc
+ * profiler, the normalized allocation rate is the garbage one order lifecycle costs across all
+ * actors involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OrderLifecycleBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private Path dir;
+    private ActorSystem<Void> system;
+    private ActorRef<PersistenceActor.PersistenceCommand> persistenceActor;
+    private ActorRef<OrderActor.Command> orderActor;
+    private OrderReadModel readModel;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dir = BenchmarkSystems.createTempDir("order-lifecycle");
+        system = ActorSystem.create(Behaviors.empty(), "order-lifecycle", BenchmarkSystems.config(dir, BenchmarkSystems.SEGMENT));
+        persistenceActor = system.systemActorOf(PersistenceActor.create(), "Orders", Props.empty());
+        ActorRef<FulfillmentActor.Command> fulfillment = system.systemActorOf(FulfillmentActor.create(), "Fulfillment", Props.empty());
+        orderActor = system.systemActorOf(OrderActor.create(persistenceActor, fulfillment), "OrderActor", Props.empty());
+        readModel = OrderReadModel.get(system);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        BenchmarkSystems.delete(dir);
+    }
+
+    @Benchmark
+    public Order createPayAndClose() throws Exception {
+        Order order = new Order(UUID.randomUUID().toString(), Map.of("TV", 1), OrderState.CREATED, FulfillmentResult.NO_RESULT);
+        AskPattern.<PersistenceActor.PersistenceCommand, Order>askWithStatus(persistenceActor,
+                replyTo -> new PersistenceActor.Create(order, replyTo), TIMEOUT, system.scheduler())
+                .toCompletableFuture().get();
+        AskPattern.<OrderActor.Command, Order>askWithStatus(orderActor,
+                replyTo -> new OrderActor.ChangeState(order.id, OrderState.PAID, replyTo), TIMEOUT, system.scheduler())
+                .toCompletableFuture().get();
+        // the read side is updated before the persistence actor moves on, the default of read-your-writes
+        Order current;
+        while ((current = readModel.find(order.id)).state != OrderState.CLOSED) {
+            Thread.onSpinWait();
+        }
+        return current;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.order.http;
+
+import akka.util.ByteString;
+import com.example.order.persistence.FulfillmentResult;
+import com.example.order.persistence.Order;
+import com.example.order.persistence.OrderState;
+import com.example.order.query.OrderPage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of decoding request bodies and encoding response bodies of the order routes. The default
+ * variants do what akka-http's Jackson marshallers did: decode the body into a string and map it
+ * with a default mapper, and write responses as a string that is encoded into the entity.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrderCodecBenchmark {
+
+    private static final ByteString ORDER_POST_JSON = ByteString.fromString("{\"items\":{\"TV\":1,\"Radio\":2,\"SKU-12345\":3}}");
+
+    private final ObjectMapper defaultMapper = new ObjectMapper();
+    private final ObjectReader codecOrderPostReader = OrderCodec.JSON_MAPPER.readerFor(OrderPostDto.class);
+    private final ObjectReader cborOrderPostReader = OrderCodec.CBOR_MAPPER.readerFor(OrderPostDto.class);
+    private final ObjectWriter codecPageWriter = OrderCodec.JSON_MAPPER.writerFor(OrderPage.class);
+    private final ObjectWriter cborOrderWriter = OrderCodec.CBOR_MAPPER.writerFor(Order.class);
+
+    private final Order order = new Order(UUID.randomUUID().toString(),
+            Map.of("TV", 1, "Radio", 2, "SKU-12345", 3), OrderState.PAID, FulfillmentResult.NO_RESULT);
+    private byte[] orderPostCbor;
+    private OrderPage page;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        orderPostCbor = OrderCodec.CBOR_MAPPER.writeValueAsBytes(defaultMapper.readTree(ORDER_POST_JSON.utf8String()));
+        List<Order> orders = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            orders.add(new Order(UUID.randomUUID().toString(), Map.of("SKU-" + i, i % 5 + 1), OrderState.CREATED, FulfillmentResult.NO_RESULT));
+        }
+        page = new OrderPage(orders, "2s");
+    }
+
+    @Benchmark
+    public OrderPostDto readOrderPostDefault() throws Exception {
+        return defaultMapper.readValue(ORDER_POST_JSON.utf8String(), OrderPostDto.class);
+    }
+
+    @Benchmark
+    public OrderPostDto readOrderPost() throws Exception {
+        return codecOrderPostReader.readValue(ORDER_POST_JSON.toArray());
+    }
+
+    @Benchmark
+    public OrderPostDto readOrderPostCbor() throws Exception {
+        return cborOrderPostReader.readValue(orderPostCbor);
+    }
+
+    @Benchmark
+    public ByteString writeOrderDefault() throws Exception {
+        return ByteString.fromString(defaultMapper.writeValueAsString(order));
+    }
+
+    @Benchmark
+    public ByteString writeOrder() {
+        return ByteString.fromArrayUnsafe(OrderCodec.orderJson(order));
+    }
+
+    @Benchmark
+    public ByteString writeOrderCbor() throws Exception {
+        return ByteString.fromArrayUnsafe(cborOrderWriter.writeValueAsBytes(order));
+    }
+
+    /** Page of 100 orders. */
+    @Benchmark
+    public ByteString writeOrderPageDefault() throws Exception {
+        return ByteString.fromString(defaultMapper.writeValueAsString(page));
+    }
+
+    /** Page of 100 orders. */
+    @Benchmark
+    public ByteString writeOrderPage() throws Exception {
+        return ByteString.fromArrayUnsafe(codecPageWriter.writeValueAsBytes(page));
+    }
+}
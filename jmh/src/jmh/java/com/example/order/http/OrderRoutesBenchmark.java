@@ -0,0 +1,97 @@
+package com.example.order.http;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Props;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.MediaTypes;
+import akka.japi.function.Function;
+import com.example.order.BenchmarkSystems;
+import com.example.order.domain.FulfillmentActor;
+import com.example.order.domain.OrderActor;
+import com.example.order.persistence.PersistenceActor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests handled by the sealed order routes in process, without a network connection, from the
+ * request until the strict response entity is available.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OrderRoutesBenchmark {
+
+    private static final String ORDER_JSON = "{\"items\":{\"TV\":1,\"Radio\":2}}";
+    private static final String BATCH_JSON = "[" + String.join(",", java.util.Collections.nCopies(10, ORDER_JSON)) + "]";
+
+    private Path dir;
+    private ActorSystem<Void> system;
+    private Function<HttpRequest, CompletionStage<HttpResponse>> handler;
+    private String orderId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = BenchmarkSystems.createTempDir("order-routes");
+        system = ActorSystem.create(Behaviors.empty(), "order-routes", BenchmarkSystems.config(dir, BenchmarkSystems.SEGMENT));
+        ActorRef<PersistenceActor.PersistenceCommand> persistenceActor =
+                system.systemActorOf(PersistenceActor.create(), "Orders", Props.empty());
+        ActorRef<FulfillmentActor.Command> fulfillment = system.systemActorOf(FulfillmentActor.create(), "Fulfillment", Props.empty());
+        ActorRef<OrderActor.Command> orderActor =
+                system.systemActorOf(OrderActor.create(persistenceActor, fulfillment), "OrderActor", Props.empty());
+        handler = new OrderRoutes(system, persistenceActor, orderActor).userRoutes().handler(system);
+        orderId = new ObjectMapper().readTree(entity(postOrder())).get("id").asText();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        BenchmarkSystems.delete(dir);
+    }
+
+    @Benchmark
+    public HttpResponse postOrder() throws Exception {
+        return run(HttpRequest.POST("/orders").withEntity(MediaTypes.APPLICATION_JSON.toContentType(), ORDER_JSON));
+    }
+
+    /** Ten orders per request. */
+    @Benchmark
+    public HttpResponse postOrderBatch() throws Exception {
+        return run(HttpRequest.POST("/orders/batch").withEntity(MediaTypes.APPLICATION_JSON.toContentType(), BATCH_JSON));
+    }
+
+    @Benchmark
+    public HttpResponse getOrder() throws Exception {
+        return run(HttpRequest.GET("/orders/" + orderId));
+    }
+
+    @Benchmark
+    public HttpResponse getMissingOrder() throws Exception {
+        return run(HttpRequest.GET("/orders/00000000-0000-0000-0000-000000000000"));
+    }
+
+    private HttpResponse run(HttpRequest request) throws Exception {
+        HttpResponse response = handler.apply(request).toCompletableFuture().get(10, TimeUnit.SECONDS);
+        response.entity().toStrict(10_000, system).toCompletableFuture().get(10, TimeUnit.SECONDS);
+        return response;
+    }
+
+    private String entity(HttpResponse response) throws Exception {
+        return response.entity().toStrict(10_000, system).toCompletableFuture().get(10, TimeUnit.SECONDS).getData().utf8String();
+    }
+}
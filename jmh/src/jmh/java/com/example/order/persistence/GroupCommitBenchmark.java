@@ -0,0 +1,92 @@
+package com.example.order.persistence;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.Props;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.actor.typed.javadsl.Behaviors;
+import com.example.order.BenchmarkSystems;
+import com.typesafe.config.ConfigValueFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of concurrent single order writes through the {@link GroupCommitBuffer} for several
+ * max batch sizes, 1 writing to the persistence actor directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class GroupCommitBenchmark {
+
+    private static final int WRITES = 1000;
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+
+    @Param({"1", "16", "256"})
+    int maxBatchSize;
+
+    @Param({"always", "never"})
+    String fsync;
+
+    private Path dir;
+    private ActorSystem<Void> system;
+    private ActorRef<PersistenceActor.PersistenceCommand> orders;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dir = BenchmarkSystems.createTempDir("group-commit");
+        system = ActorSystem.create(Behaviors.empty(), "group-commit", BenchmarkSystems.config(dir, BenchmarkSystems.SEGMENT)
+                .withValue("akka.persistence.journal.segment.fsync", ConfigValueFactory.fromAnyRef(fsync)));
+        PersistenceSettings settings = PersistenceSettings.defaults().toBuilder()
+                .storeType(OrderStoreType.COMPACT)
+                .groupCommitMaxBatchSize(maxBatchSize)
+                .groupCommitMaxLinger(Duration.ofMillis(2))
+                .build();
+        Behavior<PersistenceActor.PersistenceCommand> behavior = maxBatchSize > 1
+                ? GroupCommitBuffer.create(settings)
+                : PersistenceActor.create(settings);
+        orders = system.systemActorOf(behavior, "Orders", Props.empty());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        BenchmarkSystems.delete(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WRITES)
+    public void concurrentCreates() {
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[WRITES];
+        for (int i = 0; i < WRITES; i++) {
+            Order order = new Order(UUID.randomUUID().toString(), Map.of("TV", 1), OrderState.CREATED, FulfillmentResult.NO_RESULT);
+            replies[i] = AskPattern.<PersistenceActor.PersistenceCommand, Order>askWithStatus(orders,
+                    replyTo -> new PersistenceActor.Create(order, replyTo), TIMEOUT, system.scheduler()).toCompletableFuture();
+        }
+        CompletableFuture.allOf(replies).join();
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.order.persistence;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Props;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.pattern.StatusReply;
+import com.example.order.BenchmarkSystems;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recovery of the single persistence actor by replaying its journal without snapshots, from
+ * starting the actor until it answered its first command.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class JournalReplayBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(2);
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({BenchmarkSystems.LEVELDB, BenchmarkSystems.SEGMENT})
+    String journal;
+
+    @Param({"100000"})
+    int events;
+
+    private Path dir;
+    private String lastOrderId;
+    private ActorSystem<Void> system;
+
+    @Setup(Level.Trial)
+    public void writeJournal() throws Exception {
+        dir = BenchmarkSystems.createTempDir("journal-replay");
+        startSystem();
+        ActorRef<PersistenceActor.PersistenceCommand> orders = spawnOrders();
+        for (int written = 0; written < events; written += BATCH_SIZE) {
+            List<Order> batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                lastOrderId = UUID.randomUUID().toString();
+                batch.add(new Order(lastOrderId, Map.of("SKU-" + i, 1), OrderState.CREATED, FulfillmentResult.NO_RESULT));
+            }
+            AskPattern.<PersistenceActor.PersistenceCommand, List<StatusReply<Order>>>ask(orders,
+                    replyTo -> new PersistenceActor.CreateBatch(batch, replyTo), TIMEOUT, system.scheduler())
+                    .toCompletableFuture().get();
+        }
+        stopSystem();
+    }
+
+    @Setup(Level.Invocation)
+    public void startSystem() {
+        system = ActorSystem.create(Behaviors.empty(), "replay", BenchmarkSystems.config(dir, journal));
+    }
+
+    @Benchmark
+    public Order replay() throws Exception {
+        ActorRef<PersistenceActor.PersistenceCommand> orders = spawnOrders();
+        return AskPattern.<PersistenceActor.PersistenceCommand, Order>askWithStatus(orders,
+                replyTo -> new PersistenceActor.Get(lastOrderId, replyTo), TIMEOUT, system.scheduler())
+                .toCompletableFuture().get();
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopSystem() throws Exception {
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(1, TimeUnit.MINUTES);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJournal() {
+        BenchmarkSystems.delete(dir);
+    }
+
+    private ActorRef<PersistenceActor.PersistenceCommand> spawnOrders() {
+        return system.systemActorOf(PersistenceActor.create(PersistenceSettings.defaults()), "Orders", Props.empty());
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.order.persistence;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.Serializers;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing and deserializing orders, events and a snapshot with the serializer bound in
+ * application.conf and with Jackson, plus writing an order as JSON for HTTP responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializationBenchmark {
+
+    @Param({"order-binary", "jackson-json"})
+    String serializer;
+
+    private final Order order = new Order(UUID.randomUUID().toString(),
+            Map.of("TV", 1, "Radio", 2, "SKU-12345", 3), OrderState.PAID, FulfillmentResult.NO_RESULT);
+    private final Events.OrderCreated created = new Events.OrderCreated(order, "key", System.currentTimeMillis());
+    private final Events.OrderStateChanged stateChanged = new Events.OrderStateChanged(order.id, OrderState.IN_FULFILLMENT);
+    private final ObjectMapper httpMapper = new ObjectMapper();
+
+    private ActorSystem<Void> system;
+    private Serialization serialization;
+    private com.example.order.persistence.State snapshot;
+    private Serialized serializedOrder;
+    private Serialized serializedCreated;
+    private Serialized serializedStateChanged;
+    private Serialized serializedSnapshot;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        system = ActorSystem.create(Behaviors.empty(), "serialization", ConfigFactory.parseString(
+                "akka.actor.serialization-bindings { \"com.example.order.serialization.BinarySerializable\" = " + serializer + " }")
+                .withFallback(ConfigFactory.load()));
+        serialization = SerializationExtension.get(system);
+        snapshot = new com.example.order.persistence.State();
+        for (int i = 0; i < 1000; i++) {
+            snapshot.addOrder(new Order(UUID.randomUUID().toString(), Map.of("SKU-" + i % 100, i % 5 + 1),
+                    OrderState.CREATED, FulfillmentResult.NO_RESULT));
+        }
+        serializedOrder = serialize(order);
+        serializedCreated = serialize(created);
+        serializedStateChanged = serialize(stateChanged);
+        serializedSnapshot = serialize(snapshot);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        system.terminate();
+    }
+
+    @Benchmark
+    public byte[] serializeOrder() {
+        return serialization.serialize(order).get();
+    }
+
+    @Benchmark
+    public Object deserializeOrder() {
+        return serializedOrder.deserialize(serialization);
+    }
+
+    @Benchmark
+    public byte[] serializeOrderCreated() {
+        return serialization.serialize(created).get();
+    }
+
+    @Benchmark
+    public Object deserializeOrderCreated() {
+        return serializedCreated.deserialize(serialization);
+    }
+
+    @Benchmark
+    public byte[] serializeOrderStateChanged() {
+        return serialization.serialize(stateChanged).get();
+    }
+
+    @Benchmark
+    public Object deserializeOrderStateChanged() {
+        return serializedStateChanged.deserialize(serialization);
+    }
+
+    /** Snapshot of 1000 orders. */
+    @Benchmark
+    public byte[] serializeSnapshot() {
+        return serialization.serialize(snapshot).get();
+    }
+
+    @Benchmark
+    public Object deserializeSnapshot() {
+        return serializedSnapshot.deserialize(serialization);
+    }
+
+    /** Independent of the serializer parameter, the entity written by the routes. */
+    @Benchmark
+    public byte[] writeOrderJsonForHttp() throws Exception {
+        return httpMapper.writeValueAsBytes(order);
+    }
+
+    private Serialized serialize(Object o) {
+        Serializer serializer = serialization.findSerializerFor(o);
+        return new Serialized(serialization.serialize(o).get(), serializer.identifier(), Serializers.manifestFor(serializer, o));
+    }
+
+    private static final class Serialized {
+        final byte[] bytes;
+        final int serializerId;
+        final String manifest;
+
+        Serialized(byte[] bytes, int serializerId, String manifest) {
+            this.bytes = bytes;
+            this.serializerId = serializerId;
+            this.manifest = manifest;
+        }
+
+        Object deserialize(Serialization serialization) {
+            return serialization.deserialize(bytes, serializerId, manifest).get();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.order.persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import akka.pattern.StatusReply;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations of the persistence actor state on a store already holding many orders. Run with the
+ * gc profiler, gc.alloc.rate.norm shows the bytes allocated per lookup and per error reply.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StateBenchmark {
+
+    @Param({"HASH_MAP", "COMPACT"})
+    OrderStoreType storeType;
+
+    @Param({"100000"})
+    int orders;
+
+    private static final String MISSING_ID = UUID.randomUUID().toString();
+
+    private com.example.order.persistence.State state;
+    private String[] ids;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        state = new com.example.order.persistence.State(storeType);
+        ids = new String[orders];
+        for (int i = 0; i < orders; i++) {
+            ids[i] = UUID.randomUUID().toString();
+            state.addOrder(new Order(ids[i], Map.of("SKU-" + i % 1000, 1), OrderState.CREATED, FulfillmentResult.NO_RESULT));
+        }
+    }
+
+    private String nextId() {
+        next = next + 1 == ids.length ? 0 : next + 1;
+        return ids[next];
+    }
+
+    @Benchmark
+    public com.example.order.persistence.State addOrder() {
+        // replaces an existing order, so the store keeps its size across iterations
+        String id = nextId();
+        return state.addOrder(new Order(id, Map.of("SKU-1", 2), OrderState.CREATED, FulfillmentResult.NO_RESULT));
+    }
+
+    @Benchmark
+    public Order findOrder() {
+        return state.getOrder(nextId());
+    }
+
+    @Benchmark
+    public StatusReply<Order> missingOrderReply() {
+        String id = MISSING_ID;
+        Order order = state.getOrder(id);
+        return order != null ? StatusReply.success(order) : StatusReply.error(OrderNotFoundException.forOrder(id));
+    }
+
+    /**
+     * Error reply as built before the errors were made stackless, for comparison.
+     */
+    @Benchmark
+    public StatusReply<Order> missingOrderReplyWithStackTrace() {
+        String id = MISSING_ID;
+        Order order = state.getOrder(id);
+        return order != null ? StatusReply.success(order)
+                : StatusReply.error(new RuntimeException(String.format("Order with ID %s not found!", id)));
+    }
+
+    @Benchmark
+    public com.example.order.persistence.State changeState() {
+        String id = nextId();
+        return state.changeState(id, (next & 1) == 0 ? OrderState.PAID : OrderState.CREATED);
+    }
+}
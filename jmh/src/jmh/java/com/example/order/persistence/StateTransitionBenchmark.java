@@ -0,0 +1,45 @@
+package com.example.order.persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of state changes, run for every command changing an order. Cycles through all pairs
+ * of states, valid and invalid ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StateTransitionBenchmark {
+
+    private static final OrderState[] STATES = OrderState.values();
+
+    private final OrderLifecycle lifecycle = OrderLifecycle.defaults();
+    private final Order[] orders = new Order[STATES.length];
+    private int next;
+
+    public StateTransitionBenchmark() {
+        for (OrderState state : STATES) {
+            orders[state.ordinal()] = new Order("order", Map.of("TV", 1), state, FulfillmentResult.NO_RESULT);
+        }
+    }
+
+    @Benchmark
+    public boolean isAllowed() {
+        next = next + 1 == STATES.length * STATES.length ? 0 : next + 1;
+        return lifecycle.isAllowed(STATES[next / STATES.length], STATES[next % STATES.length]);
+    }
+
+    @Benchmark
+    public boolean canRequest() {
+        next = next + 1 == STATES.length * STATES.length ? 0 : next + 1;
+        return lifecycle.canRequest(orders[next / STATES.length], STATES[next % STATES.length]);
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.order.persistence;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to fill an order store with millions of orders and the heap it retains per order,
+ * reported as the {@code bytesPerOrder} counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class StoreFootprintBenchmark {
+
+    @Param({"HASH_MAP", "COMPACT"})
+    OrderStoreType storeType;
+
+    @Param({"1000000", "10000000"})
+    int orders;
+
+    private static final OrderState[] STATES = {OrderState.CREATED, OrderState.PAID, OrderState.IN_FULFILLMENT, OrderState.CLOSED};
+
+    private final String[] skus = new String[1000];
+
+    @Setup(Level.Trial)
+    public void createSkus() {
+        for (int i = 0; i < skus.length; i++) {
+            skus[i] = "SKU-" + i;
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long bytesPerOrder;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesPerOrder = 0;
+        }
+    }
+
+    @Benchmark
+    public void fill(Footprint footprint) {
+        long before = usedHeap();
+        com.example.order.persistence.State state = new com.example.order.persistence.State(storeType);
+        for (int i = 0; i < orders; i++) {
+            state.addOrder(new Order(new UUID(i, ~i).toString(), Map.of(skus[i % skus.length], i % 5 + 1),
+                    STATES[i % STATES.length], FulfillmentResult.NO_RESULT));
+        }
+        footprint.bytesPerOrder = (usedHeap() - before) / orders;
+        Reference.reachabilityFence(state);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.order.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies, measured from the time a request was scheduled for, errors and shed requests per
+ * operation. Requests shed with 503 Service Unavailable and Retry-After are only counted, so latencies and
+ * throughput are those of the requests the service admitted.
+ */
+class LoadReport {
+
+    static final int NO_RESPONSE = 0;
+    /** Status recorded for 503 responses with Retry-After, unlike e.g. server side request timeouts. */
+    static final int SHED = -1;
+
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private final Map<LoadTest.Operation, Histogram> latencies = new EnumMap<>(LoadTest.Operation.class);
+    private final Map<LoadTest.Operation, LongAdder> errors = new EnumMap<>(LoadTest.Operation.class);
+    private final Map<LoadTest.Operation, LongAdder> shed = new EnumMap<>(LoadTest.Operation.class);
+    private volatile long elapsedNanos;
+
+    LoadReport() {
+        for (LoadTest.Operation operation : LoadTest.Operation.values()) {
+            latencies.put(operation, new ConcurrentHistogram(HIGHEST_MICROS, 3));
+            errors.put(operation, new LongAdder());
+            shed.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * @param status HTTP status of the response, {@link #SHED} or {@link #NO_RESPONSE} if the request failed
+     */
+    void record(LoadTest.Operation operation, long latencyNanos, int status) {
+        if (status == SHED) {
+            shed.get(operation).increment();
+            return;
+        }
+        latencies.get(operation).recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_MICROS));
+        if (status < 200 || status >= 300) {
+            errors.get(operation).increment();
+        }
+    }
+
+    void finished(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    Histogram total() {
+        Histogram total = new Histogram(HIGHEST_MICROS, 3);
+        latencies.values().forEach(total::add);
+        return total;
+    }
+
+    long errors() {
+        return errors.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    long shed() {
+        return shed.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    double throughput() {
+        return total().getTotalCount() / Math.max(elapsedNanos / 1e9, 1e-9);
+    }
+
+    void print(PrintStream out) {
+        out.printf("%-8s %10s %8s %8s %10s %10s %10s %10s%n", "", "requests", "errors", "shed", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        latencies.forEach((operation, histogram) -> printRow(out, operation.name().toLowerCase(), histogram,
+                errors.get(operation).sum(), shed.get(operation).sum()));
+        printRow(out, "all", total(), errors(), shed());
+        out.printf("throughput %.0f requests/s%n", throughput());
+    }
+
+    private static void printRow(PrintStream out, String name, Histogram histogram, long errors, long shed) {
+        out.printf("%-8s %10d %8d %8d %10.2f %10.2f %10.2f %10.2f%n", name, histogram.getTotalCount(), errors, shed,
+                millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(99)),
+                millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue()));
+    }
+
+    /**
+     * @return a description of every missed objective, empty if all were met
+     */
+    List<String> violations(LoadSettings settings) {
+        List<String> violations = new ArrayList<>();
+        Histogram total = total();
+        checkLatency(violations, "p50", total.getValueAtPercentile(50), settings.getP50());
+        checkLatency(violations, "p99", total.getValueAtPercentile(99), settings.getP99());
+        checkLatency(violations, "p99.9", total.getValueAtPercentile(99.9), settings.getP999());
+        double throughput = throughput();
+        if (throughput < settings.getMinThroughput() * settings.getRate()) {
+            violations.add(String.format("throughput %.0f requests/s is below %.0f%% of the rate %d",
+                    throughput, settings.getMinThroughput() * 100, settings.getRate()));
+        }
+        double errorRate = (double) errors() / Math.max(total.getTotalCount(), 1);
+        if (errorRate > settings.getMaxErrorRate()) {
+            violations.add(String.format("error rate %.4f exceeds %.4f", errorRate, settings.getMaxErrorRate()));
+        }
+        double shedRate = (double) shed() / Math.max(total.getTotalCount() + shed(), 1);
+        if (shedRate > settings.getMaxShedRate()) {
+            violations.add(String.format("shed rate %.4f exceeds %.4f", shedRate, settings.getMaxShedRate()));
+        }
+        return violations;
+    }
+
+    private static void checkLatency(List<String> violations, String percentile, long micros, Duration objective) {
+        if (!objective.isZero() && micros > TimeUnit.NANOSECONDS.toMicros(objective.toNanos())) {
+            violations.add(String.format("%s latency %.2f ms exceeds %d ms", percentile, millis(micros), objective.toMillis()));
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
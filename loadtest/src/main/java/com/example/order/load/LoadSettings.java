@@ -0,0 +1,63 @@
+package com.example.order.load;
+
+import com.typesafe.config.Config;
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.List;
+
+@Value
+@Builder(toBuilder = true)
+public class LoadSettings {
+    String url;
+    /** Start the App in the load test JVM. */
+    boolean embedded;
+    /** Requests per second, sent on schedule regardless of responses. */
+    int rate;
+    Duration duration;
+    /** Leading part of the duration that is not measured. */
+    Duration warmup;
+    int concurrency;
+    int createWeight;
+    int getWeight;
+    int payWeight;
+    /** Latency objectives, zero for none. */
+    Duration p50;
+    Duration p99;
+    Duration p999;
+    /** Achieved throughput as a fraction of the rate. */
+    double minThroughput;
+    double maxErrorRate;
+    /** Fraction of requests the service may shed with 503 Service Unavailable. */
+    double maxShedRate;
+    /** Persistence modes compared by the {@link ScalingTest}. */
+    List<String> scalingModes;
+    /** Threads of the service's default dispatcher the {@link ScalingTest} runs each mode with. */
+    List<Integer> scalingCores;
+
+    public static LoadSettings fromConfig(Config config) {
+        Config mix = config.getConfig("mix");
+        Config slo = config.getConfig("slo");
+        Config scaling = config.getConfig("scaling");
+        return LoadSettings.builder()
+                .url(config.getString("url"))
+                .embedded(config.getBoolean("embedded"))
+                .rate(config.getInt("rate"))
+                .duration(config.getDuration("duration"))
+                .warmup(config.getDuration("warmup"))
+                .concurrency(config.getInt("concurrency"))
+                .createWeight(mix.getInt("create"))
+                .getWeight(mix.getInt("get"))
+                .payWeight(mix.getInt("pay"))
+                .p50(slo.getDuration("p50"))
+                .p99(slo.getDuration("p99"))
+                .p999(slo.getDuration("p999"))
+                .minThroughput(slo.getDouble("min-throughput"))
+                .maxErrorRate(slo.getDouble("max-error-rate"))
+                .maxShedRate(slo.getDouble("max-shed-rate"))
+                .scalingModes(scaling.getStringList("persistence-modes"))
+                .scalingCores(scaling.getIntList("cores"))
+                .build();
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.order.load;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.http.javadsl.Http;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpRequest;
+import akka.stream.ThrottleMode;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.example.order.App;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Sends a mix of order requests at a fixed rate and checks the latencies against objectives.
+ * <p>
+ * Request i is scheduled for start + i / rate. Its latency is measured from that time rather than
+ * from when it was actually sent, so a stalled service is charged for the requests it kept
+ * waiting (coordinated omission). The process exits with status 1 when an objective is missed.
+ */
+public class LoadTest {
+
+    enum Operation {CREATE, GET, PAY}
+
+    private static final int KNOWN_ORDERS = 1 << 16;
+    private static final long STRICT_TIMEOUT_MILLIS = 10_000;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final ActorSystem<?> system;
+    private final LoadSettings settings;
+    private final Http http;
+    private final LoadReport report = new LoadReport();
+    /** Recently created orders, read by get requests. */
+    private final AtomicReferenceArray<String> known = new AtomicReferenceArray<>(KNOWN_ORDERS);
+    private final AtomicLong created = new AtomicLong();
+    /** Created orders not paid yet, each is paid once. */
+    private final Queue<String> unpaid = new ConcurrentLinkedQueue<>();
+
+    LoadTest(ActorSystem<?> system, LoadSettings settings) {
+        this.system = system;
+        this.settings = settings;
+        this.http = Http.get(system);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = ConfigFactory.load("loadtest");
+        LoadSettings settings = LoadSettings.fromConfig(config.getConfig("loadtest"));
+        if (settings.isEmbedded()) {
+            App.main(new String[0]);
+        }
+        ActorSystem<Void> system = clientSystem(config, settings);
+        LoadTest test = new LoadTest(system, settings);
+        test.awaitService(Duration.ofSeconds(30));
+
+        System.out.printf("Sending %d requests/s to %s for %d s after %d s warmup%n", settings.getRate(),
+                settings.getUrl(), settings.getDuration().toSeconds(), settings.getWarmup().toSeconds());
+        LoadReport report = test.run().toCompletableFuture().get();
+        report.print(System.out);
+
+        List<String> violations = report.violations(settings);
+        violations.forEach(violation -> System.out.println("FAILED: " + violation));
+        if (violations.isEmpty()) {
+            System.out.println("All objectives met");
+        }
+        system.terminate();
+        System.exit(violations.isEmpty() ? 0 : 1);
+    }
+
+    static ActorSystem<Void> clientSystem(Config config, LoadSettings settings) {
+        // the pool queues requests beyond its connections, it must hold all requests in flight
+        int maxOpenRequests = Integer.highestOneBit(Math.max(settings.getConcurrency() - 1, 1)) << 1;
+        return ActorSystem.create(Behaviors.empty(), "LoadTest",
+                ConfigFactory.parseString("akka.http.host-connection-pool.max-open-requests = " + maxOpenRequests)
+                        .withFallback(config));
+    }
+
+    /**
+     * Waits until the service answers any request, e.g. while the embedded App is starting.
+     */
+    void awaitService(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (true) {
+            try {
+                http.singleRequest(HttpRequest.GET(settings.getUrl() + "/metrics"))
+                        .thenCompose(response -> response.discardEntityBytes(system).completionStage())
+                        .toCompletableFuture().get(1, TimeUnit.SECONDS);
+                return;
+            } catch (Exception e) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Order service at " + settings.getUrl() + " is not reachable", e);
+                }
+                Thread.sleep(200);
+            }
+        }
+    }
+
+    CompletionStage<LoadReport> run() {
+        long rate = settings.getRate();
+        long warmupRequests = rate * settings.getWarmup().toMillis() / 1000;
+        long totalRequests = warmupRequests + rate * settings.getDuration().toMillis() / 1000;
+        double intervalNanos = 1e9 / rate;
+        // release requests every 10 ms at high rates, the scheduler does not tick finer
+        int burst = (int) Math.max(1, rate / 100);
+        long start = System.nanoTime();
+        long measuredFrom = start + (long) (warmupRequests * intervalNanos);
+
+        return Source.range(0, (int) totalRequests - 1)
+                .throttle((int) rate, Duration.ofSeconds(1), burst, ThrottleMode.shaping())
+                .mapAsyncUnordered(settings.getConcurrency(), i -> {
+                    long scheduled = start + (long) (i * intervalNanos);
+                    return send(Math.min(scheduled, System.nanoTime()), i >= warmupRequests);
+                })
+                .runWith(Sink.ignore(), system)
+                .thenApply(done -> {
+                    report.finished(System.nanoTime() - measuredFrom);
+                    return report;
+                });
+    }
+
+    private CompletionStage<Void> send(long scheduled, boolean measured) {
+        Operation operation = nextOperation();
+        String orderId = null;
+        if (operation == Operation.GET) {
+            orderId = knownOrder();
+        } else if (operation == Operation.PAY) {
+            orderId = unpaid.poll();
+        }
+        if (orderId == null) {
+            operation = Operation.CREATE;
+        }
+        Operation sent = operation;
+        return http.singleRequest(request(operation, orderId))
+                .thenCompose(response -> response.entity().toStrict(STRICT_TIMEOUT_MILLIS, system)
+                        .thenApply(entity -> {
+                            if (response.status().isSuccess() && sent == Operation.CREATE) {
+                                remember(entity.getData().utf8String());
+                            }
+                            int status = response.status().intValue();
+                            return status == 503 && response.getHeader("Retry-After").isPresent() ? LoadReport.SHED : status;
+                        }))
+                .exceptionally(error -> LoadReport.NO_RESPONSE)
+                .thenAccept(status -> {
+                    if (measured) {
+                        report.record(sent, System.nanoTime() - scheduled, status);
+                    }
+                });
+    }
+
+    private Operation nextOperation() {
+        int total = settings.getCreateWeight() + settings.getGetWeight() + settings.getPayWeight();
+        int pick = ThreadLocalRandom.current().nextInt(total);
+        if (pick < settings.getCreateWeight()) {
+            return Operation.CREATE;
+        }
+        return pick < settings.getCreateWeight() + settings.getGetWeight() ? Operation.GET : Operation.PAY;
+    }
+
+    private HttpRequest request(Operation operation, String orderId) {
+        switch (operation) {
+            case CREATE:
+                int item = ThreadLocalRandom.current().nextInt(1000);
+                return HttpRequest.POST(settings.getUrl() + "/orders")
+                        .withEntity(ContentTypes.APPLICATION_JSON, "{\"items\":{\"SKU-" + item + "\":1}}");
+            case GET:
+                return HttpRequest.GET(settings.getUrl() + "/orders/" + orderId);
+            case PAY:
+                return HttpRequest.PATCH(settings.getUrl() + "/orders/" + orderId)
+                        .withEntity(ContentTypes.APPLICATION_JSON, "{\"state\":\"PAID\"}");
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private void remember(String createdOrder) {
+        String orderId;
+        try {
+            orderId = MAPPER.readTree(createdOrder).path("id").asText(null);
+        } catch (Exception e) {
+            return;
+        }
+        if (orderId != null) {
+            known.set((int) (created.getAndIncrement() % KNOWN_ORDERS), orderId);
+            unpaid.offer(orderId);
+        }
+    }
+
+    private String knownOrder() {
+        long count = Math.min(created.get(), KNOWN_ORDERS);
+        return count == 0 ? null : known.get(ThreadLocalRandom.current().nextInt((int) count));
+    }
+}
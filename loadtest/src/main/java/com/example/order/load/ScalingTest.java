@@ -0,0 +1,78 @@
+package com.example.order.load;
+
+import akka.NotUsed;
+import akka.actor.typed.ActorSystem;
+import com.example.order.App;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the load test against the embedded service once per persistence mode and number of cores
+ * of its default dispatcher and compares the throughput each run achieved, showing how the single
+ * persistence actor and per-order entities scale with cores.
+ * <p>
+ * Every run starts on empty data directories, so it doesn't replay the orders of earlier runs.
+ * The pinned persistence dispatcher and the fulfillment pool have threads of their own on top.
+ */
+public class ScalingTest {
+
+    public static void main(String[] args) throws Exception {
+        Config config = ConfigFactory.load("loadtest");
+        LoadSettings settings = LoadSettings.fromConfig(config.getConfig("loadtest"));
+        ActorSystem<Void> system = LoadTest.clientSystem(config, settings);
+        Path dataDir = Files.createTempDirectory("order-scaling");
+
+        System.out.printf("Sending %d requests/s for %d s after %d s warmup per run, data in %s%n", settings.getRate(),
+                settings.getDuration().toSeconds(), settings.getWarmup().toSeconds(), dataDir);
+        List<String> rows = new ArrayList<>();
+        for (String mode : settings.getScalingModes()) {
+            double baseline = 0;
+            for (int cores : settings.getScalingCores()) {
+                LoadReport report = run(system, settings, serviceConfig(mode, cores, dataDir.resolve(mode + "-" + cores)));
+                double throughput = report.throughput();
+                if (baseline == 0) {
+                    baseline = throughput;
+                }
+                rows.add(String.format("%-10s %6d %12.0f %8.2f %10.2f %8d %8d", mode, cores, throughput,
+                        throughput / Math.max(baseline, 1), report.total().getValueAtPercentile(99) / 1000.0,
+                        report.errors(), report.shed()));
+            }
+        }
+
+        System.out.printf("%-10s %6s %12s %8s %10s %8s %8s%n", "mode", "cores", "requests/s", "speedup", "p99 ms", "errors", "shed");
+        rows.forEach(System.out::println);
+        system.terminate();
+        System.exit(0);
+    }
+
+    private static LoadReport run(ActorSystem<Void> system, LoadSettings settings, Config serviceConfig) throws Exception {
+        ActorSystem<NotUsed> service = App.start(serviceConfig);
+        try {
+            LoadTest test = new LoadTest(system, settings);
+            test.awaitService(Duration.ofSeconds(30));
+            return test.run().toCompletableFuture().get();
+        } finally {
+            service.terminate();
+            service.getWhenTerminated().toCompletableFuture().get();
+        }
+    }
+
+    static Config serviceConfig(String mode, int cores, Path dir) {
+        return ConfigFactory.parseMap(Map.of(
+                "order.persistence.mode", mode,
+                "akka.actor.default-dispatcher.fork-join-executor.parallelism-min", cores,
+                "akka.actor.default-dispatcher.fork-join-executor.parallelism-max", cores,
+                "akka.persistence.journal.leveldb.dir", dir.resolve("journal").toString(),
+                "akka.persistence.journal.segment.dir", dir.resolve("segment-journal").toString(),
+                "akka.persistence.snapshot-store.local.dir", dir.resolve("snapshots").toString(),
+                "order.persistence.closed-orders.dir", dir.resolve("closed-orders").toString()))
+                .withFallback(ConfigFactory.load());
+    }
+}